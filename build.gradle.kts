@@ -1,3 +1,5 @@
+import java.io.OutputStream
+
 plugins {
     java
     application
@@ -9,6 +11,73 @@ java {
     }
 }
 
+repositories {
+    mavenCentral()
+}
+
+tasks.withType<JavaCompile> {
+    options.encoding = "UTF-8"
+}
+
+testing {
+    suites {
+        val test by getting(JvmTestSuite::class) {
+            useJUnitJupiter("5.10.2")
+        }
+    }
+}
+
+tasks.test {
+    // The corpus tests compile the programs in examples/.
+    workingDir = layout.projectDirectory.asFile
+    inputs.dir("examples")
+}
+
 application {
     mainClass.set("nalgae.cli.NalgaeCli")
 }
+
+tasks.startScripts {
+    // Use the archive that cdsArchive records, and keep an outdated one from being reported on
+    // standard output. The placeholder becomes the installation directory.
+    defaultJvmOpts = listOf("-XX:SharedArchiveFile=__APP_HOME__/lib/nalgae.jsa", "-Xlog:cds=off,cds+dynamic=off")
+    doLast {
+        unixScript.writeText(unixScript.readText().replace("__APP_HOME__", "'\"\$APP_HOME\"'"))
+        windowsScript.writeText(windowsScript.readText().replace("__APP_HOME__", "%APP_HOME%"))
+    }
+}
+
+// Records which classes a run of the installed CLI loads, compiling with javac into an empty
+// cache, into a class data sharing archive that the start scripts pass to the JVM. Later runs
+// map those classes instead of loading them. The archive belongs to this JDK and this
+// installation directory; the JVM ignores it anywhere else.
+val cdsArchive by tasks.registering(Exec::class) {
+    group = "distribution"
+    description = "Records a class data sharing archive for the installed distribution."
+    val lib = layout.buildDirectory.dir("install/nalgae/lib")
+    val cache = layout.buildDirectory.dir("tmp/cdsArchive/cache")
+    val example = layout.projectDirectory.file("examples/qt_dashboard.nal")
+    inputs.file(lib.map { it.file("nalgae.jar") })
+    inputs.file(example)
+    outputs.file(lib.map { it.file("nalgae.jsa") })
+    executable = javaToolchains.launcherFor(java.toolchain).get().executablePath.asFile.absolutePath
+    argumentProviders.add(CommandLineArgumentProvider {
+        val installed = lib.get().asFile.canonicalFile
+        listOf(
+            "-XX:ArchiveClassesAtExit=" + installed.resolve("nalgae.jsa"),
+            "-Xlog:disable",
+            "-cp", installed.resolve("nalgae.jar").path,
+            "nalgae.cli.NalgaeCli",
+            "--cache-dir=" + cache.get().asFile,
+            example.asFile.path)
+    })
+    standardOutput = OutputStream.nullOutputStream()
+    doFirst {
+        cache.get().asFile.deleteRecursively()
+        lib.get().file("nalgae.jsa").asFile.delete()
+    }
+}
+
+tasks.installDist {
+    finalizedBy(cdsArchive)
+}
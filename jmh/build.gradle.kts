@@ -0,0 +1,32 @@
+plugins {
+    java
+    id("me.champeau.jmh") version "0.7.3"
+}
+
+repositories {
+    mavenCentral()
+}
+
+java {
+    toolchain {
+        languageVersion.set(JavaLanguageVersion.of(21))
+    }
+}
+
+dependencies {
+    jmhImplementation(project(":"))
+}
+
+sourceSets {
+    named("jmh") {
+        // The example programs are benchmarked as they ship.
+        resources.srcDir(rootProject.file("examples"))
+    }
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    // Narrow a run with -Pjmh.includes=<regex>, e.g. -Pjmh.includes=Lexer
+    providers.gradleProperty("jmh.includes").orNull?.let { includes.set(listOf(it)) }
+    resultFormat.set("JSON")
+}
@@ -0,0 +1,130 @@
+package nalgae.jmh;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import nalgae.runtime.AsciiScan;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the word-at-a-time loops in {@link AsciiScan} with the one-byte-at-a-time loops they
+ * replaced: validating bytes and strings, finding every line feed, and counting the indentation
+ * of every line.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsciiScanBenchmark {
+    @Param({"small", "medium", "large"})
+    public String size;
+
+    private String text;
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        text = Inputs.named(size);
+        bytes = text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public int validateBytes() {
+        return AsciiScan.firstNotAllowed(bytes, 0, bytes.length);
+    }
+
+    @Benchmark
+    public int validateBytesScalar() {
+        for (int i = 0; i < bytes.length; i++) {
+            if (!isAllowed(bytes[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Benchmark
+    public int validateString() {
+        return AsciiScan.firstNotAllowed(text);
+    }
+
+    @Benchmark
+    public int validateStringScalar() {
+        for (int i = 0; i < text.length(); i++) {
+            if (!isAllowed(text.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Benchmark
+    public int lines() {
+        int lines = 1;
+        for (int i = AsciiScan.indexOf(bytes, 0, bytes.length, '\n'); i >= 0; i = AsciiScan.indexOf(bytes, i + 1, bytes.length, '\n')) {
+            lines++;
+        }
+        return lines;
+    }
+
+    @Benchmark
+    public int linesScalar() {
+        int lines = 1;
+        for (int i = scalarIndexOf(0, '\n'); i >= 0; i = scalarIndexOf(i + 1, '\n')) {
+            lines++;
+        }
+        return lines;
+    }
+
+    @Benchmark
+    public int indentation() {
+        int total = 0;
+        for (int start = 0; start < bytes.length; ) {
+            int end = AsciiScan.indexOf(bytes, start, bytes.length, '\n');
+            end = end < 0 ? bytes.length : end;
+            total += AsciiScan.leadingBlanks(bytes, start, end);
+            start = end + 1;
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int indentationScalar() {
+        int total = 0;
+        for (int start = 0; start < bytes.length; ) {
+            int end = scalarIndexOf(start, '\n');
+            end = end < 0 ? bytes.length : end;
+            int count = 0;
+            while (start + count < end && (bytes[start + count] == ' ' || bytes[start + count] == '\t')) {
+                count++;
+            }
+            total += count;
+            start = end + 1;
+        }
+        return total;
+    }
+
+    private int scalarIndexOf(int from, int target) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isAllowed(int code) {
+        return code == 0x09 || code == 0x0A || code == 0x0D || (code >= 0x20 && code <= 0x7E);
+    }
+}
@@ -0,0 +1,99 @@
+package nalgae.jmh;
+
+import java.util.concurrent.TimeUnit;
+import nalgae.runtime.Builtins;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures each {@link Builtins} method on small, medium and multi-megabyte inputs. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuiltinsBenchmark {
+    @Param({"small", "medium", "large"})
+    public String size;
+
+    private String input;
+
+    @Setup
+    public void setUp() {
+        input = Inputs.named(size);
+    }
+
+    @Benchmark
+    public String requireAscii() {
+        return Builtins.requireAscii(input);
+    }
+
+    @Benchmark
+    public String id() {
+        return Builtins.id(input);
+    }
+
+    @Benchmark
+    public String upper() {
+        return Builtins.upper(input);
+    }
+
+    @Benchmark
+    public String lower() {
+        return Builtins.lower(input);
+    }
+
+    @Benchmark
+    public String trim() {
+        return Builtins.trim(input);
+    }
+
+    @Benchmark
+    public String append() {
+        return Builtins.append(input, "!");
+    }
+
+    @Benchmark
+    public String prepend() {
+        return Builtins.prepend(input, "> ");
+    }
+
+    @Benchmark
+    public String replace() {
+        return Builtins.replace(input, "spacing", "gap");
+    }
+
+    @Benchmark
+    public String indent() {
+        return Builtins.indent(input, "    ");
+    }
+
+    @Benchmark
+    public String trimIndent() {
+        return Builtins.trimIndent(input);
+    }
+
+    @Benchmark
+    public String eachLine() {
+        return Builtins.eachLine(input, Builtins::trim);
+    }
+
+    @Benchmark
+    public String wrap() {
+        return Builtins.wrap(input, "<", ">");
+    }
+
+    @Benchmark
+    public String constValue() {
+        return Builtins.constValue(input, "constant");
+    }
+}
@@ -0,0 +1,61 @@
+package nalgae.jmh;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+import nalgae.NalgaeEngine;
+import nalgae.ast.Program;
+import nalgae.compiler.Backend;
+import nalgae.compiler.CompiledProgram;
+import nalgae.compiler.Optimizer;
+import nalgae.compiler.ProgramCompiler;
+import nalgae.parser.Lexer;
+import nalgae.parser.Parser;
+import nalgae.runtime.AsciiString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures what {@code NalgaeCli.execute} does with a compiled class on a cold start: define it
+ * in a fresh loader, look up {@code runAscii} and call it once. Each invocation uses a new
+ * loader, so class definition, verification and linking are part of every sample.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassLoadingBenchmark {
+    @Param({"qt_dashboard", "deep_pipeline", "wide_group", "many_defs"})
+    public String program;
+
+    @Param({"JAVAC", "BYTECODE"})
+    public Backend backend;
+
+    private CompiledProgram compiled;
+    private final AsciiString input = AsciiString.of("Hello, nalgae");
+
+    @Setup
+    public void setUp() {
+        Program folded = new Optimizer(new Parser(new Lexer(Programs.named(program)).tokenize()).parseProgram()).optimize();
+        compiled = new ProgramCompiler(folded, "nalgae.generated.Benchmark", backend).compile();
+    }
+
+    @Benchmark
+    public Object loadAndRun() throws Throwable {
+        MethodHandle run = MethodHandles.publicLookup().findStatic(NalgaeEngine.define(compiled), "runAscii",
+            MethodType.methodType(AsciiString.class, AsciiString.class));
+        return (AsciiString) run.invokeExact(input);
+    }
+}
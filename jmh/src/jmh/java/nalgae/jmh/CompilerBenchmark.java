@@ -0,0 +1,63 @@
+package nalgae.jmh;
+
+import java.util.concurrent.TimeUnit;
+import nalgae.ast.Program;
+import nalgae.compiler.Backend;
+import nalgae.compiler.CompiledProgram;
+import nalgae.compiler.Optimizer;
+import nalgae.compiler.ProgramCompiler;
+import nalgae.parser.Lexer;
+import nalgae.parser.Parser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link ProgramCompiler#compile} in its parts: generating Java source, compiling that
+ * source with javac, and the bytecode backend, which does both at once. Programs are folded in
+ * setup, as the CLI does before compiling.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompilerBenchmark {
+    private static final String CLASS_NAME = "nalgae.generated.Benchmark";
+
+    @Param({"qt_dashboard", "deep_pipeline", "wide_group", "many_defs"})
+    public String program;
+
+    private Program folded;
+    private String source;
+
+    @Setup
+    public void setUp() {
+        folded = new Optimizer(new Parser(new Lexer(Programs.named(program)).tokenize()).parseProgram()).optimize();
+        source = new ProgramCompiler(folded, CLASS_NAME).generateSource();
+    }
+
+    @Benchmark
+    public String generateSource() {
+        return new ProgramCompiler(folded, CLASS_NAME).generateSource();
+    }
+
+    @Benchmark
+    public CompiledProgram javac() {
+        return new ProgramCompiler(folded, CLASS_NAME).compileSource(source);
+    }
+
+    @Benchmark
+    public CompiledProgram bytecodeBackend() {
+        return new ProgramCompiler(folded, CLASS_NAME, Backend.BYTECODE).compile();
+    }
+}
@@ -0,0 +1,69 @@
+package nalgae.jmh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import nalgae.NalgaeEngine;
+import nalgae.compiler.Backend;
+import nalgae.compiler.CompilerOptions;
+import nalgae.runtime.Builtins;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Applies a definition to every line of an input: through the {@code each_line} loop of a
+ * compiled program, and as the same builtin calls written in Java over {@code split}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EachLineBenchmark {
+    private static final String SOURCE = """
+        def bullet(line) = line | trim | prepend "- "
+        it | each_line bullet
+        """;
+
+    @Param({"JAVAC", "BYTECODE"})
+    public Backend backend;
+
+    @Param({"medium", "large"})
+    public String size;
+
+    private String input;
+    private Function<String, String> program;
+
+    @Setup
+    public void setUp() {
+        input = Inputs.named(size);
+        program = new NalgaeEngine(backend, CompilerOptions.DEFAULT, null).compile(SOURCE, "EachLine");
+    }
+
+    @Benchmark
+    public String eachLine() {
+        return program.apply(input);
+    }
+
+    @Benchmark
+    public String split() {
+        String[] lines = Builtins.requireAscii(input).split("\\n", -1);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines.length; i++) {
+            if (i > 0) {
+                sb.append('\n');
+            }
+            sb.append(Builtins.prepend(Builtins.trim(lines[i]), "- "));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,68 @@
+package nalgae.jmh;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import nalgae.NalgaeEngine;
+import nalgae.compiler.Backend;
+import nalgae.compiler.CompilerOptions;
+import nalgae.runtime.Builtins;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Calls one small program from 64 threads at once: through the function {@link NalgaeEngine}
+ * returns, through {@link Method#invoke} on its {@code run} method, and as the same builtin calls
+ * written in Java. The engine should keep up with the Java version.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(64)
+public class EngineBenchmark {
+    private static final String SOURCE = """
+        def excited(x) = x | upper | append "!"
+        it | trim | excited
+        """;
+
+    @Param({"JAVAC", "BYTECODE"})
+    public Backend backend;
+
+    private final String input = "  Hello, nalgae  ";
+    private Function<String, String> program;
+    private Method run;
+
+    @Setup
+    public void setUp() throws NoSuchMethodException {
+        program = new NalgaeEngine(backend, CompilerOptions.DEFAULT, null).compile(SOURCE, "Engine");
+        run = program.getClass().getMethod("run", String.class);
+    }
+
+    @Benchmark
+    public String engine() {
+        return program.apply(input);
+    }
+
+    @Benchmark
+    public Object reflection() throws Exception {
+        return run.invoke(null, input);
+    }
+
+    @Benchmark
+    public String direct() {
+        return Builtins.append(Builtins.upper(Builtins.trim(Builtins.requireAscii(input))), "!");
+    }
+}
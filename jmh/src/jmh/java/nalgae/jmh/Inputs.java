@@ -0,0 +1,33 @@
+package nalgae.jmh;
+
+/** Deterministic ASCII inputs of a given size, shaped like indented source text. */
+final class Inputs {
+    private static final String[] LINES = {
+        "    Row {",
+        "        spacing: 12",
+        "        Label { text: \"CPU\"; font.pixelSize: 16 }",
+        "        ProgressBar { value: 0.68; Layout.fillWidth: true }",
+        "    }",
+    };
+
+    private Inputs() {}
+
+    /** Returns text of {@code size}: small (64 B), medium (64 KiB) or large (4 MiB). */
+    static String named(String size) {
+        return switch (size) {
+            case "small" -> ascii(64);
+            case "medium" -> ascii(64 * 1024);
+            case "large" -> ascii(4 * 1024 * 1024);
+            default -> throw new IllegalArgumentException("Unknown input size: " + size);
+        };
+    }
+
+    static String ascii(int length) {
+        StringBuilder sb = new StringBuilder(length + 64);
+        for (int i = 0; sb.length() < length; i++) {
+            sb.append(LINES[i % LINES.length]).append('\n');
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,50 @@
+package nalgae.jmh;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import nalgae.parser.Lexer;
+import nalgae.parser.Token;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark {
+    @Param({"qt_dashboard", "deep_pipeline", "wide_group", "many_defs"})
+    public String program;
+
+    private String source;
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        source = Programs.named(program);
+        bytes = source.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<Token> tokenize() {
+        return new Lexer(source).tokenize();
+    }
+
+    /** Lexes the source as the CLI does, straight from its bytes. */
+    @Benchmark
+    public List<Token> tokenizeBytes() {
+        return new Lexer(ByteBuffer.wrap(bytes)).tokenize();
+    }
+}
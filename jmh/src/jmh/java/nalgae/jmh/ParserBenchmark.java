@@ -0,0 +1,63 @@
+package nalgae.jmh;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import nalgae.ast.FlatProgram;
+import nalgae.ast.Program;
+import nalgae.parser.Lexer;
+import nalgae.parser.Parser;
+import nalgae.parser.Token;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parses tokens produced once in setup, so lexing is not part of the measurement, and compares
+ * that with parsing while lexing from the source bytes, which is what the CLI does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+    @Param({"qt_dashboard", "deep_pipeline", "wide_group", "many_defs"})
+    public String program;
+
+    private List<Token> tokens;
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        String source = Programs.named(program);
+        tokens = new Lexer(source).tokenize();
+        bytes = source.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Program parseProgram() {
+        return new Parser(tokens).parseProgram();
+    }
+
+    /** Parses into the compact form only, without building the records. */
+    @Benchmark
+    public FlatProgram parseFlat() {
+        return new Parser(tokens).parseFlat();
+    }
+
+    @Benchmark
+    public Program parseStreaming() {
+        return new Parser(new Lexer(ByteBuffer.wrap(bytes))).parseProgram();
+    }
+}
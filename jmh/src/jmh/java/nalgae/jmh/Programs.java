@@ -0,0 +1,67 @@
+package nalgae.jmh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Source texts the benchmarks run on: the shipped example and synthetic programs that stress one
+ * dimension each. Every synthetic program reads {@code it}, so constant folding cannot reduce it
+ * to a literal before it reaches the compiler.
+ */
+final class Programs {
+    private static final String[] STEPS = {"upper", "append \"a\"", "lower", "replace \"a\" \"b\"", "trim", "prepend \"c\""};
+
+    private Programs() {}
+
+    /** Returns the source of a program named by a benchmark {@code @Param}. */
+    static String named(String name) {
+        return switch (name) {
+            case "qt_dashboard" -> example("qt_dashboard.nal");
+            case "deep_pipeline" -> deepPipeline(200);
+            case "wide_group" -> wideGroup(200);
+            case "many_defs" -> manyDefinitions(200);
+            default -> throw new IllegalArgumentException("Unknown program: " + name);
+        };
+    }
+
+    /** One pipeline of {@code steps} builtin stages. */
+    static String deepPipeline(int steps) {
+        StringBuilder sb = new StringBuilder("it");
+        for (int i = 0; i < steps; i++) {
+            sb.append(" | ").append(STEPS[i % STEPS.length]);
+        }
+        return sb.append('\n').toString();
+    }
+
+    /** One group with {@code sections} sections that each transform the input. */
+    static String wideGroup(int sections) {
+        StringBuilder sb = new StringBuilder("{\n");
+        for (int i = 0; i < sections; i++) {
+            sb.append("  it | ").append(STEPS[i % STEPS.length]).append(" | append \"").append(i).append("\"\n");
+        }
+        return sb.append("}\n").toString();
+    }
+
+    /** A chain of {@code count} definitions, each calling the previous one. */
+    static String manyDefinitions(int count) {
+        StringBuilder sb = new StringBuilder("def d0(x) = x | upper\n");
+        for (int i = 1; i < count; i++) {
+            sb.append("def d").append(i).append("(x) = x | d").append(i - 1)
+                .append(" | ").append(STEPS[i % STEPS.length]).append('\n');
+        }
+        return sb.append("it | d").append(count - 1).append('\n').toString();
+    }
+
+    private static String example(String file) {
+        try (InputStream in = Programs.class.getResourceAsStream("/" + file)) {
+            if (in == null) {
+                throw new IllegalStateException("Example not found: " + file);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
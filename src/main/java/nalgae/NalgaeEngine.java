@@ -0,0 +1,130 @@
+package nalgae;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.function.Function;
+import nalgae.ast.Program;
+import nalgae.compiler.Backend;
+import nalgae.compiler.CompilationCache;
+import nalgae.compiler.CompiledProgram;
+import nalgae.compiler.CompilerOptions;
+import nalgae.compiler.GeneratedClassLoader;
+import nalgae.compiler.Optimizer;
+import nalgae.compiler.PhaseMetrics;
+import nalgae.compiler.ProgramCompiler;
+import nalgae.parser.Lexer;
+import nalgae.parser.Parser;
+
+/**
+ * Compiles nalgae programs for code that embeds the language, such as a service rendering
+ * templates.
+ *
+ * <p>{@link #compile} returns the generated class itself, created once through a method handle to
+ * its constructor. Its {@code apply} calls the static {@code run} method directly, so a caller
+ * pays no reflection per call and the JIT can inline the program into the calling code. The
+ * function keeps no state between calls apart from memo caches and stage counters, which are
+ * thread-safe, so one instance can serve any number of threads. Hold on to it: compiling is far
+ * more expensive than calling.
+ *
+ * <p>Every program is defined in a {@link GeneratedClassLoader} of its own, the same way the CLI
+ * loads programs, so its classes can be unloaded once the function is no longer referenced. An
+ * engine holds nothing that changes, so threads can compile through one engine at the same time.
+ */
+public final class NalgaeEngine {
+    private static final MethodType CONSTRUCTOR = MethodType.methodType(void.class);
+    /** Reaches definitions, builtins with arguments and groups, so each part of the compiler runs. */
+    private static final String WARMUP_SOURCE = """
+        def shout(x) = x | upper | append "!"
+        {
+          it | trim | shout
+          it | replace "a" "b" | lower
+        }
+        """;
+
+    private final Backend backend;
+    private final CompilerOptions options;
+    private final CompilationCache cache;
+
+    /** An engine that compiles through javac with the default options and no cache. */
+    public NalgaeEngine() {
+        this(Backend.JAVAC, CompilerOptions.DEFAULT, null);
+    }
+
+    /** {@code cache} may be {@code null}. */
+    public NalgaeEngine(Backend backend, CompilerOptions options, CompilationCache cache) {
+        this.backend = backend;
+        this.options = options;
+        this.cache = cache;
+    }
+
+    public Function<String, String> compile(String source) {
+        return compile(source, "Program");
+    }
+
+    /**
+     * Parses, folds and compiles a program, or takes its classes from the cache, and loads it.
+     * {@code classBaseName} starts the name of the generated class.
+     *
+     * @throws RuntimeException if the program does not parse or compile
+     */
+    public Function<String, String> compile(String source, String classBaseName) {
+        Program program = new Optimizer(new Parser(new Lexer(source)).parseProgram()).optimize();
+        String programKey = CompilationCache.programKey(program, classBaseName, backend, options);
+        CompiledProgram compiled = cache == null ? null : cache.find(programKey).orElse(null);
+        if (compiled == null) {
+            String className = CompilationCache.className(classBaseName, programKey);
+            compiled = new ProgramCompiler(program, className, backend, options, cache).compile();
+            if (cache != null) {
+                cache.store(programKey, compiled);
+            }
+        }
+        return load(compiled);
+    }
+
+    /**
+     * Compiles and runs a small program, so that the lexer, parser, optimizer and code generator,
+     * and javac with the javac backend, are loaded before the first real program needs them.
+     */
+    public NalgaeEngine warmup() {
+        warmup(compile(WARMUP_SOURCE, "Warmup"), List.of("  nalgae  "), 1);
+        return this;
+    }
+
+    /**
+     * Calls {@code program} with every input, {@code rounds} times over, so that it has been
+     * compiled by the JIT before the calls that matter. Returns {@code program}.
+     */
+    public static Function<String, String> warmup(Function<String, String> program, Iterable<String> inputs, int rounds) {
+        for (int i = 0; i < rounds; i++) {
+            for (String input : inputs) {
+                program.apply(input);
+            }
+        }
+        return program;
+    }
+
+    /** Defines a compiled program in a loader of its own and creates its function. */
+    @SuppressWarnings("unchecked")
+    public static Function<String, String> load(CompiledProgram compiled) {
+        Class<?> clazz = define(compiled);
+        try {
+            MethodHandle constructor = MethodHandles.publicLookup().findConstructor(clazz, CONSTRUCTOR);
+            return (Function<String, String>) constructor.invoke();
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException("Cannot instantiate " + compiled.className(), ex);
+        }
+    }
+
+    /** Defines the classes of a compiled program in a new {@link GeneratedClassLoader}. */
+    public static Class<?> define(CompiledProgram compiled) {
+        try (PhaseMetrics.Phase phase = PhaseMetrics.global().start("define")) {
+            GeneratedClassLoader loader = new GeneratedClassLoader(NalgaeEngine.class.getClassLoader());
+            phase.measure("classBytes", compiled.bytecode().length);
+            return loader.define(compiled);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package nalgae.ast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A program stored in a few primitive arrays instead of one object per node, for programs too
+ * large to parse comfortably into {@link Program} records.
+ *
+ * <p>Nodes are numbered in the order they are completed, so children come before their parents.
+ * For every node the arrays hold its {@link Kind}, its line, an index into the string pool (the
+ * name of an identifier, the value of a literal, the target of a call) and the range of its
+ * children in one shared array. Each distinct name is stored once in the pool, however many
+ * identifiers, calls and definitions use it; literal values are stored as they come.
+ * {@link #toProgram} builds the equivalent records for code that works on those.
+ */
+public final class FlatProgram {
+    public enum Kind {
+        PIPELINE,
+        IDENTIFIER,
+        STRING,
+        CALL,
+        GROUP,
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    private final int nodeCount;
+    private final byte[] kinds;
+    private final int[] lines;
+    private final int[] texts;
+    private final int[] firstChildren;
+    private final int[] childCounts;
+    private final int[] children;
+    private final String[] strings;
+    private final int[] definitions;
+    private final int definitionCount;
+    private final int expression;
+
+    /** Takes over the builder's arrays as they are; they may be longer than they need to be. */
+    private FlatProgram(Builder builder, int expression) {
+        this.nodeCount = builder.nodes;
+        this.kinds = builder.kinds;
+        this.lines = builder.lines;
+        this.texts = builder.texts;
+        this.firstChildren = builder.firstChildren;
+        this.childCounts = builder.childCounts;
+        this.children = builder.children;
+        this.strings = builder.strings;
+        this.definitions = builder.definitions;
+        this.definitionCount = builder.definitionsSize / 4;
+        this.expression = expression;
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public Kind kind(int node) {
+        return KINDS[kinds[node]];
+    }
+
+    public int line(int node) {
+        return lines[node];
+    }
+
+    /** The name of an identifier, the value of a string literal or the target of a call. */
+    public String text(int node) {
+        return strings[texts[node]];
+    }
+
+    /** The terms of a pipeline, the arguments of a call or the sections of a group. */
+    public int childCount(int node) {
+        return childCounts[node];
+    }
+
+    public int child(int node, int index) {
+        if (index < 0 || index >= childCounts[node]) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return children[firstChildren[node] + index];
+    }
+
+    public int definitionCount() {
+        return definitionCount;
+    }
+
+    public String definitionName(int definition) {
+        return strings[definitions[definition * 4]];
+    }
+
+    public String definitionParameter(int definition) {
+        return strings[definitions[definition * 4 + 1]];
+    }
+
+    /** The pipeline node of a definition's body. */
+    public int definitionBody(int definition) {
+        return definitions[definition * 4 + 2];
+    }
+
+    public int definitionLine(int definition) {
+        return definitions[definition * 4 + 3];
+    }
+
+    /** The pipeline node of the main expression, or {@code -1} if the program has none. */
+    public int expression() {
+        return expression;
+    }
+
+    /** Builds the {@link Program} records for this program. */
+    public Program toProgram() {
+        List<Definition> definitions = new ArrayList<>(definitionCount());
+        for (int i = 0; i < definitionCount(); i++) {
+            definitions.add(new Definition(definitionName(i), definitionParameter(i),
+                toExpression(definitionBody(i)), definitionLine(i)));
+        }
+        return new Program(definitions, expression < 0 ? null : toExpression(expression));
+    }
+
+    private Expression toExpression(int node) {
+        List<Term> terms = new ArrayList<>(childCounts[node]);
+        for (int i = 0; i < childCounts[node]; i++) {
+            terms.add(toTerm(children[firstChildren[node] + i]));
+        }
+        return new Pipeline(terms, lines[node]);
+    }
+
+    private Term toTerm(int node) {
+        return switch (kind(node)) {
+            case IDENTIFIER -> new Identifier(text(node), lines[node]);
+            case STRING -> new StringLiteral(text(node), lines[node]);
+            case CALL -> {
+                List<Term> arguments = new ArrayList<>(childCounts[node]);
+                for (int i = 0; i < childCounts[node]; i++) {
+                    arguments.add(toTerm(children[firstChildren[node] + i]));
+                }
+                yield new Call(text(node), arguments, lines[node]);
+            }
+            case GROUP -> {
+                List<Expression> expressions = new ArrayList<>(childCounts[node]);
+                for (int i = 0; i < childCounts[node]; i++) {
+                    expressions.add(toExpression(children[firstChildren[node] + i]));
+                }
+                yield new Group(expressions, lines[node]);
+            }
+            case PIPELINE -> throw new IllegalStateException("Pipeline " + node + " used as a term");
+        };
+    }
+
+    /**
+     * Collects nodes as a parser completes them. The children of a node are pushed as they are
+     * completed, between a {@link #mark} and the call that completes the node. A builder builds
+     * one program.
+     */
+    public static final class Builder {
+        private byte[] kinds = new byte[64];
+        private int[] lines = new int[64];
+        private int[] texts = new int[64];
+        private int[] firstChildren = new int[64];
+        private int[] childCounts = new int[64];
+        private int nodes;
+        private int[] children = new int[64];
+        private int childrenSize;
+        private int[] pending = new int[16];
+        private int pendingSize;
+        private int[] definitions = new int[16];
+        private int definitionsSize;
+        private String[] strings = new String[64];
+        private int stringCount;
+        /** Open-addressing table of name indexes plus one, by hash; zero marks a free slot. */
+        private int[] pool = new int[128];
+        private int pooled;
+
+        /** Returns the position to pass when completing the node whose children follow. */
+        public int mark() {
+            return pendingSize;
+        }
+
+        /** Adds a completed node as a child of the node being built. */
+        public void push(int node) {
+            if (pendingSize == pending.length) {
+                pending = Arrays.copyOf(pending, pendingSize * 2);
+            }
+            pending[pendingSize++] = node;
+        }
+
+        public int line(int node) {
+            return lines[node];
+        }
+
+        public int pipeline(int mark, int line) {
+            return node(Kind.PIPELINE, 0, mark, line);
+        }
+
+        public int identifier(String name, int line) {
+            return node(Kind.IDENTIFIER, intern(name), pendingSize, line);
+        }
+
+        public int string(String value, int line) {
+            return node(Kind.STRING, add(value), pendingSize, line);
+        }
+
+        public int call(String target, int mark, int line) {
+            return node(Kind.CALL, intern(target), mark, line);
+        }
+
+        public int group(int mark, int line) {
+            return node(Kind.GROUP, 0, mark, line);
+        }
+
+        public void definition(String name, String parameter, int body, int line) {
+            if (definitionsSize + 4 > definitions.length) {
+                definitions = Arrays.copyOf(definitions, definitions.length * 2);
+            }
+            definitions[definitionsSize++] = intern(name);
+            definitions[definitionsSize++] = intern(parameter);
+            definitions[definitionsSize++] = body;
+            definitions[definitionsSize++] = line;
+        }
+
+        /** Finishes the program with the given main expression, or {@code -1} for none. */
+        public FlatProgram build(int expression) {
+            return new FlatProgram(this, expression);
+        }
+
+        private int node(Kind kind, int text, int mark, int line) {
+            if (nodes == kinds.length) {
+                int capacity = nodes * 2;
+                kinds = Arrays.copyOf(kinds, capacity);
+                lines = Arrays.copyOf(lines, capacity);
+                texts = Arrays.copyOf(texts, capacity);
+                firstChildren = Arrays.copyOf(firstChildren, capacity);
+                childCounts = Arrays.copyOf(childCounts, capacity);
+            }
+            int count = pendingSize - mark;
+            if (childrenSize + count > children.length) {
+                children = Arrays.copyOf(children, Math.max(children.length * 2, childrenSize + count));
+            }
+            System.arraycopy(pending, mark, children, childrenSize, count);
+            pendingSize = mark;
+            kinds[nodes] = (byte) kind.ordinal();
+            lines[nodes] = line;
+            texts[nodes] = text;
+            firstChildren[nodes] = childrenSize;
+            childCounts[nodes] = count;
+            childrenSize += count;
+            return nodes++;
+        }
+
+        private int intern(String text) {
+            int hash = text.hashCode();
+            int mask = pool.length - 1;
+            int slot = spread(hash) & mask;
+            for (int entry = pool[slot]; entry != 0; entry = pool[slot]) {
+                String candidate = strings[entry - 1];
+                if (candidate == text || (candidate.hashCode() == hash && candidate.equals(text))) {
+                    return entry - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            int index = add(text);
+            pool[slot] = index + 1;
+            if (++pooled * 2 > pool.length) {
+                rehash();
+            }
+            return index;
+        }
+
+        /** Adds a string without looking for an equal one, as literal values rarely repeat. */
+        private int add(String text) {
+            if (stringCount == strings.length) {
+                strings = Arrays.copyOf(strings, stringCount * 2);
+            }
+            strings[stringCount] = text;
+            return stringCount++;
+        }
+
+        private void rehash() {
+            int[] old = pool;
+            pool = new int[old.length * 2];
+            int mask = pool.length - 1;
+            for (int entry : old) {
+                if (entry != 0) {
+                    int slot = spread(strings[entry - 1].hashCode()) & mask;
+                    while (pool[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    pool[slot] = entry;
+                }
+            }
+        }
+
+        /** Scrambles a string hash so that consecutive hashes do not fill adjacent slots. */
+        private static int spread(int hash) {
+            int mixed = hash * 0x9E3779B9;
+            return mixed ^ (mixed >>> 16);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package nalgae.cli;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Applies a compiled program to every delimited record of a channel and writes the results,
+ * each followed by the same delimiter, in input order.
+ *
+ * <p>With more than one worker, records are handed out in fixed-size chunks and at most two
+ * chunks per worker are in flight, so memory stays bounded however long the input is.
+ */
+final class BatchRunner {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CHUNK_RECORDS = 1024;
+
+    private final Function<String, String> program;
+    private final byte delimiter;
+    private final int workers;
+    private final Options.ErrorPolicy onError;
+    private final PrintStream errors;
+
+    BatchRunner(Function<String, String> program, byte delimiter, int workers, Options.ErrorPolicy onError, PrintStream errors) {
+        this.program = program;
+        this.delimiter = delimiter;
+        this.workers = workers;
+        this.onError = onError;
+        this.errors = errors;
+    }
+
+    record Summary(long records, long failed) {}
+
+    static final class AbortedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        AbortedException(long record, String message) {
+            super("Record " + record + ": " + message);
+        }
+    }
+
+    Summary run(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        RecordReader reader = new RecordReader(in, delimiter);
+        RecordWriter writer = new RecordWriter(out, delimiter);
+        Summary summary = workers == 1 ? runSequential(reader, writer) : runParallel(reader, writer);
+        writer.flush();
+        return summary;
+    }
+
+    private Summary runSequential(RecordReader reader, RecordWriter writer) throws IOException {
+        long records = 0;
+        long failed = 0;
+        String record;
+        while ((record = reader.next()) != null) {
+            records++;
+            if (!emit(transform(records, record), writer)) {
+                failed++;
+            }
+        }
+        return new Summary(records, failed);
+    }
+
+    private Summary runParallel(RecordReader reader, RecordWriter writer) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        ArrayDeque<Future<List<Outcome>>> window = new ArrayDeque<>();
+        long records = 0;
+        long failed = 0;
+        try {
+            boolean exhausted = false;
+            while (!exhausted || !window.isEmpty()) {
+                while (!exhausted && window.size() < workers * 2) {
+                    List<String> chunk = new ArrayList<>(CHUNK_RECORDS);
+                    String record;
+                    while (chunk.size() < CHUNK_RECORDS && (record = reader.next()) != null) {
+                        chunk.add(record);
+                    }
+                    exhausted = chunk.size() < CHUNK_RECORDS;
+                    if (!chunk.isEmpty()) {
+                        long first = records + 1;
+                        records += chunk.size();
+                        window.add(executor.submit(() -> transformAll(first, chunk)));
+                    }
+                }
+                Future<List<Outcome>> head = window.poll();
+                if (head == null) {
+                    break;
+                }
+                for (Outcome outcome : await(head)) {
+                    if (!emit(outcome, writer)) {
+                        failed++;
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return new Summary(records, failed);
+    }
+
+    private List<Outcome> transformAll(long first, List<String> chunk) {
+        List<Outcome> outcomes = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            outcomes.add(transform(first + i, chunk.get(i)));
+        }
+        return outcomes;
+    }
+
+    private Outcome transform(long number, String record) {
+        try {
+            return new Outcome(number, program.apply(record), null);
+        } catch (RuntimeException ex) {
+            return new Outcome(number, null, ex);
+        }
+    }
+
+    /** Writes a successful outcome or applies the error policy; returns whether it succeeded. */
+    private boolean emit(Outcome outcome, RecordWriter writer) throws IOException {
+        if (outcome.failure() == null) {
+            writer.write(outcome.output());
+            return true;
+        }
+        String message = String.valueOf(outcome.failure().getMessage());
+        if (onError == Options.ErrorPolicy.ABORT) {
+            writer.flush();
+            throw new AbortedException(outcome.number(), message);
+        }
+        errors.println("Skipped record " + outcome.number() + ": " + message);
+        return false;
+    }
+
+    private static List<Outcome> await(Future<List<Outcome>> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for batch workers", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Batch worker failed", ex.getCause());
+        }
+    }
+
+    private record Outcome(long number, String output, RuntimeException failure) {}
+
+    /** Splits a channel into records without decoding more than one record at a time. */
+    static final class RecordReader {
+        private final ReadableByteChannel channel;
+        private final byte delimiter;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).flip();
+        private byte[] pending = new byte[256];
+        private int pendingLength = 0;
+        private boolean endOfInput = false;
+
+        RecordReader(ReadableByteChannel channel, byte delimiter) {
+            this.channel = channel;
+            this.delimiter = delimiter;
+        }
+
+        /** Returns the next record, or {@code null} once the input is exhausted. */
+        String next() throws IOException {
+            while (true) {
+                byte[] array = buffer.array();
+                int start = buffer.position();
+                int limit = buffer.limit();
+                for (int i = start; i < limit; i++) {
+                    if (array[i] == delimiter) {
+                        buffer.position(i + 1);
+                        return take(array, start, i - start);
+                    }
+                }
+                keep(array, start, limit - start);
+                buffer.position(limit);
+                if (endOfInput) {
+                    return pendingLength > 0 ? take(array, 0, 0) : null;
+                }
+                buffer.clear();
+                endOfInput = channel.read(buffer) < 0;
+                buffer.flip();
+            }
+        }
+
+        private void keep(byte[] array, int offset, int length) {
+            if (pendingLength + length > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + length));
+            }
+            System.arraycopy(array, offset, pending, pendingLength, length);
+            pendingLength += length;
+        }
+
+        private String take(byte[] array, int offset, int length) {
+            if (pendingLength == 0) {
+                return new String(array, offset, length, StandardCharsets.ISO_8859_1);
+            }
+            keep(array, offset, length);
+            String record = new String(pending, 0, pendingLength, StandardCharsets.ISO_8859_1);
+            pendingLength = 0;
+            return record;
+        }
+    }
+
+    /** Buffers ASCII output and writes it to the channel in large blocks. */
+    static final class RecordWriter {
+        private final WritableByteChannel channel;
+        private final byte delimiter;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        RecordWriter(WritableByteChannel channel, byte delimiter) {
+            this.channel = channel;
+            this.delimiter = delimiter;
+        }
+
+        void write(String record) throws IOException {
+            byte[] array = buffer.array();
+            int length = record.length();
+            int index = 0;
+            while (index < length) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                int position = buffer.position();
+                int end = Math.min(length, index + buffer.remaining());
+                for (int i = index; i < end; i++) {
+                    array[position++] = (byte) record.charAt(i);
+                }
+                buffer.position(position);
+                index = end;
+            }
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            buffer.put(delimiter);
+        }
+
+        void flush() throws IOException {
+            drain();
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -1,57 +1,299 @@
 package nalgae.cli;
 
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.lang.reflect.Method;
-import java.net.URL;
-import java.net.URLClassLoader;
-import java.nio.charset.StandardCharsets;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.function.Function;
+import nalgae.NalgaeEngine;
+import nalgae.ast.FlatProgram;
 import nalgae.ast.Program;
+import nalgae.compiler.CompilationCache;
 import nalgae.compiler.CompiledProgram;
+import nalgae.compiler.Interpreter;
+import nalgae.compiler.Optimizer;
+import nalgae.compiler.PhaseMetrics;
 import nalgae.compiler.ProgramCompiler;
+import nalgae.compiler.ProgramPrinter;
+import nalgae.compiler.TieredProgram;
 import nalgae.parser.Lexer;
 import nalgae.parser.Parser;
+import nalgae.runtime.AsciiScan;
+import nalgae.runtime.AsciiSink;
+import nalgae.runtime.AsciiString;
+import nalgae.runtime.MemoCache;
+import nalgae.runtime.StageCounter;
 
 public final class NalgaeCli {
+    /** Source files at least this large are mapped into memory instead of read. */
+    private static final long MAP_THRESHOLD = 16 << 20;
+
     private NalgaeCli() {}
 
     public static void main(String[] args) throws IOException {
-        if (args.length == 0) {
-            System.err.println("Usage: nalgae <source-file> [input]");
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(Options.USAGE);
+            return;
+        }
+        if (options.serve) {
+            NalgaeServer.serve(options);
+            return;
+        }
+        if (options.connect) {
+            NalgaeClient.run(options);
+            return;
+        }
+        if (options.watch) {
+            NalgaeWatcher.watch(options);
+            return;
+        }
+        if (options.export) {
+            NalgaeExporter.export(options);
+            return;
+        }
+        if (options.compileAll) {
+            NalgaeCompileAll.compileAll(options);
             return;
         }
 
-        Path sourcePath = Path.of(args[0]);
+        Path sourcePath = Path.of(options.arguments.get(0));
         if (!Files.exists(sourcePath)) {
             System.err.println("Source file not found: " + sourcePath);
             return;
         }
 
-        String input = args.length >= 2 ? args[1] : "";
+        String input = options.arguments.size() >= 2 ? options.arguments.get(1) : "";
         ensureAscii(input);
 
-        String source = Files.readString(sourcePath, StandardCharsets.UTF_8);
+        ByteBuffer source = readSource(sourcePath);
+        CompilationCache cache = options.useCache ? new CompilationCache(options.cacheDir, options.cacheMaxBytes) : null;
         try {
-            Program program = parse(source);
-            String className = buildClassName(sourcePath);
-            ProgramCompiler compiler = new ProgramCompiler(program, className);
-            CompiledProgram compiled = compiler.compile();
-            String result = execute(compiled, input);
-            System.out.println(result);
+            if (options.dumpOptimized) {
+                dumpOptimized(source);
+                return;
+            }
+            String baseName = classBaseName(sourcePath);
+            if (options.tier == Options.Tier.COMPILE && !options.batch) {
+                Class<?> clazz = NalgaeEngine.define(compileForRun(source, baseName, options, cache));
+                PhaseMetrics.Phase phase = PhaseMetrics.global().start("execute");
+                try {
+                    if (options.stream) {
+                        stream(clazz, input);
+                    } else {
+                        execute(clazz, input, System.out);
+                    }
+                } finally {
+                    phase.close();
+                }
+                printMemoStats(clazz, options);
+                printStageStats(clazz, options);
+            } else {
+                Function<String, String> program = load(source, baseName, options, cache);
+                PhaseMetrics.Phase phase = PhaseMetrics.global().start("execute");
+                try {
+                    if (options.batch) {
+                        runBatch(program, options);
+                    } else {
+                        System.out.println(program.apply(input));
+                    }
+                } finally {
+                    phase.close();
+                }
+                printMemoStats(program.getClass(), options);
+                printStageStats(program.getClass(), options);
+            }
+        } catch (BatchRunner.AbortedException ex) {
+            System.err.println("Batch aborted: " + ex.getMessage());
         } catch (Exception ex) {
             System.err.println("Compilation failed: " + ex.getMessage());
         }
+        if (cache != null && options.cacheStats) {
+            System.err.println("cache " + cache.directory() + ": " + cache.stats());
+        }
+        if (options.profile) {
+            printProfile();
+        }
+    }
+
+    /** Prints the time and memory each phase of this run took, in the order the phases ran. */
+    static void printProfile() {
+        long nanos = 0;
+        long allocated = 0;
+        for (PhaseMetrics.Stats stats : PhaseMetrics.global().stats()) {
+            System.err.println("profile " + stats);
+            nanos += stats.nanos();
+            allocated += stats.allocatedBytes();
+        }
+        System.err.println(String.format(Locale.ROOT, "profile total: wall=%.3fms alloc=%.1fKiB", nanos / 1e6, allocated / 1024.0));
+    }
+
+    private static void runBatch(Function<String, String> program, Options options) throws Exception {
+        byte delimiter = options.nullData ? (byte) 0 : (byte) '\n';
+        BatchRunner runner = new BatchRunner(program, delimiter, options.workers, options.onError, System.err);
+        FileChannel out = new FileOutputStream(FileDescriptor.out).getChannel();
+        BatchRunner.Summary summary;
+        if (options.inputFile != null) {
+            try (FileChannel in = FileChannel.open(options.inputFile, StandardOpenOption.READ)) {
+                summary = runner.run(in, out);
+            }
+        } else {
+            summary = runner.run(new FileInputStream(FileDescriptor.in).getChannel(), out);
+        }
+        if (summary.failed() > 0) {
+            System.err.println("Skipped " + summary.failed() + " of " + summary.records() + " records");
+        }
+    }
+
+    /** Prepares a program for repeated calls in the execution tier selected by the options. */
+    static Function<String, String> load(ByteBuffer source, String baseName, Options options, CompilationCache cache) throws Exception {
+        return switch (options.tier) {
+            case COMPILE -> instantiate(compileForRun(source, baseName, options, cache));
+            case INTERPRET -> new Interpreter(parse(source)).prepare();
+            case TIERED -> loadTiered(source, baseName, options, cache);
+        };
+    }
+
+    /**
+     * Starts a program in the interpreter unless its bytecode is already cached; the compiled
+     * tier is built in the background once the program is hot.
+     */
+    private static Function<String, String> loadTiered(ByteBuffer source, String baseName, Options options, CompilationCache cache) throws Exception {
+        String sourceKey = null;
+        if (cache != null) {
+            sourceKey = CompilationCache.sourceKey(source, baseName, options.backend, options.compilerOptions());
+            Optional<CompiledProgram> cached = cache.findBySource(sourceKey);
+            if (cached.isPresent()) {
+                return instantiate(cached.get());
+            }
+        }
+        Program program = parse(source);
+        Function<String, String> interpreted = new Interpreter(program).prepare();
+        String key = sourceKey;
+        return new TieredProgram(
+            interpreted,
+            () -> instantiate(compile(program, key, baseName, options, cache)),
+            options.tierThreshold);
+    }
+
+    private static CompiledProgram compileForRun(ByteBuffer source, String baseName, Options options, CompilationCache cache) throws IOException {
+        CompiledProgram compiled = compile(source, baseName, options, cache);
+        if (options.classesDir != null) {
+            compiled = compiled.writeTo(options.classesDir);
+        }
+        return compiled;
+    }
+
+    /**
+     * Compiles a source file, consulting the cache first by raw source text and then by the
+     * normalized program so that only genuinely new programs reach the compiler.
+     */
+    static CompiledProgram compile(ByteBuffer source, String baseName, Options options, CompilationCache cache) {
+        String sourceKey = null;
+        if (cache != null) {
+            sourceKey = CompilationCache.sourceKey(source, baseName, options.backend, options.compilerOptions());
+            Optional<CompiledProgram> cached = cache.findBySource(sourceKey);
+            if (cached.isPresent()) {
+                return cached.get();
+            }
+        }
+        return compile(parse(source), sourceKey, baseName, options, cache);
+    }
+
+    static CompiledProgram compile(Program program, String sourceKey, String baseName, Options options, CompilationCache cache) {
+        String programKey = CompilationCache.programKey(program, baseName, options.backend, options.compilerOptions());
+        String className = CompilationCache.className(baseName, programKey);
+        CompiledProgram compiled = cache == null ? null : cache.find(programKey).orElse(null);
+        if (compiled == null) {
+            ProgramCompiler compiler = new ProgramCompiler(program, className, options.backend, options.compilerOptions(), cache);
+            compiled = compiler.compile();
+            if (options.verbose) {
+                System.err.println("compiler " + className + ": " + compiler.statistics());
+            }
+            if (cache == null) {
+                return compiled;
+            }
+            cache.store(programKey, compiled);
+        }
+        if (sourceKey != null) {
+            cache.alias(sourceKey, programKey);
+        }
+        return compiled;
+    }
+
+    static Program parse(ByteBuffer source) {
+        return fold(parseUnoptimized(source));
+    }
+
+    static Program fold(Program program) {
+        try (PhaseMetrics.Phase phase = PhaseMetrics.global().start("fold")) {
+            Optimizer optimizer = new Optimizer(program);
+            Program folded = optimizer.optimize();
+            phase.measure("folds", optimizer.folds().size());
+            return folded;
+        }
     }
 
-    private static Program parse(String source) {
-        Lexer lexer = new Lexer(source);
-        var tokens = lexer.tokenize();
-        Parser parser = new Parser(tokens);
-        return parser.parseProgram();
+    /** Parses while lexing, so the phase covers both and no token list is ever built. */
+    private static Program parseUnoptimized(ByteBuffer source) {
+        try (PhaseMetrics.Phase phase = PhaseMetrics.global().start("parse")) {
+            Lexer lexer = new Lexer(source);
+            FlatProgram flat = new Parser(lexer).parseFlat();
+            phase.measure("sourceBytes", source.remaining())
+                .measure("tokens", lexer.tokenCount())
+                .measure("nodes", flat.nodeCount())
+                .measure("definitions", flat.definitionCount());
+            return flat.toProgram();
+        }
+    }
+
+    /**
+     * Reads a source file for {@link Lexer}. Files of at least {@link #MAP_THRESHOLD} bytes are
+     * mapped rather than read, so their text is lexed where it lies and never copied onto the
+     * heap; below that, setting up the mapping costs more than reading the file.
+     */
+    static ByteBuffer readSource(Path sourcePath) throws IOException {
+        if (Files.size(sourcePath) < MAP_THRESHOLD) {
+            return ByteBuffer.wrap(Files.readAllBytes(sourcePath));
+        }
+        try (FileChannel channel = FileChannel.open(sourcePath, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /** Prints the program as it is after constant folding, preceded by what was folded. */
+    private static void dumpOptimized(ByteBuffer source) {
+        Optimizer optimizer = new Optimizer(parseUnoptimized(source));
+        Program optimized = optimizer.optimize();
+        StringBuilder sb = new StringBuilder();
+        for (String fold : optimizer.folds()) {
+            sb.append("# folded ").append(fold).append('\n');
+        }
+        if (!optimizer.folds().isEmpty()) {
+            sb.append('\n');
+        }
+        sb.append(ProgramPrinter.print(optimized));
+        System.out.print(sb);
     }
 
-    private static String buildClassName(Path path) {
+    static String classBaseName(Path path) {
         String base = path.getFileName().toString();
         int dot = base.lastIndexOf('.');
         if (dot >= 0) {
@@ -68,27 +310,73 @@ public final class NalgaeCli {
             char ch = base.charAt(i);
             sanitized.append(Character.isJavaIdentifierPart(ch) ? ch : '_');
         }
-        String suffix = Long.toHexString(System.currentTimeMillis());
-        return "nalgae.generated." + sanitized + "_" + suffix;
+        return sanitized.toString();
     }
 
-    private static String execute(CompiledProgram compiled, String input) throws Exception {
-        URL classesUrl = compiled.classesDirectory().toUri().toURL();
-        try (URLClassLoader loader = new URLClassLoader(new URL[] { classesUrl }, NalgaeCli.class.getClassLoader())) {
-            Class<?> clazz = Class.forName(compiled.className(), true, loader);
-            Method run = clazz.getMethod("run", String.class);
-            Object result = run.invoke(null, input);
-            return (String) result;
+    static Function<String, String> instantiate(CompiledProgram compiled) {
+        return NalgaeEngine.load(compiled);
+    }
+
+    /** Runs a program once and writes its ASCII result straight to {@code out}. */
+    private static void execute(Class<?> clazz, String input, OutputStream out) throws Exception {
+        MethodHandle run = MethodHandles.publicLookup().findStatic(clazz, "runAscii",
+            MethodType.methodType(AsciiString.class, AsciiString.class));
+        AsciiString result;
+        try {
+            result = (AsciiString) run.invokeExact(AsciiString.of(input));
+        } catch (Exception | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
         }
+        result.writeLine(out);
     }
 
-    private static void ensureAscii(String text) {
-        for (int i = 0; i < text.length(); i++) {
-            char ch = text.charAt(i);
-            int code = ch;
-            if (!(code == 0x09 || code == 0x0A || code == 0x0D || (code >= 0x20 && code <= 0x7E))) {
-                throw new IllegalArgumentException("Non-ASCII input character: '" + ch + "'");
-            }
+    /** Runs {@code runTo} against a sink over the standard output channel, bypassing {@code System.out}. */
+    private static void stream(Class<?> clazz, String input) throws Exception {
+        MethodHandle runTo = MethodHandles.publicLookup().findStatic(clazz, "runTo",
+            MethodType.methodType(void.class, AsciiString.class, AsciiSink.class));
+        AsciiSink sink = AsciiSink.of(new FileOutputStream(FileDescriptor.out).getChannel());
+        try {
+            runTo.invokeExact(AsciiString.of(input), sink);
+        } catch (Exception | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+        sink.write('\n');
+        sink.flush();
+    }
+
+    /** Reports each memoized definition of a generated class; other classes have none. */
+    static void printMemoStats(Class<?> clazz, Options options) {
+        if (!options.memoStats) {
+            return;
+        }
+        for (MemoCache memo : MemoCache.of(clazz)) {
+            System.err.println("memo " + memo.stats());
+        }
+    }
+
+    /** Reports the stages of an instrumented class, the most expensive first. */
+    static void printStageStats(Class<?> clazz, Options options) {
+        if (!options.instrument) {
+            return;
+        }
+        List<StageCounter.Stats> stages = new ArrayList<>();
+        for (StageCounter counter : StageCounter.of(clazz)) {
+            stages.add(counter.stats());
+        }
+        stages.sort(Comparator.comparingLong(StageCounter.Stats::nanos).reversed());
+        for (StageCounter.Stats stage : stages) {
+            System.err.println("stage " + stage);
+        }
+    }
+
+    static void ensureAscii(String text) {
+        int rejected = AsciiScan.firstNotAllowed(text);
+        if (rejected >= 0) {
+            throw new IllegalArgumentException("Non-ASCII input character: '" + text.charAt(rejected) + "'");
         }
     }
 }
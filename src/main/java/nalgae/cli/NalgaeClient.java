@@ -0,0 +1,35 @@
+package nalgae.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/** Thin client used by {@code nalgae --connect}: forwards one run to the daemon and prints the result. */
+final class NalgaeClient {
+    private NalgaeClient() {}
+
+    static void run(Options options) {
+        Path sourcePath = Path.of(options.arguments.get(0)).toAbsolutePath().normalize();
+        String input = options.arguments.size() >= 2 ? options.arguments.get(1) : "";
+        SocketAddress address = Protocol.address(options);
+        try (SocketChannel channel = Protocol.connect(address)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            Protocol.writeRequest(out, new Protocol.Request(sourcePath.toString(), input));
+            Protocol.Response response = Protocol.readResponse(in);
+            if (response.status() == Protocol.OK) {
+                System.out.println(response.payload());
+            } else {
+                System.err.println(response.payload());
+            }
+        } catch (IOException ex) {
+            System.err.println("Cannot reach nalgae daemon at " + address + ": " + ex.getMessage());
+        }
+    }
+}
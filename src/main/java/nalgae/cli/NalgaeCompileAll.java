@@ -0,0 +1,196 @@
+package nalgae.cli;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import nalgae.ast.Program;
+import nalgae.compiler.Backend;
+import nalgae.compiler.BatchCompiler;
+import nalgae.compiler.CompilationCache;
+import nalgae.compiler.CompiledProgram;
+import nalgae.compiler.CompilerOptions;
+
+/**
+ * {@code nalgae compile-all}: compiles every {@code .nal} file under a directory into one jar.
+ *
+ * <p>Files are read, parsed and turned into Java source concurrently, one thread per processor,
+ * and the sources of all of them are then compiled in a single javac task by a
+ * {@link BatchCompiler}. With {@code --backend=bytecode} each file's class is generated in the
+ * concurrent step instead. Files found in the compilation cache skip both steps, and everything
+ * compiled is stored there, so a later run of a single file finds its class. A file that fails is
+ * reported with its error and left out of the jar; the others are compiled as usual.
+ *
+ * <p>Besides the classes and the runtime package, the jar holds {@link #INDEX}, which lists each
+ * file, relative to the directory, with the class that renders it.
+ */
+final class NalgaeCompileAll {
+    static final String INDEX = "META-INF/nalgae/programs";
+
+    /** A file whose program is ready for the jar, or is waiting for the batch's javac task. */
+    private record Entry(String sourceKey, String programKey, CompiledProgram compiled) {}
+
+    private final Options options;
+    private final CompilerOptions compilerOptions;
+    private final CompilationCache cache;
+    private final BatchCompiler batch;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, String> failures = new ConcurrentHashMap<>();
+
+    private NalgaeCompileAll(Options options) {
+        this.options = options;
+        this.compilerOptions = options.compilerOptions();
+        this.cache = options.useCache ? new CompilationCache(options.cacheDir, options.cacheMaxBytes) : null;
+        this.batch = new BatchCompiler(compilerOptions);
+    }
+
+    static void compileAll(Options options) throws IOException {
+        Path directory = Path.of(options.arguments.get(0));
+        if (!Files.isDirectory(directory)) {
+            System.err.println("Source directory not found: " + directory);
+            return;
+        }
+        Path jar = options.arguments.size() >= 2
+            ? Path.of(options.arguments.get(1))
+            : Path.of(NalgaeCli.classBaseName(directory.toAbsolutePath().normalize()) + ".jar");
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            files = walk.filter(file -> file.getFileName().toString().endsWith(".nal") && Files.isRegularFile(file))
+                .sorted()
+                .toList();
+        }
+        long start = System.nanoTime();
+        NalgaeCompileAll compiler = new NalgaeCompileAll(options);
+        Map<String, CompiledProgram> compiled = compiler.compile(directory, files);
+        compiler.failures.entrySet().stream()
+            .sorted(Map.Entry.comparingByKey())
+            .forEach(failure -> System.err.println(failure.getKey() + ": " + failure.getValue()));
+        if (!compiled.isEmpty()) {
+            writeJar(jar, compiled);
+        }
+        System.err.printf("compiled %d of %d programs%s in %dms%n", compiled.size(), files.size(),
+            compiled.isEmpty() ? "" : " into " + jar, (System.nanoTime() - start) / 1_000_000);
+        if (options.profile) {
+            NalgaeCli.printProfile();
+        }
+    }
+
+    /** Returns the files that compiled, by path relative to {@code directory}. */
+    private Map<String, CompiledProgram> compile(Path directory, List<Path> files) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (Path file : files) {
+                String name = relativeName(directory, file);
+                tasks.add(executor.submit(() -> prepare(name, file)));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compiling", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Compile task failed", ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        BatchCompiler.Result result = batch.compile();
+        failures.putAll(result.failures());
+        Map<String, CompiledProgram> compiled = new LinkedHashMap<>();
+        for (Map.Entry<String, Entry> entry : new TreeMap<>(entries).entrySet()) {
+            CompiledProgram program = entry.getValue().compiled();
+            if (program == null) {
+                program = result.compiled().get(entry.getKey());
+                if (program == null) {
+                    continue;
+                }
+                store(entry.getValue(), program);
+            }
+            compiled.put(entry.getKey(), program);
+        }
+        return compiled;
+    }
+
+    /** Parses one file and compiles it or hands it to the batch, recording any failure under its name. */
+    private void prepare(String name, Path file) {
+        try {
+            ByteBuffer source = NalgaeCli.readSource(file);
+            String baseName = NalgaeCli.classBaseName(file);
+            if (options.backend == Backend.BYTECODE) {
+                entries.put(name, new Entry(null, null, NalgaeCli.compile(source, baseName, options, cache)));
+                return;
+            }
+            String sourceKey = null;
+            if (cache != null) {
+                sourceKey = CompilationCache.sourceKey(source, baseName, options.backend, compilerOptions);
+                Optional<CompiledProgram> cached = cache.findBySource(sourceKey);
+                if (cached.isPresent()) {
+                    entries.put(name, new Entry(sourceKey, null, cached.get()));
+                    return;
+                }
+            }
+            Program program = NalgaeCli.parse(source);
+            String programKey = CompilationCache.programKey(program, baseName, options.backend, compilerOptions);
+            Entry entry = new Entry(sourceKey, programKey, null);
+            CompiledProgram cached = cache == null ? null : cache.find(programKey).orElse(null);
+            if (cached != null) {
+                store(entry, cached);
+                entries.put(name, new Entry(sourceKey, programKey, cached));
+            } else {
+                batch.add(name, program, CompilationCache.className(baseName, programKey));
+                entries.put(name, entry);
+            }
+        } catch (IOException | RuntimeException ex) {
+            failures.put(name, ex.getMessage());
+        }
+    }
+
+    /** Stores a program in the cache, as a single run would, and points its source key at it. */
+    private void store(Entry entry, CompiledProgram compiled) {
+        if (cache == null) {
+            return;
+        }
+        if (cache.find(entry.programKey()).isEmpty()) {
+            cache.store(entry.programKey(), compiled);
+        }
+        if (entry.sourceKey() != null) {
+            cache.alias(entry.sourceKey(), entry.programKey());
+        }
+    }
+
+    private static void writeJar(Path jar, Map<String, CompiledProgram> compiled) throws IOException {
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        StringBuilder index = new StringBuilder();
+        for (Map.Entry<String, CompiledProgram> program : compiled.entrySet()) {
+            classes.put(program.getValue().className(), program.getValue().bytecode());
+            classes.putAll(program.getValue().companions());
+            index.append(program.getKey()).append('\t').append(program.getValue().className()).append('\n');
+        }
+        NalgaeExporter.writeJar(jar, null, classes, Map.of(INDEX, index.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String relativeName(Path directory, Path file) {
+        StringBuilder name = new StringBuilder();
+        for (Path part : directory.relativize(file)) {
+            if (!name.isEmpty()) {
+                name.append('/');
+            }
+            name.append(part);
+        }
+        return name.toString();
+    }
+}
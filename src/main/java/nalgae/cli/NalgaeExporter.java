@@ -0,0 +1,171 @@
+package nalgae.cli;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+import nalgae.compiler.CompilationCache;
+import nalgae.compiler.CompiledProgram;
+import nalgae.runtime.Builtins;
+
+/**
+ * {@code nalgae export}: writes a compiled program as an executable jar that runs without the
+ * CLI, the compiler or javac.
+ *
+ * <p>The jar holds the program's classes and the {@code nalgae.runtime} package, which is all that
+ * generated code refers to, and its manifest names the generated class, whose {@code main} renders
+ * the first argument. Next to the jar goes a class data sharing archive recorded from one run of
+ * it, so that a JVM started with {@code -XX:SharedArchiveFile} maps the classes a run needs
+ * instead of loading and verifying them. The archive only works with the JVM that recorded it
+ * and with the jar where it was written; otherwise the JVM ignores it.
+ */
+final class NalgaeExporter {
+    private static final String RUNTIME_PACKAGE = "nalgae/runtime";
+    /** Keeps the JVM from reporting an outdated archive on standard output, among the program's. */
+    private static final String QUIET_ARCHIVE = "-Xlog:cds=off,cds+dynamic=off";
+    /** How long the run that records the archive may take before it is abandoned. */
+    private static final long ARCHIVE_TIMEOUT_SECONDS = 60;
+
+    private NalgaeExporter() {}
+
+    static void export(Options options) throws IOException {
+        Path sourcePath = Path.of(options.arguments.get(0));
+        if (!Files.exists(sourcePath)) {
+            System.err.println("Source file not found: " + sourcePath);
+            return;
+        }
+        String baseName = NalgaeCli.classBaseName(sourcePath);
+        Path jar = options.arguments.size() >= 2 ? Path.of(options.arguments.get(1)) : Path.of(baseName + ".jar");
+        CompilationCache cache = options.useCache ? new CompilationCache(options.cacheDir, options.cacheMaxBytes) : null;
+        CompiledProgram compiled;
+        try {
+            compiled = NalgaeCli.compile(NalgaeCli.readSource(sourcePath), baseName, options, cache);
+        } catch (RuntimeException ex) {
+            System.err.println("Compilation failed: " + ex.getMessage());
+            return;
+        }
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        classes.put(compiled.className(), compiled.bytecode());
+        classes.putAll(compiled.companions());
+        writeJar(jar, compiled.className(), classes, Map.of());
+        Path archive = archivePath(jar);
+        if (recordArchive(jar, archive)) {
+            System.err.println("wrote " + jar + "; run it with: java -XX:SharedArchiveFile=" + archive + " " + QUIET_ARCHIVE + " -jar " + jar + " [input]");
+        } else {
+            System.err.println("wrote " + jar + "; run it with: java -jar " + jar + " [input]");
+        }
+    }
+
+    /**
+     * Writes a jar holding {@code classes}, by class name, the runtime package and {@code files},
+     * by entry name. {@code mainClass} goes in the manifest unless it is {@code null}.
+     */
+    static void writeJar(Path jar, String mainClass, Map<String, byte[]> classes, Map<String, byte[]> files) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (mainClass != null) {
+            manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, mainClass);
+        }
+        Path parent = jar.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+            for (Map.Entry<String, byte[]> generated : classes.entrySet()) {
+                writeEntry(out, generated.getKey().replace('.', '/') + ".class", generated.getValue());
+            }
+            copyRuntime(out);
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                writeEntry(out, file.getKey(), file.getValue());
+            }
+        }
+    }
+
+    /** Copies the runtime classes from wherever this CLI loads them: a jar or a classes directory. */
+    private static void copyRuntime(JarOutputStream out) throws IOException {
+        Path location;
+        try {
+            location = Path.of(Builtins.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException ex) {
+            throw new IOException("Cannot locate the nalgae runtime classes", ex);
+        }
+        if (Files.isDirectory(location)) {
+            copyClasses(location, out);
+            return;
+        }
+        try (FileSystem cliJar = FileSystems.newFileSystem(location)) {
+            copyClasses(cliJar.getPath("/"), out);
+        }
+    }
+
+    private static void copyClasses(Path root, JarOutputStream out) throws IOException {
+        List<Path> classes;
+        try (Stream<Path> files = Files.walk(root.resolve(RUNTIME_PACKAGE))) {
+            classes = files.filter(file -> file.getFileName().toString().endsWith(".class")).sorted().toList();
+        }
+        for (Path file : classes) {
+            StringBuilder name = new StringBuilder();
+            for (Path part : root.relativize(file)) {
+                if (!name.isEmpty()) {
+                    name.append('/');
+                }
+                name.append(part);
+            }
+            writeEntry(out, name.toString(), Files.readAllBytes(file));
+        }
+    }
+
+    private static void writeEntry(JarOutputStream out, String name, byte[] bytes) throws IOException {
+        out.putNextEntry(new JarEntry(name));
+        out.write(bytes);
+        out.closeEntry();
+    }
+
+    private static Path archivePath(Path jar) {
+        String name = jar.getFileName().toString();
+        String base = name.endsWith(".jar") ? name.substring(0, name.length() - 4) : name;
+        return jar.resolveSibling(base + ".jsa");
+    }
+
+    /**
+     * Runs the jar once on an empty input with the JVM running this CLI, which writes the classes
+     * the run loaded to {@code archive} as it exits. Returns whether the archive was written. The
+     * archive records the jar's absolute path, so it is used wherever the jar is started from.
+     */
+    private static boolean recordArchive(Path jar, Path archive) throws IOException {
+        Files.deleteIfExists(archive);
+        Path java = Path.of(System.getProperty("java.home"), "bin", "java");
+        Process process = new ProcessBuilder(java.toString(), "-XX:ArchiveClassesAtExit=" + archive,
+                "-Xlog:disable", "-jar", jar.toAbsolutePath().toString(), "")
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(ProcessBuilder.Redirect.DISCARD)
+            .start();
+        try {
+            if (!process.waitFor(ARCHIVE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                System.err.println("Recording a class data sharing archive timed out");
+                return false;
+            }
+        } catch (InterruptedException ex) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (process.exitValue() != 0 || !Files.exists(archive)) {
+            System.err.println("Could not record a class data sharing archive; the jar runs without one");
+            return false;
+        }
+        return true;
+    }
+}
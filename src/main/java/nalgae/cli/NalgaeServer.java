@@ -0,0 +1,125 @@
+package nalgae.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import nalgae.compiler.CompilationCache;
+
+/**
+ * Long-running daemon started with {@code nalgae serve}. Each connection is served on its own
+ * virtual thread and may send any number of requests; compiled programs stay loaded in a
+ * {@link ProgramStore} so repeated renders only pay for running the program.
+ */
+final class NalgaeServer {
+    private NalgaeServer() {}
+
+    static void serve(Options options) throws IOException {
+        SocketAddress address = Protocol.address(options);
+        if (address instanceof UnixDomainSocketAddress unix) {
+            if (answers(unix)) {
+                System.err.println("A nalgae daemon is already listening on " + address);
+                return;
+            }
+            Files.deleteIfExists(unix.getPath());
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(unix.getPath());
+                } catch (IOException ex) {
+                    // Nothing left to report to during shutdown.
+                }
+            }));
+        }
+        CompilationCache cache = options.useCache ? new CompilationCache(options.cacheDir, options.cacheMaxBytes) : null;
+        ProgramStore store = new ProgramStore(options, cache);
+        try (ServerSocketChannel server = Protocol.listen(address);
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            System.err.println("nalgae daemon listening on " + address);
+            while (server.isOpen()) {
+                SocketChannel connection = server.accept();
+                executor.execute(() -> handle(connection, store));
+            }
+        }
+    }
+
+    /**
+     * Tells a socket file that another daemon still serves from one left behind by a daemon that
+     * did not shut down cleanly, which is stale and refuses connections.
+     */
+    private static boolean answers(UnixDomainSocketAddress address) {
+        if (!Files.exists(address.getPath())) {
+            return false;
+        }
+        try {
+            Protocol.connect(address).close();
+            return true;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private static void handle(SocketChannel connection, ProgramStore store) {
+        try (connection;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(connection)));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(connection)))) {
+            while (true) {
+                Protocol.Request request;
+                try {
+                    request = Protocol.readRequest(in);
+                } catch (EOFException ex) {
+                    return;
+                }
+                Protocol.writeResponse(out, process(request, store));
+            }
+        } catch (IOException ex) {
+            System.err.println("Connection failed: " + ex.getMessage());
+        }
+    }
+
+    private static Protocol.Response process(Protocol.Request request, ProgramStore store) {
+        Path sourcePath = Path.of(request.sourcePath());
+        Function<String, String> program;
+        try {
+            program = store.get(sourcePath);
+        } catch (NoSuchFileException ex) {
+            return new Protocol.Response(Protocol.ERROR, "Source file not found: " + sourcePath);
+        } catch (Exception | Error ex) {
+            return failure("Compilation failed", ex);
+        }
+        try {
+            return new Protocol.Response(Protocol.OK, program.apply(request.input()));
+        } catch (RuntimeException | Error ex) {
+            return failure("Execution failed", ex);
+        }
+    }
+
+    /**
+     * Reports a failed request to its client. A deeply recursive program overflows the stack of
+     * the connection's thread only, so the daemon answers it like any other error. After any other
+     * virtual machine error, such as running out of memory, the daemon cannot be trusted to keep
+     * serving, so it stops at once; the next daemon replaces the socket file it leaves behind.
+     */
+    private static Protocol.Response failure(String what, Throwable ex) {
+        if (ex instanceof VirtualMachineError && !(ex instanceof StackOverflowError)) {
+            System.err.println("nalgae daemon stopping: " + ex);
+            Runtime.getRuntime().halt(1);
+        }
+        String message = ex instanceof StackOverflowError ? "stack overflow"
+            : ex.getMessage() != null ? ex.getMessage()
+            : ex.toString();
+        return new Protocol.Response(Protocol.ERROR, what + ": " + message);
+    }
+}
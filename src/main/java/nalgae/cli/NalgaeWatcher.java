@@ -0,0 +1,147 @@
+package nalgae.cli;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import nalgae.ast.Program;
+import nalgae.compiler.CompilationCache;
+import nalgae.compiler.Interpreter;
+import nalgae.compiler.PhaseMetrics;
+import nalgae.parser.IncrementalParser;
+
+/**
+ * {@code nalgae watch}: renders a program and renders it again whenever its file is saved.
+ *
+ * <p>Successive versions of the file go through one {@link IncrementalParser}, so a save only
+ * re-lexes and re-parses the definitions around the edit. The program is interpreted unless
+ * {@code --tier=compile} is given, which keeps the time from a save to the new output short.
+ */
+final class NalgaeWatcher {
+    /** How long to wait for further events of the same save before reading the file. */
+    private static final long SETTLE_MILLIS = 5;
+
+    private final Path sourcePath;
+    private final String input;
+    private final Options options;
+    private final CompilationCache cache;
+    private final IncrementalParser parser = new IncrementalParser();
+    private String source;
+
+    private NalgaeWatcher(Path sourcePath, String input, Options options, CompilationCache cache) {
+        this.sourcePath = sourcePath;
+        this.input = input;
+        this.options = options;
+        this.cache = cache;
+    }
+
+    static void watch(Options options) throws IOException {
+        Path sourcePath = Path.of(options.arguments.get(0)).toAbsolutePath();
+        if (!Files.exists(sourcePath)) {
+            System.err.println("Source file not found: " + sourcePath);
+            return;
+        }
+        String input = options.arguments.size() >= 2 ? options.arguments.get(1) : "";
+        NalgaeCli.ensureAscii(input);
+        CompilationCache cache = options.useCache ? new CompilationCache(options.cacheDir, options.cacheMaxBytes) : null;
+        NalgaeWatcher watcher = new NalgaeWatcher(sourcePath, input, options, cache);
+        try (WatchService service = sourcePath.getFileSystem().newWatchService()) {
+            sourcePath.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            System.err.println("watching " + sourcePath);
+            watcher.render();
+            while (true) {
+                if (watcher.awaitChange(service)) {
+                    watcher.render();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for events in the watched directory and reports whether one of them concerns the
+     * source file. Events that follow within {@link #SETTLE_MILLIS} belong to the same save.
+     */
+    private boolean awaitChange(WatchService service) throws InterruptedException {
+        boolean changed = false;
+        WatchKey key = service.take();
+        while (key != null) {
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                        || sourcePath.getFileName().equals(event.context())) {
+                    changed = true;
+                }
+            }
+            key.reset();
+            key = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return changed;
+    }
+
+    /** Renders the current version of the file, unless it is unchanged since the last render. */
+    private void render() {
+        long start = System.nanoTime();
+        String current;
+        try {
+            current = Files.readString(sourcePath, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException ex) {
+            // Replaced by a rename that has not happened yet; the create event follows.
+            return;
+        } catch (IOException ex) {
+            System.err.println("Failed to read " + sourcePath + ": " + ex.getMessage());
+            return;
+        }
+        if (current.equals(source)) {
+            return;
+        }
+        source = current;
+        try {
+            Program program;
+            try (PhaseMetrics.Phase phase = PhaseMetrics.global().start("parse")) {
+                program = parser.parse(current);
+                IncrementalParser.Update update = parser.lastUpdate();
+                phase.measure("relexedChars", update.relexedChars()).measure("reparsedDefinitions", update.reparsedDefinitions());
+            }
+            Function<String, String> rendered = load(NalgaeCli.fold(program));
+            String output;
+            PhaseMetrics.Phase phase = PhaseMetrics.global().start("execute");
+            try {
+                output = rendered.apply(input);
+            } finally {
+                phase.close();
+            }
+            System.out.println(output);
+            System.out.flush();
+            NalgaeCli.printMemoStats(rendered.getClass(), options);
+            NalgaeCli.printStageStats(rendered.getClass(), options);
+            if (options.verbose) {
+                System.err.println(String.format(Locale.ROOT, "watch %s: %s in %.1fms",
+                    sourcePath.getFileName(), parser.lastUpdate(), (System.nanoTime() - start) / 1e6));
+            }
+        } catch (Exception ex) {
+            System.err.println("Compilation failed: " + ex.getMessage());
+        }
+        if (options.profile) {
+            NalgaeCli.printProfile();
+            PhaseMetrics.global().clear();
+        }
+    }
+
+    private Function<String, String> load(Program program) throws Exception {
+        if (options.tier != Options.Tier.COMPILE) {
+            return new Interpreter(program).prepare();
+        }
+        String baseName = NalgaeCli.classBaseName(sourcePath);
+        return NalgaeCli.instantiate(NalgaeCli.compile(program, null, baseName, options, cache));
+    }
+}
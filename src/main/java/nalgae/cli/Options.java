@@ -0,0 +1,284 @@
+package nalgae.cli;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import nalgae.compiler.Backend;
+import nalgae.compiler.CompilationCache;
+import nalgae.compiler.CompilerOptions;
+import nalgae.compiler.Memoization;
+import nalgae.compiler.TieredProgram;
+
+/** Command line options of {@link NalgaeCli}. Options must precede the positional arguments. */
+final class Options {
+    static final String USAGE = String.join("\n",
+        "Usage: nalgae [options] <source-file> [input]",
+        "       nalgae [options] --batch [--null-data] [--input-file=<file>] [--workers=<n>] [--on-error=skip|abort] <source-file>",
+        "       nalgae serve [--socket=<path> | --port=<n>] [options]",
+        "       nalgae --connect [--socket=<path> | --port=<n>] <source-file> [input]",
+        "       nalgae watch [options] <source-file> [input]",
+        "       nalgae export [options] <source-file> [<jar>]",
+        "       nalgae compile-all [options] <source-dir> [<jar>]",
+        "Options:",
+        "  --backend=javac|bytecode   code generator to use (default javac)",
+        "  --classes-dir=<dir>        also write the compiled class under <dir>",
+        "  --cache-dir=<dir>          compilation cache directory",
+        "  --cache-max-bytes=<n>      compilation cache size budget",
+        "  --no-cache                 do not read or write the compilation cache",
+        "  --cache-stats              print cache statistics to standard error",
+        "  --stream                   compile a class that writes its output to standard output piece by piece",
+        "                             instead of building it in memory first",
+        "  --memoize=all|<def>[,<def>...]",
+        "                             cache the results of all or the named definitions, keyed by argument",
+        "  --memo-max-entries=<n>     results kept per memoized definition (default " + Memoization.DEFAULT_MAX_ENTRIES + ")",
+        "  --memo-max-bytes=<n>       estimated memory kept per memoized definition (default " + Memoization.DEFAULT_MAX_BYTES + ")",
+        "  --memo-stats               print memoization statistics to standard error",
+        "  --instrument               count the calls, time and bytes of every stage and print them to standard error",
+        "  --dump-optimized           print the program after constant folding instead of running it",
+        "  --verbose                  print what the optimizer did to standard error whenever a program is compiled",
+        "  --profile                  print the time, allocation and sizes of each phase of the run to standard error",
+        "  --tier=compile|interpret|tiered",
+        "                             compile before running (default), interpret the syntax tree, or",
+        "                             interpret first and compile in the background once hot (default for serve);",
+        "                             'nalgae watch' interprets by default",
+        "  --tier-threshold=<n>       invocations before a tiered program is compiled (default " + TieredProgram.DEFAULT_THRESHOLD + ")",
+        "  --batch                    apply the program to every line of the input",
+        "  --null-data                with --batch, records are separated by NUL instead of newline",
+        "  --input-file=<file>        with --batch, read records from <file> instead of standard input",
+        "  --workers=<n>              with --batch, transform records on <n> threads",
+        "  --on-error=skip|abort      with --batch, skip or stop at a failing record (default abort)",
+        "  --connect                  run the program on a running 'nalgae serve' daemon",
+        "  --socket=<path>            Unix domain socket of the daemon (default " + defaultSocket() + ")",
+        "  --port=<n>                 use a localhost TCP port instead of a Unix domain socket");
+
+    enum ErrorPolicy { SKIP, ABORT }
+
+    enum Tier { COMPILE, INTERPRET, TIERED }
+
+    Backend backend = Backend.JAVAC;
+    Path classesDir;
+    Path cacheDir = CompilationCache.defaultDirectory();
+    long cacheMaxBytes = CompilationCache.DEFAULT_MAX_BYTES;
+    boolean useCache = true;
+    boolean cacheStats;
+    boolean dumpOptimized;
+    boolean verbose;
+    boolean profile;
+    boolean stream;
+    boolean memoizeAll;
+    final Set<String> memoized = new LinkedHashSet<>();
+    int memoMaxEntries = Memoization.DEFAULT_MAX_ENTRIES;
+    long memoMaxBytes = Memoization.DEFAULT_MAX_BYTES;
+    boolean memoStats;
+    boolean instrument;
+    Tier tier;
+    long tierThreshold = TieredProgram.DEFAULT_THRESHOLD;
+    boolean batch;
+    boolean nullData;
+    Path inputFile;
+    int workers = 1;
+    ErrorPolicy onError = ErrorPolicy.ABORT;
+    boolean serve;
+    boolean watch;
+    boolean export;
+    boolean compileAll;
+    boolean connect;
+    Path socket = defaultSocket();
+    int port = -1;
+    final List<String> arguments = new ArrayList<>();
+
+    private Options() {}
+
+    static Options parse(String[] args) {
+        Options options = new Options();
+        int index = 0;
+        if (args.length > 0 && args[0].equals("serve")) {
+            options.serve = true;
+            index++;
+        } else if (args.length > 0 && args[0].equals("watch")) {
+            options.watch = true;
+            index++;
+        } else if (args.length > 0 && args[0].equals("export")) {
+            options.export = true;
+            index++;
+        } else if (args.length > 0 && args[0].equals("compile-all")) {
+            options.compileAll = true;
+            index++;
+        }
+        while (index < args.length && args[index].startsWith("--")) {
+            String option = args[index++];
+            if (option.startsWith("--backend=")) {
+                options.backend = Backend.fromName(value(option));
+            } else if (option.startsWith("--classes-dir=")) {
+                options.classesDir = Path.of(value(option));
+            } else if (option.startsWith("--cache-dir=")) {
+                options.cacheDir = Path.of(value(option));
+            } else if (option.startsWith("--cache-max-bytes=")) {
+                options.cacheMaxBytes = parseLong(option);
+            } else if (option.equals("--no-cache")) {
+                options.useCache = false;
+            } else if (option.equals("--cache-stats")) {
+                options.cacheStats = true;
+            } else if (option.equals("--stream")) {
+                options.stream = true;
+            } else if (option.startsWith("--memoize=")) {
+                for (String name : value(option).split(",")) {
+                    if (name.equals("all")) {
+                        options.memoizeAll = true;
+                    } else if (!name.isEmpty()) {
+                        options.memoized.add(name);
+                    }
+                }
+            } else if (option.startsWith("--memo-max-entries=")) {
+                long entries = parseLong(option);
+                if (entries < 1 || entries > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Memo entry limit out of range: " + option);
+                }
+                options.memoMaxEntries = (int) entries;
+            } else if (option.startsWith("--memo-max-bytes=")) {
+                options.memoMaxBytes = parseLong(option);
+                if (options.memoMaxBytes < 1) {
+                    throw new IllegalArgumentException("Memo size limit must be positive: " + option);
+                }
+            } else if (option.equals("--memo-stats")) {
+                options.memoStats = true;
+            } else if (option.equals("--instrument")) {
+                options.instrument = true;
+            } else if (option.equals("--dump-optimized")) {
+                options.dumpOptimized = true;
+            } else if (option.equals("--verbose")) {
+                options.verbose = true;
+            } else if (option.equals("--profile")) {
+                options.profile = true;
+            } else if (option.startsWith("--tier=")) {
+                options.tier = switch (value(option)) {
+                    case "compile" -> Tier.COMPILE;
+                    case "interpret" -> Tier.INTERPRET;
+                    case "tiered" -> Tier.TIERED;
+                    default -> throw new IllegalArgumentException("Unknown tier: " + option);
+                };
+            } else if (option.startsWith("--tier-threshold=")) {
+                options.tierThreshold = parseLong(option);
+            } else if (option.equals("--batch")) {
+                options.batch = true;
+            } else if (option.equals("--null-data")) {
+                options.nullData = true;
+            } else if (option.startsWith("--input-file=")) {
+                options.inputFile = Path.of(value(option));
+            } else if (option.startsWith("--workers=")) {
+                long workers = parseLong(option);
+                if (workers < 1 || workers > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Worker count out of range: " + option);
+                }
+                options.workers = (int) workers;
+            } else if (option.startsWith("--on-error=")) {
+                options.onError = switch (value(option)) {
+                    case "skip" -> ErrorPolicy.SKIP;
+                    case "abort" -> ErrorPolicy.ABORT;
+                    default -> throw new IllegalArgumentException("Unknown error policy: " + option);
+                };
+            } else if (option.equals("--connect")) {
+                options.connect = true;
+            } else if (option.startsWith("--socket=")) {
+                options.socket = Path.of(value(option));
+            } else if (option.startsWith("--port=")) {
+                long port = parseLong(option);
+                if (port < 0 || port > 0xFFFF) {
+                    throw new IllegalArgumentException("Port out of range 0-65535: " + option);
+                }
+                options.port = (int) port;
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + option);
+            }
+        }
+        while (index < args.length) {
+            options.arguments.add(args[index++]);
+        }
+        if (options.stream && options.tier != null && options.tier != Tier.COMPILE) {
+            throw new IllegalArgumentException("--stream requires --tier=compile");
+        }
+        if (options.tier == null) {
+            options.tier = options.serve ? Tier.TIERED : options.watch ? Tier.INTERPRET : Tier.COMPILE;
+        }
+        if ((options.memoizeAll || !options.memoized.isEmpty()) && options.tier == Tier.INTERPRET) {
+            throw new IllegalArgumentException("--memoize requires compiled code");
+        }
+        if (options.memoStats && options.tier != Tier.COMPILE) {
+            throw new IllegalArgumentException("--memo-stats requires --tier=compile");
+        }
+        if (options.instrument && options.tier != Tier.COMPILE) {
+            throw new IllegalArgumentException("--instrument requires --tier=compile");
+        }
+        if (options.instrument && options.stream) {
+            throw new IllegalArgumentException("--instrument cannot be combined with --stream");
+        }
+        if (options.export && options.tier != Tier.COMPILE) {
+            throw new IllegalArgumentException("'export' writes compiled code; --tier does not apply");
+        }
+        if (options.compileAll && options.tier != Tier.COMPILE) {
+            throw new IllegalArgumentException("'compile-all' writes compiled code; --tier does not apply");
+        }
+        if (options.stream && (options.serve || options.watch || options.batch || options.connect)) {
+            throw new IllegalArgumentException("--stream only applies to single runs");
+        }
+        if (options.profile && (options.serve || options.connect)) {
+            throw new IllegalArgumentException("--profile only applies to local runs");
+        }
+        if (options.serve) {
+            if (!options.arguments.isEmpty()) {
+                throw new IllegalArgumentException("'serve' takes no positional arguments");
+            }
+            return options;
+        }
+        if (options.arguments.isEmpty()) {
+            throw new IllegalArgumentException("Missing source file");
+        }
+        if (options.watch && (options.batch || options.connect)) {
+            throw new IllegalArgumentException("'watch' cannot be combined with --batch or --connect");
+        }
+        if (options.export && (options.batch || options.connect)) {
+            throw new IllegalArgumentException("'export' cannot be combined with --batch or --connect");
+        }
+        if (options.export && options.arguments.size() > 2) {
+            throw new IllegalArgumentException("'export' takes a source file and an optional jar path");
+        }
+        if (options.compileAll && (options.batch || options.connect)) {
+            throw new IllegalArgumentException("'compile-all' cannot be combined with --batch or --connect");
+        }
+        if (options.compileAll && options.arguments.size() > 2) {
+            throw new IllegalArgumentException("'compile-all' takes a source directory and an optional jar path");
+        }
+        if (options.batch && options.connect) {
+            throw new IllegalArgumentException("--batch cannot be combined with --connect");
+        }
+        if (options.batch && options.arguments.size() > 1) {
+            throw new IllegalArgumentException("--batch reads its input from a file or standard input");
+        }
+        return options;
+    }
+
+    CompilerOptions compilerOptions() {
+        Memoization memoization = memoizeAll || !memoized.isEmpty()
+            ? new Memoization(memoizeAll, memoized, memoMaxEntries, memoMaxBytes)
+            : Memoization.NONE;
+        return new CompilerOptions(stream, memoization, instrument);
+    }
+
+    static Path defaultSocket() {
+        return Path.of(System.getProperty("java.io.tmpdir"), "nalgae-" + System.getProperty("user.name") + ".sock");
+    }
+
+    private static String value(String option) {
+        return option.substring(option.indexOf('=') + 1);
+    }
+
+    private static long parseLong(String option) {
+        try {
+            return Long.parseLong(value(option));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid number: " + option);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package nalgae.cli;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Function;
+import nalgae.compiler.CompilationCache;
+
+/**
+ * Keeps compiled programs resident for the daemon.
+ *
+ * <p>Programs are keyed by the hash of their source text, so two paths with identical content
+ * share one class. Every lookup compares the file's modification time and size with the values
+ * seen when it was last read; a changed file is re-read and, if its hash differs, recompiled.
+ * Concurrent requests for a program that is still compiling wait for the same compilation.
+ */
+final class ProgramStore {
+    private final Options options;
+    private final CompilationCache cache;
+    private final ConcurrentHashMap<Path, Loaded> byPath = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, FutureTask<Function<String, String>>> byHash = new ConcurrentHashMap<>();
+
+    ProgramStore(Options options, CompilationCache cache) {
+        this.options = options;
+        this.cache = cache;
+    }
+
+    private record Loaded(FileTime modified, long size, String hash, Function<String, String> program) {}
+
+    Function<String, String> get(Path sourcePath) throws Exception {
+        BasicFileAttributes attributes = Files.readAttributes(sourcePath, BasicFileAttributes.class);
+        Loaded current = byPath.get(sourcePath);
+        if (current != null
+            && current.modified().equals(attributes.lastModifiedTime())
+            && current.size() == attributes.size()) {
+            return current.program();
+        }
+        ByteBuffer source = NalgaeCli.readSource(sourcePath);
+        String baseName = NalgaeCli.classBaseName(sourcePath);
+        String hash = CompilationCache.sourceKey(source, baseName, options.backend, options.compilerOptions());
+        Function<String, String> program = programFor(hash, source, baseName);
+        Loaded previous = byPath.put(sourcePath, new Loaded(attributes.lastModifiedTime(), attributes.size(), hash, program));
+        if (previous != null && !previous.hash().equals(hash)) {
+            release(previous.hash());
+        }
+        return program;
+    }
+
+    private Function<String, String> programFor(String hash, ByteBuffer source, String baseName) throws Exception {
+        FutureTask<Function<String, String>> task = new FutureTask<>(
+            () -> NalgaeCli.load(source, baseName, options, cache));
+        FutureTask<Function<String, String>> existing = byHash.putIfAbsent(hash, task);
+        if (existing == null) {
+            existing = task;
+            task.run();
+        }
+        try {
+            return existing.get();
+        } catch (ExecutionException ex) {
+            byHash.remove(hash, existing);
+            if (ex.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw ex;
+        }
+    }
+
+    /** Drops a program once no watched path resolves to it any more. */
+    private void release(String hash) {
+        for (Loaded loaded : byPath.values()) {
+            if (loaded.hash().equals(hash)) {
+                return;
+            }
+        }
+        byHash.remove(hash);
+    }
+}
@@ -0,0 +1,95 @@
+package nalgae.cli;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wire format shared by {@link NalgaeServer} and {@link NalgaeClient}.
+ *
+ * <p>A request is the protocol version, the absolute path of the source file and the input
+ * text. A response is a status byte followed by either the program output or an error message.
+ * Strings are sent as a length-prefixed UTF-8 payload so inputs are not limited to 64 KiB.
+ */
+final class Protocol {
+    static final int VERSION = 1;
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    private static final int MAX_STRING_BYTES = 1 << 30;
+
+    private Protocol() {}
+
+    record Request(String sourcePath, String input) {}
+
+    record Response(byte status, String payload) {}
+
+    static void writeRequest(DataOutputStream out, Request request) throws IOException {
+        out.writeInt(VERSION);
+        writeString(out, request.sourcePath());
+        writeString(out, request.input());
+        out.flush();
+    }
+
+    static Request readRequest(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported protocol version " + version);
+        }
+        return new Request(readString(in), readString(in));
+    }
+
+    static void writeResponse(DataOutputStream out, Response response) throws IOException {
+        out.writeByte(response.status());
+        writeString(out, response.payload());
+        out.flush();
+    }
+
+    static Response readResponse(DataInputStream in) throws IOException {
+        byte status = in.readByte();
+        return new Response(status, readString(in));
+    }
+
+    static SocketAddress address(Options options) {
+        if (options.port >= 0) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), options.port);
+        }
+        return UnixDomainSocketAddress.of(options.socket);
+    }
+
+    static ServerSocketChannel listen(SocketAddress address) throws IOException {
+        ServerSocketChannel server = address instanceof UnixDomainSocketAddress
+            ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+            : ServerSocketChannel.open();
+        server.bind(address);
+        return server;
+    }
+
+    static SocketChannel connect(SocketAddress address) throws IOException {
+        return SocketChannel.open(address);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,20 @@
+package nalgae.compiler;
+
+import java.util.Locale;
+
+/** Code generation strategies available to {@link ProgramCompiler}. */
+public enum Backend {
+    /** Generates Java source and compiles it with the system {@code JavaCompiler}. */
+    JAVAC,
+    /** Emits the class file directly from the AST without invoking javac. */
+    BYTECODE;
+
+    public static Backend fromName(String name) {
+        for (Backend backend : values()) {
+            if (backend.name().equals(name.toUpperCase(Locale.ROOT))) {
+                return backend;
+            }
+        }
+        throw new IllegalArgumentException("Unknown backend '" + name + "' (expected javac or bytecode)");
+    }
+}
@@ -0,0 +1,151 @@
+package nalgae.compiler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import nalgae.ast.Program;
+
+/**
+ * Compiles many programs with javac in one task, so that javac starts, fills its symbol table
+ * and reads the class path once for all of them instead of once per program.
+ *
+ * <p>{@link #add} turns a program into Java source right away and may be called from several
+ * threads at once. {@link #compile} then compiles the sources of every program added. When javac
+ * reports errors, the programs whose classes they are in are left out and the rest are compiled
+ * again, so one broken program does not keep the others from compiling.
+ */
+public final class BatchCompiler {
+    /** Compiled programs and the javac errors of the programs that failed, by program name. */
+    public record Result(Map<String, CompiledProgram> compiled, Map<String, String> failures) {}
+
+    private record Sources(String className, Map<String, String> classes) {}
+
+    private final CompilerOptions options;
+    private final Map<String, Sources> programs = new ConcurrentHashMap<>();
+
+    public BatchCompiler(CompilerOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Generates the sources of {@code program} under {@code name}, with entry points in
+     * {@code className}.
+     *
+     * @throws RuntimeException if the program has errors that are found before javac runs
+     */
+    public void add(String name, Program program, String className) {
+        Map<String, String> classes = new ProgramCompiler(program, className, Backend.JAVAC, options).generateClassSources();
+        if (programs.putIfAbsent(name, new Sources(className, classes)) != null) {
+            throw new IllegalArgumentException("Program added twice: " + name);
+        }
+    }
+
+    public Result compile() {
+        Map<String, Sources> pending = new TreeMap<>(programs);
+        Map<String, String> failures = new TreeMap<>();
+        while (!pending.isEmpty()) {
+            Map<String, String> programOfClass = new HashMap<>();
+            Map<String, String> sources = new LinkedHashMap<>();
+            for (Map.Entry<String, Sources> program : pending.entrySet()) {
+                for (Map.Entry<String, String> source : program.getValue().classes().entrySet()) {
+                    // Equal programs compile to equal classes; one copy of each is enough.
+                    if (sources.putIfAbsent(source.getKey(), source.getValue()) == null) {
+                        programOfClass.put(source.getKey(), program.getKey());
+                    }
+                }
+            }
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            Map<String, byte[]> classes = javac(sources, diagnostics);
+            if (classes != null) {
+                Map<String, CompiledProgram> compiled = new TreeMap<>();
+                pending.forEach((name, program) -> compiled.put(name, assemble(program, classes)));
+                return new Result(compiled, failures);
+            }
+            Map<String, StringJoiner> errors = new TreeMap<>();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                if (diagnostic.getKind() != Diagnostic.Kind.ERROR || diagnostic.getSource() == null) {
+                    continue;
+                }
+                String program = programOfClass.get(className(diagnostic.getSource()));
+                if (program != null) {
+                    errors.computeIfAbsent(program, key -> new StringJoiner("; "))
+                        .add("line " + diagnostic.getLineNumber() + ": " + diagnostic.getMessage(Locale.ROOT));
+                }
+            }
+            if (errors.isEmpty()) {
+                // Nothing to blame on a particular program, so none of them can be compiled.
+                String message = "Java compilation failed: " + describe(diagnostics);
+                pending.keySet().forEach(name -> failures.put(name, message));
+                break;
+            }
+            errors.forEach((program, message) -> {
+                failures.put(program, "Java compilation failed: " + message);
+                pending.remove(program);
+            });
+        }
+        return new Result(Map.of(), failures);
+    }
+
+    /** Runs one javac task; returns every class it wrote, or {@code null} if it reported errors. */
+    private static Map<String, byte[]> javac(Map<String, String> sources, DiagnosticCollector<JavaFileObject> diagnostics) {
+        JavaCompiler compiler = ProgramCompiler.systemCompiler();
+        try (PhaseMetrics.Phase phase = PhaseMetrics.global().start("javac");
+                InMemoryFileManager fileManager = new InMemoryFileManager(compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8))) {
+            List<JavaFileObject> units = new ArrayList<>();
+            for (Map.Entry<String, String> source : sources.entrySet()) {
+                units.add(InMemoryFileManager.source(source.getKey(), source.getValue()));
+            }
+            phase.measure("classes", units.size());
+            Boolean success = compiler.getTask(null, fileManager, diagnostics, ProgramCompiler.javacOptions(), null, units).call();
+            return Boolean.TRUE.equals(success) ? fileManager.classes() : null;
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to compile programs: " + ex.getMessage(), ex);
+        }
+    }
+
+    private static CompiledProgram assemble(Sources program, Map<String, byte[]> classes) {
+        Map<String, byte[]> companions = new LinkedHashMap<>();
+        for (String name : program.classes().keySet()) {
+            if (!name.equals(program.className())) {
+                companions.put(name, bytecode(classes, name));
+            }
+        }
+        return new CompiledProgram(program.className(), bytecode(classes, program.className()), companions);
+    }
+
+    private static byte[] bytecode(Map<String, byte[]> classes, String name) {
+        byte[] bytecode = classes.get(name);
+        if (bytecode == null) {
+            throw new IllegalStateException("Java compilation produced no class for " + name);
+        }
+        return bytecode;
+    }
+
+    /** Recovers the class name from a source made by {@link InMemoryFileManager#source}. */
+    private static String className(JavaFileObject source) {
+        String path = source.toUri().getPath();
+        return path.substring(1, path.length() - JavaFileObject.Kind.SOURCE.extension.length()).replace('/', '.');
+    }
+
+    private static String describe(DiagnosticCollector<JavaFileObject> diagnostics) {
+        StringJoiner joiner = new StringJoiner("; ");
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                joiner.add(diagnostic.getMessage(Locale.ROOT));
+            }
+        }
+        return joiner.length() == 0 ? "unknown error" : joiner.toString();
+    }
+}
@@ -2,43 +2,119 @@ package nalgae.compiler;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeSet;
+import nalgae.ast.Call;
+import nalgae.ast.Identifier;
+import nalgae.runtime.Builtins;
 
+/**
+ * Builtins known to the compilers. Generated classes call {@code methodName} on
+ * {@link nalgae.runtime.AsciiBuiltins}, and the interpreter calls the {@link Builtins} method of
+ * the same name, so every builtin needs both.
+ */
 final class BuiltinRegistry {
+    /** Direct entry points into {@link Builtins}, one shape per argument count. */
+    sealed interface Implementation permits Unary, Binary, Ternary {}
+
+    @FunctionalInterface
+    non-sealed interface Unary extends Implementation {
+        String apply(String input);
+    }
+
+    @FunctionalInterface
+    non-sealed interface Binary extends Implementation {
+        String apply(String input, String first);
+    }
+
+    @FunctionalInterface
+    non-sealed interface Ternary extends Implementation {
+        String apply(String input, String first, String second);
+    }
+
     static final class Descriptor {
         final String name;
         final String methodName;
         final int argCount;
+        final Implementation implementation;
 
-        Descriptor(String name, String methodName, int argCount) {
+        Descriptor(String name, String methodName, int argCount, Implementation implementation) {
             this.name = name;
             this.methodName = methodName;
             this.argCount = argCount;
+            this.implementation = implementation;
         }
     }
 
+    /**
+     * The {@code each_line <definition>} stage, which applies a definition to every line of its
+     * input and joins the results with line feeds. Its argument names a definition rather than a
+     * value, so it is not a builtin, but like one it takes precedence over a definition of the
+     * same name.
+     */
+    static final String EACH_LINE = "each_line";
+
     private static final Map<String, Descriptor> BUILTINS = new HashMap<>();
 
     static {
-        register("id", "id", 0);
-        register("upper", "upper", 0);
-        register("lower", "lower", 0);
-        register("trim", "trim", 0);
-        register("append", "append", 1);
-        register("prepend", "prepend", 1);
-        register("replace", "replace", 2);
-        register("const", "constValue", 1);
-        register("indent", "indent", 1);
-        register("trim_indent", "trimIndent", 0);
-        register("wrap", "wrap", 2);
+        unary("id", "id", Builtins::id);
+        unary("upper", "upper", Builtins::upper);
+        unary("lower", "lower", Builtins::lower);
+        unary("trim", "trim", Builtins::trim);
+        binary("append", "append", Builtins::append);
+        binary("prepend", "prepend", Builtins::prepend);
+        ternary("replace", "replace", Builtins::replace);
+        binary("const", "constValue", Builtins::constValue);
+        binary("indent", "indent", Builtins::indent);
+        unary("trim_indent", "trimIndent", Builtins::trimIndent);
+        ternary("wrap", "wrap", Builtins::wrap);
+    }
+
+    private static void unary(String name, String method, Unary implementation) {
+        register(name, method, 0, implementation);
+    }
+
+    private static void binary(String name, String method, Binary implementation) {
+        register(name, method, 1, implementation);
+    }
+
+    private static void ternary(String name, String method, Ternary implementation) {
+        register(name, method, 2, implementation);
     }
 
-    private static void register(String name, String method, int argCount) {
-        BUILTINS.put(name, new Descriptor(name, method, argCount));
+    private static void register(String name, String method, int argCount, Implementation implementation) {
+        BUILTINS.put(name, new Descriptor(name, method, argCount, implementation));
     }
 
     static Descriptor find(String name) {
         return BUILTINS.get(name);
     }
 
+    /** Whether a name is a builtin or {@link #EACH_LINE}, and so never calls a definition. */
+    static boolean isReserved(String name) {
+        return BUILTINS.containsKey(name) || name.equals(EACH_LINE);
+    }
+
+    /**
+     * Returns the definition an {@code each_line} call applies, given the number of values that
+     * precede its name, or null if the call's arguments are not those values and one name.
+     */
+    static String eachLineTarget(Call call, int values) {
+        if (call.arguments().size() != values + 1 || !(call.arguments().get(values) instanceof Identifier name)) {
+            return null;
+        }
+        return name.name();
+    }
+
+    /** Describes every registered builtin in a stable order, for use in cache keys. */
+    static String fingerprint() {
+        StringBuilder sb = new StringBuilder();
+        for (String name : new TreeSet<>(BUILTINS.keySet())) {
+            Descriptor descriptor = BUILTINS.get(name);
+            sb.append(name).append(':').append(descriptor.methodName).append('/').append(descriptor.argCount).append(';');
+        }
+        sb.append(EACH_LINE).append(';');
+        return sb.toString();
+    }
+
     private BuiltinRegistry() {}
 }
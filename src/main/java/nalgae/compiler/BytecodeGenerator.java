@@ -0,0 +1,908 @@
+package nalgae.compiler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import nalgae.ast.*;
+import nalgae.compiler.Concatenation.Part;
+
+/**
+ * Emits the generated {@code Function<String, String>} class directly as JVM bytecode.
+ *
+ * <p>The class has the same shape as the one produced from Java source: one private static
+ * {@code fn_<name>} method per definition, a static {@code runAscii} over {@code AsciiString},
+ * the {@code String} entry points {@code run} and {@code apply}, a {@code main} entry point and
+ * one static final field per distinct literal, per memoized definition and, when instrumented,
+ * per stage. Every expression leaves its value on the operand stack, so locals are only allocated
+ * when a group rebinds the pipeline value, when a value is shared or when a stage is counted. In
+ * streaming mode it also has {@code runTo} and the {@code emit_<name>} twins, which keep the sink
+ * in local slot 1.
+ *
+ * <p>When {@link ProgramCompiler} splits a program, each generator writes one class: either a
+ * final class holding some of the {@code fn_<name>} methods, package-private so the other classes
+ * can call them, or the entry class, which holds no definitions of its own.
+ */
+final class BytecodeGenerator {
+    private static final String STRING = "java/lang/String";
+    private static final String STRING_DESC = "Ljava/lang/String;";
+    private static final String STRING_BUILDER = "java/lang/StringBuilder";
+    private static final String ASCII = "nalgae/runtime/AsciiString";
+    private static final String ASCII_DESC = "L" + ASCII + ";";
+    private static final String ASCII_BUILDER = "nalgae/runtime/AsciiString$Builder";
+    private static final String BUILTINS = "nalgae/runtime/AsciiBuiltins";
+    private static final String SINK = "nalgae/runtime/AsciiSink";
+    private static final String CHANNEL_SINK = "nalgae/runtime/ChannelSink";
+    private static final String MEMO = "nalgae/runtime/MemoCache";
+    private static final String MEMO_DESC = "L" + MEMO + ";";
+    private static final String STAGE = "nalgae/runtime/StageCounter";
+    private static final String STAGE_DESC = "L" + STAGE + ";";
+    private static final String EMIT_DESC = "(" + ASCII_DESC + "L" + SINK + ";)V";
+    private static final int SINK_SLOT = 1;
+    private static final String UNARY_DESC = "(" + STRING_DESC + ")" + STRING_DESC;
+    private static final String VALUE_DESC = "(" + ASCII_DESC + ")" + ASCII_DESC;
+    private static final int MAX_CONSTANT_LENGTH = 65535;
+
+    private final Program program;
+    private final String internalName;
+    private final CompilerOptions options;
+    private final List<Definition> localDefinitions;
+    private final Map<String, String> owners;
+    private final boolean entryPoints;
+    private final Map<String, String> literalFields = new LinkedHashMap<>();
+    private final Set<String> emittedDefinitions = new LinkedHashSet<>();
+    private final Deque<Definition> pendingEmitters = new ArrayDeque<>();
+    private final List<StageSite> stageCounters = new ArrayList<>();
+    private String currentDefinition;
+    private final ValueNumbering numbering = new ValueNumbering();
+    private Map<Integer, Integer> available = new HashMap<>();
+    private Set<Integer> repeated = Set.of();
+    private int sharedValues;
+
+    BytecodeGenerator(Program program, String className, CompilerOptions options) {
+        this(program, className, options, program.definitions(), Map.of(), true);
+    }
+
+    /**
+     * Creates a generator for one class of a split program. It writes the methods of
+     * {@code localDefinitions} and calls every other definition in the class {@code owners} maps
+     * it to; only the entry class gets {@code runAscii}, {@code run}, {@code apply} and {@code main}.
+     */
+    BytecodeGenerator(Program program, String className, CompilerOptions options,
+                      List<Definition> localDefinitions, Map<String, String> owners, boolean entryPoints) {
+        this.program = program;
+        this.internalName = className.replace('.', '/');
+        this.options = options;
+        this.localDefinitions = localDefinitions;
+        this.owners = new HashMap<>();
+        owners.forEach((name, owner) -> this.owners.put(name, owner.replace('.', '/')));
+        this.entryPoints = entryPoints;
+    }
+
+    byte[] generate() {
+        ClassFileWriter writer = new ClassFileWriter(
+            (entryPoints ? ClassFileWriter.ACC_PUBLIC : 0) | ClassFileWriter.ACC_FINAL | ClassFileWriter.ACC_SUPER,
+            internalName,
+            "java/lang/Object");
+        if (entryPoints) {
+            writer.addInterface("java/util/function/Function");
+            writer.setSignature("Ljava/lang/Object;Ljava/util/function/Function<" + STRING_DESC + STRING_DESC + ">;");
+        }
+
+        Map<String, Definition> definitionMap = new HashMap<>();
+        for (Definition def : program.definitions()) {
+            definitionMap.put(def.name(), def);
+        }
+
+        writeConstructor(writer);
+        for (Definition definition : localDefinitions) {
+            ClassFileWriter.MethodWriter method = writer.addMethod(
+                (owners.isEmpty() ? ClassFileWriter.ACC_PRIVATE : 0) | ClassFileWriter.ACC_STATIC,
+                fnName(definition.name()),
+                VALUE_DESC);
+            boolean memoized = options.memoization().applies(definition.name());
+            int start = memoized ? lookUpMemo(definition, method) : -1;
+            beginMethod(definition.body(), definition.parameter());
+            currentDefinition = definition.name();
+            Scope scope = new Scope(definition.parameter(), 0, ValueNumbering.PARAMETER, definitionMap);
+            compileExpression(definition.body(), scope, method);
+            if (memoized) {
+                method.lload(start);
+                method.invokevirtual(MEMO, "put", "(" + ASCII_DESC + ASCII_DESC + "J)" + ASCII_DESC);
+            }
+            method.areturn();
+        }
+        if (!entryPoints) {
+            writeStaticFields(writer);
+            return writer.toByteArray();
+        }
+
+        ClassFileWriter.MethodWriter runAscii = writer.addMethod(
+            ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC, "runAscii", VALUE_DESC);
+        beginMethod(program.expression(), "it");
+        currentDefinition = "it";
+        compileExpression(program.expression(), new Scope("it", 0, ValueNumbering.PARAMETER, definitionMap), runAscii);
+        runAscii.areturn();
+
+        if (options.streaming()) {
+            writeStreamingMethods(writer, definitionMap);
+        }
+
+        ClassFileWriter.MethodWriter run = writer.addMethod(
+            ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC, "run", UNARY_DESC);
+        run.aload(0);
+        run.invokestatic(ASCII, "of", "(" + STRING_DESC + ")" + ASCII_DESC);
+        run.invokestatic(internalName, "runAscii", VALUE_DESC);
+        run.invokevirtual(ASCII, "toString", "()" + STRING_DESC);
+        run.areturn();
+
+        writeStaticFields(writer);
+        writeApply(writer);
+        writeMain(writer);
+        return writer.toByteArray();
+    }
+
+    private void writeConstructor(ClassFileWriter writer) {
+        ClassFileWriter.MethodWriter init = writer.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", "()V");
+        init.aload(0);
+        init.invokespecial("java/lang/Object", "<init>", "()V");
+        init.vreturn();
+    }
+
+    /**
+     * Returns early with the cached result of a memoized definition. Otherwise it stores the start
+     * time in a new local, whose slot it returns, and leaves the cache and the argument on the
+     * stack for the {@code put} that follows the body.
+     */
+    private int lookUpMemo(Definition definition, ClassFileWriter.MethodWriter method) {
+        ClassFileWriter.Label miss = method.newLabel();
+        method.getstatic(internalName, memoName(definition.name()), MEMO_DESC);
+        method.aload(0);
+        method.invokevirtual(MEMO, "get", VALUE_DESC);
+        method.dup();
+        method.ifnull(miss);
+        method.areturn();
+        method.mark(miss);
+        method.setStack(1);
+        method.pop();
+        int start = method.newWideLocal();
+        method.invokestatic("java/lang/System", "nanoTime", "()J");
+        method.lstore(start);
+        method.getstatic(internalName, memoName(definition.name()), MEMO_DESC);
+        method.aload(0);
+        return start;
+    }
+
+    /**
+     * Declares the literal, memo cache and stage counter fields and initializes them once, when
+     * the class is initialized.
+     */
+    private void writeStaticFields(ClassFileWriter writer) {
+        Memoization memoization = options.memoization();
+        if (literalFields.isEmpty() && !memoization.isEnabled() && stageCounters.isEmpty()) {
+            return;
+        }
+        ClassFileWriter.MethodWriter clinit = writer.addMethod(ClassFileWriter.ACC_STATIC, "<clinit>", "()V");
+        for (Map.Entry<String, String> literal : literalFields.entrySet()) {
+            writer.addField(
+                ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_STATIC | ClassFileWriter.ACC_FINAL,
+                literal.getValue(),
+                ASCII_DESC);
+            loadConstant(literal.getKey(), clinit);
+            clinit.invokestatic(ASCII, "of", "(" + STRING_DESC + ")" + ASCII_DESC);
+            clinit.putstatic(internalName, literal.getValue(), ASCII_DESC);
+        }
+        for (Definition definition : localDefinitions) {
+            if (!memoization.applies(definition.name())) {
+                continue;
+            }
+            writer.addField(
+                ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_STATIC | ClassFileWriter.ACC_FINAL,
+                memoName(definition.name()),
+                MEMO_DESC);
+            clinit.newObject(MEMO);
+            clinit.dup();
+            clinit.ldc(definition.name());
+            clinit.iconst(memoization.maxEntries());
+            clinit.ldc(memoization.maxBytes());
+            clinit.invokespecial(MEMO, "<init>", "(" + STRING_DESC + "IJ)V");
+            clinit.putstatic(internalName, memoName(definition.name()), MEMO_DESC);
+        }
+        for (int i = 0; i < stageCounters.size(); i++) {
+            StageSite site = stageCounters.get(i);
+            writer.addField(
+                ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_STATIC | ClassFileWriter.ACC_FINAL,
+                stageName(i),
+                STAGE_DESC);
+            clinit.newObject(STAGE);
+            clinit.dup();
+            clinit.ldc(site.definition());
+            clinit.iconst(site.line());
+            clinit.ldc(site.stage());
+            clinit.invokespecial(STAGE, "<init>", "(" + STRING_DESC + "I" + STRING_DESC + ")V");
+            clinit.putstatic(internalName, stageName(i), STAGE_DESC);
+        }
+        clinit.vreturn();
+    }
+
+    private void writeApply(ClassFileWriter writer) {
+        ClassFileWriter.MethodWriter apply = writer.addMethod(ClassFileWriter.ACC_PUBLIC, "apply", UNARY_DESC);
+        apply.aload(1);
+        apply.invokestatic(internalName, "run", UNARY_DESC);
+        apply.areturn();
+
+        ClassFileWriter.MethodWriter bridge = writer.addMethod(
+            ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_BRIDGE | ClassFileWriter.ACC_SYNTHETIC,
+            "apply",
+            "(Ljava/lang/Object;)Ljava/lang/Object;");
+        bridge.aload(0);
+        bridge.aload(1);
+        bridge.checkcast(STRING);
+        bridge.invokevirtual(internalName, "apply", UNARY_DESC);
+        bridge.areturn();
+    }
+
+    private void writeMain(ClassFileWriter writer) {
+        ClassFileWriter.MethodWriter main = writer.addMethod(
+            ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC, "main", "([Ljava/lang/String;)V");
+        ClassFileWriter.Label empty = main.newLabel();
+        ClassFileWriter.Label done = main.newLabel();
+        main.aload(0);
+        main.arraylength();
+        main.ifle(empty);
+        main.aload(0);
+        main.iconst0();
+        main.aaload();
+        main.gotoLabel(done);
+        main.mark(empty);
+        main.setStack(0);
+        main.ldc("");
+        main.mark(done);
+        main.invokestatic(ASCII, "of", "(" + STRING_DESC + ")" + ASCII_DESC);
+        if (!options.streaming()) {
+            main.invokestatic(internalName, "runAscii", VALUE_DESC);
+            main.getstatic("java/lang/System", "out", "Ljava/io/PrintStream;");
+            main.invokevirtual(ASCII, "writeLine", "(Ljava/io/OutputStream;)V");
+            main.vreturn();
+            return;
+        }
+        int sink = main.newLocal();
+        main.newObject(CHANNEL_SINK);
+        main.dup();
+        main.newObject("java/io/FileOutputStream");
+        main.dup();
+        main.getstatic("java/io/FileDescriptor", "out", "Ljava/io/FileDescriptor;");
+        main.invokespecial("java/io/FileOutputStream", "<init>", "(Ljava/io/FileDescriptor;)V");
+        main.invokevirtual("java/io/FileOutputStream", "getChannel", "()Ljava/nio/channels/FileChannel;");
+        main.invokespecial(CHANNEL_SINK, "<init>", "(Ljava/nio/channels/WritableByteChannel;)V");
+        main.astore(sink);
+        main.aload(sink);
+        main.invokestatic(internalName, "runTo", EMIT_DESC);
+        main.aload(sink);
+        main.bipush('\n');
+        main.invokeinterface(SINK, "write", "(C)V");
+        main.aload(sink);
+        main.invokeinterface(SINK, "flush", "()V");
+        main.vreturn();
+    }
+
+    /**
+     * Writes {@code runTo} and the twins of the definitions it reaches in output positions, after
+     * the value methods so that errors in the program are reported in the same order as without
+     * streaming. Mirrors {@link ProgramCompiler}.
+     */
+    private void writeStreamingMethods(ClassFileWriter writer, Map<String, Definition> definitionMap) {
+        ClassFileWriter.MethodWriter runTo = writer.addMethod(
+            ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC, "runTo", EMIT_DESC);
+        beginMethod(program.expression(), "it");
+        emitExpression(program.expression(), new Scope("it", 0, ValueNumbering.PARAMETER, definitionMap), runTo);
+        runTo.vreturn();
+
+        while (!pendingEmitters.isEmpty()) {
+            Definition definition = pendingEmitters.removeFirst();
+            ClassFileWriter.MethodWriter method = writer.addMethod(
+                ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_STATIC,
+                emitName(definition.name()),
+                EMIT_DESC);
+            beginMethod(definition.body(), definition.parameter());
+            Scope scope = new Scope(definition.parameter(), 0, ValueNumbering.PARAMETER, definitionMap);
+            emitExpression(definition.body(), scope, method);
+            method.vreturn();
+        }
+    }
+
+    private void emitExpression(Expression expression, Scope scope, ClassFileWriter.MethodWriter method) {
+        if (!(expression instanceof Pipeline pipeline)) {
+            throw new IllegalStateException("Unsupported expression type: " + expression.getClass());
+        }
+        if (pipeline.terms().isEmpty()) {
+            throw new IllegalArgumentException("Empty pipeline at line " + pipeline.line());
+        }
+        emitTerms(pipeline.terms(), scope, method);
+    }
+
+    private void emitTerms(List<Term> terms, Scope scope, ClassFileWriter.MethodWriter method) {
+        Term last = terms.get(terms.size() - 1);
+        if (terms.size() > 1 && Concatenation.isConcatStep(last)) {
+            List<Term> base = terms.subList(0, terms.size() - 1);
+            List<Term> arguments = ((Call) last).arguments();
+            switch (((Call) last).target()) {
+                case "append" -> {
+                    emitTerms(base, scope, method);
+                    emitTerms(List.of(arguments.get(0)), scope, method);
+                }
+                case "prepend" -> {
+                    emitTerms(List.of(arguments.get(0)), scope, method);
+                    emitTerms(base, scope, method);
+                }
+                default -> {
+                    emitTerms(List.of(arguments.get(0)), scope, method);
+                    emitTerms(base, scope, method);
+                    emitTerms(List.of(arguments.get(1)), scope, method);
+                }
+            }
+            return;
+        }
+        if (last instanceof Group group) {
+            Scope innerScope = scope;
+            if (terms.size() > 1) {
+                List<Term> base = terms.subList(0, terms.size() - 1);
+                compileTerms(base, scope, method);
+                innerScope = rebind(scope, base, method);
+            }
+            for (int i = 0; i < group.expressions().size(); i++) {
+                if (i > 0) {
+                    method.aload(SINK_SLOT);
+                    method.bipush('\n');
+                    method.invokeinterface(SINK, "write", "(C)V");
+                }
+                emitExpression(group.expressions().get(i), innerScope, method);
+            }
+            return;
+        }
+        Definition definition = ProgramCompiler.streamedDefinition(terms, scope.parameterName(), scope.definitions());
+        if (definition != null && !options.memoization().applies(definition.name())) {
+            if (terms.size() == 1) {
+                compileValueTerm(((Call) last).arguments().get(0), scope, method);
+            } else {
+                compileTerms(terms.subList(0, terms.size() - 1), scope, method);
+            }
+            method.aload(SINK_SLOT);
+            method.invokestatic(internalName, emitter(definition), EMIT_DESC);
+            return;
+        }
+        method.aload(SINK_SLOT);
+        compileTerms(terms, scope, method);
+        method.invokeinterface(SINK, "write", "(" + ASCII_DESC + ")V");
+    }
+
+    /** Returns the name of a definition's streaming twin, queueing it for generation on first use. */
+    private String emitter(Definition definition) {
+        if (emittedDefinitions.add(definition.name())) {
+            pendingEmitters.addLast(definition);
+        }
+        return emitName(definition.name());
+    }
+
+    private void compileExpression(Expression expression, Scope scope, ClassFileWriter.MethodWriter method) {
+        if (expression instanceof Pipeline pipeline) {
+            compilePipeline(pipeline, scope, method);
+            return;
+        }
+        throw new IllegalStateException("Unsupported expression type: " + expression.getClass());
+    }
+
+    private void compilePipeline(Pipeline pipeline, Scope scope, ClassFileWriter.MethodWriter method) {
+        if (pipeline.terms().isEmpty()) {
+            throw new IllegalArgumentException("Empty pipeline at line " + pipeline.line());
+        }
+        if (options.instrumented() || !Concatenation.isFusible(pipeline.terms())) {
+            compileTerms(pipeline.terms(), scope, method);
+            return;
+        }
+        int number = numbering.pipeline(pipeline.terms(), scope.parameterName(), scope.parameterNumber());
+        if (!reuse(number, method)) {
+            concatenate(collectPipeline(pipeline.terms(), scope, method), method);
+            keep(number, method);
+        }
+    }
+
+    /** Pushes a pipeline's value, starting from the longest prefix already kept in a local. */
+    private void compileTerms(List<Term> terms, Scope scope, ClassFileWriter.MethodWriter method) {
+        int[] numbers = numbering.prefixes(terms, scope.parameterName(), scope.parameterNumber());
+        int start = terms.size() - 1;
+        while (start > 0 && !available.containsKey(numbers[start])) {
+            start--;
+        }
+        if (start == 0 || !reuse(numbers[start], method)) {
+            compileValueTerm(terms.get(0), scope, method);
+        }
+        for (int i = start + 1; i < terms.size(); i++) {
+            compilePipelineStep(terms.get(i), scope, method, numbers[i - 1]);
+            keep(numbers[i], method);
+        }
+    }
+
+    /** Starts a method: values are shared within one method, and only repeated ones are kept. */
+    private void beginMethod(Expression body, String parameterName) {
+        available = new HashMap<>();
+        repeated = numbering.repeated(body, parameterName);
+    }
+
+    /** Pushes an already computed value from its local, if there is one. */
+    private boolean reuse(int number, ClassFileWriter.MethodWriter method) {
+        Integer slot = available.get(number);
+        if (slot == null) {
+            return false;
+        }
+        method.aload(slot);
+        sharedValues++;
+        return true;
+    }
+
+    /** Copies the value on top of the stack to a local when the method needs it again. */
+    private void keep(int number, ClassFileWriter.MethodWriter method) {
+        if (repeated.contains(number) && !available.containsKey(number)) {
+            int slot = method.newLocal();
+            method.dup();
+            method.astore(slot);
+            available.put(number, slot);
+        }
+    }
+
+    /** Moves the value of {@code base} from the stack to a local that a group step sees as the parameter. */
+    private Scope rebind(Scope scope, List<Term> base, ClassFileWriter.MethodWriter method) {
+        int slot = method.newLocal();
+        method.astore(slot);
+        int number = numbering.pipeline(base, scope.parameterName(), scope.parameterNumber());
+        return new Scope(scope.parameterName(), slot, number, scope.definitions());
+    }
+
+    int sharedValues() {
+        return sharedValues;
+    }
+
+    private void compileValueTerm(Term term, Scope scope, ClassFileWriter.MethodWriter method) {
+        if (term instanceof Identifier identifier) {
+            if (identifier.name().equals(scope.parameterName())) {
+                method.aload(scope.parameterSlot());
+                return;
+            }
+            throw error(term.line(), "Unknown identifier '" + identifier.name() + "' in value context");
+        }
+        if (term instanceof StringLiteral literal) {
+            loadLiteral(literal, method);
+            return;
+        }
+        int number = numbering.value(term, scope.parameterName(), scope.parameterNumber());
+        if (reuse(number, method)) {
+            return;
+        }
+        if (term instanceof Call call) {
+            compileValueCall(call, scope, method);
+        } else if (term instanceof Group group) {
+            concatenate(collectGroup(group, scope, method), method);
+        } else {
+            throw new IllegalStateException("Unhandled term: " + term);
+        }
+        keep(number, method);
+    }
+
+    private void compileValueCall(Call call, Scope scope, ClassFileWriter.MethodWriter method) {
+        if (call.target().equals(BuiltinRegistry.EACH_LINE)) {
+            String name = eachLineTarget(call, 1, scope);
+            compileValueTerm(call.arguments().get(0), scope, method);
+            eachLine(call.line(), name, method);
+            return;
+        }
+        BuiltinRegistry.Descriptor builtin = BuiltinRegistry.find(call.target());
+        if (builtin != null) {
+            if (call.arguments().size() != builtin.argCount + 1) {
+                throw error(call.line(), "Builtin '" + call.target() + "' expects " + (builtin.argCount + 1) + " arguments in value context");
+            }
+            int input = -1;
+            for (Term arg : call.arguments()) {
+                compileValueTerm(arg, scope, method);
+                if (input < 0) {
+                    input = stageInput(method);
+                }
+            }
+            int start = startStage(method);
+            invokeBuiltin(builtin, method);
+            endStage(start, input, call.line(), call.target(), method);
+            return;
+        }
+        Definition definition = scope.definitions().get(call.target());
+        if (definition != null) {
+            if (call.arguments().size() != 1) {
+                throw error(call.line(), "Function '" + call.target() + "' expects exactly one argument");
+            }
+            compileValueTerm(call.arguments().get(0), scope, method);
+            int input = stageInput(method);
+            int start = startStage(method);
+            method.invokestatic(owner(call.target()), fnName(call.target()), VALUE_DESC);
+            endStage(start, input, call.line(), call.target(), method);
+            return;
+        }
+        throw error(call.line(), "Unknown function '" + call.target() + "'");
+    }
+
+    private void compilePipelineStep(Term term, Scope scope, ClassFileWriter.MethodWriter method, int currentNumber) {
+        if (term instanceof Identifier identifier) {
+            if (identifier.name().equals(scope.parameterName())) {
+                throw error(term.line(), "Cannot call parameter '" + identifier.name() + "' as a function");
+            }
+            if (identifier.name().equals(BuiltinRegistry.EACH_LINE)) {
+                throw error(term.line(), "Stage 'each_line' expects a definition name in pipeline context");
+            }
+            BuiltinRegistry.Descriptor builtin = BuiltinRegistry.find(identifier.name());
+            if (builtin != null) {
+                if (builtin.argCount != 0) {
+                    throw error(term.line(), "Builtin '" + identifier.name() + "' requires arguments");
+                }
+                int input = stageInput(method);
+                int start = startStage(method);
+                invokeBuiltin(builtin, method);
+                endStage(start, input, term.line(), identifier.name(), method);
+                return;
+            }
+            Definition definition = scope.definitions().get(identifier.name());
+            if (definition != null) {
+                int input = stageInput(method);
+                int start = startStage(method);
+                method.invokestatic(owner(identifier.name()), fnName(identifier.name()), VALUE_DESC);
+                endStage(start, input, term.line(), identifier.name(), method);
+                return;
+            }
+            throw error(term.line(), "Unknown function '" + identifier.name() + "'");
+        }
+        if (term instanceof StringLiteral literal) {
+            method.pop();
+            loadLiteral(literal, method);
+            return;
+        }
+        if (term instanceof Call call) {
+            compilePipelineCall(call, scope, method);
+            return;
+        }
+        if (term instanceof Group group) {
+            // The pipeline value moves to a fresh local that the block sees as the parameter.
+            int slot = method.newLocal();
+            method.astore(slot);
+            int start = startStage(method);
+            Scope innerScope = new Scope(scope.parameterName(), slot, currentNumber, scope.definitions());
+            concatenate(collectGroup(group, innerScope, method), method);
+            endStage(start, slot, term.line(), "{...}", method);
+            return;
+        }
+        throw new IllegalStateException("Unhandled term: " + term);
+    }
+
+    /**
+     * Evaluates the run-time pieces of a pipeline in source order into locals and returns the
+     * pieces of its value, as {@link ProgramCompiler} does with variables.
+     */
+    private List<Part<Integer>> collectPipeline(List<Term> terms, Scope scope, ClassFileWriter.MethodWriter method) {
+        if (options.instrumented() && terms.size() > 1) {
+            // Every step is a stage of its own, so nothing is fused.
+            compileTerms(terms, scope, method);
+            return new ArrayList<>(List.of(store(method)));
+        }
+        int run = Concatenation.runStart(terms);
+        List<Part<Integer>> parts;
+        Term last = terms.get(run - 1);
+        if (run == 1 && last instanceof StringLiteral literal) {
+            parts = new ArrayList<>(List.of(Part.<Integer>constant(ProgramCompiler.literalValue(literal))));
+        } else if (run == 1 && last instanceof Group group) {
+            parts = collectGroup(group, scope, method);
+        } else if (last instanceof Group group) {
+            List<Term> base = terms.subList(0, run - 1);
+            compileTerms(base, scope, method);
+            parts = collectGroup(group, rebind(scope, base, method), method);
+        } else {
+            compileTerms(terms.subList(0, run), scope, method);
+            parts = new ArrayList<>(List.of(store(method)));
+        }
+        for (Term step : terms.subList(run, terms.size())) {
+            Call call = (Call) step;
+            List<Part<Integer>> first = collectArgument(call.arguments().get(0), scope, method);
+            switch (call.target()) {
+                case "append" -> parts.addAll(first);
+                case "prepend" -> parts.addAll(0, first);
+                default -> {
+                    List<Part<Integer>> second = collectArgument(call.arguments().get(1), scope, method);
+                    parts.addAll(0, first);
+                    parts.addAll(second);
+                }
+            }
+        }
+        return parts;
+    }
+
+    private List<Part<Integer>> collectGroup(Group group, Scope scope, ClassFileWriter.MethodWriter method) {
+        List<Part<Integer>> parts = new ArrayList<>();
+        for (int i = 0; i < group.expressions().size(); i++) {
+            if (i > 0) {
+                parts.add(Part.<Integer>constant("\n"));
+            }
+            Expression expression = group.expressions().get(i);
+            if (!(expression instanceof Pipeline pipeline) || pipeline.terms().isEmpty()) {
+                compileExpression(expression, scope, method);
+                parts.add(store(method));
+                continue;
+            }
+            parts.addAll(collectPipeline(pipeline.terms(), scope, method));
+        }
+        return parts;
+    }
+
+    private List<Part<Integer>> collectArgument(Term term, Scope scope, ClassFileWriter.MethodWriter method) {
+        if (term instanceof StringLiteral literal) {
+            return List.of(Part.<Integer>constant(ProgramCompiler.literalValue(literal)));
+        }
+        if (term instanceof Group group) {
+            return collectGroup(group, scope, method);
+        }
+        compileValueTerm(term, scope, method);
+        return List.of(store(method));
+    }
+
+    private static Part<Integer> store(ClassFileWriter.MethodWriter method) {
+        int slot = method.newLocal();
+        method.astore(slot);
+        return Part.value(slot);
+    }
+
+    /** Pushes the pieces joined by one builder sized from the constant and run-time lengths. */
+    private void concatenate(List<Part<Integer>> pieces, ClassFileWriter.MethodWriter method) {
+        List<Part<Integer>> parts = Concatenation.merge(pieces);
+        if (parts.isEmpty()) {
+            method.getstatic(ASCII, "EMPTY", ASCII_DESC);
+            return;
+        }
+        if (parts.size() == 1) {
+            loadPart(parts.get(0), method);
+            return;
+        }
+        method.newObject(ASCII_BUILDER);
+        method.dup();
+        method.iconst(Concatenation.constantLength(parts));
+        for (Part<Integer> part : parts) {
+            if (!part.isConstant()) {
+                method.aload(part.value());
+                method.invokevirtual(ASCII, "length", "()I");
+                method.iadd();
+            }
+        }
+        method.invokespecial(ASCII_BUILDER, "<init>", "(I)V");
+        for (Part<Integer> part : parts) {
+            if (part.isConstant() && part.constant().length() == 1) {
+                method.bipush(part.constant().charAt(0));
+                method.invokevirtual(ASCII_BUILDER, "append", "(C)L" + ASCII_BUILDER + ";");
+            } else {
+                loadPart(part, method);
+                method.invokevirtual(ASCII_BUILDER, "append", "(" + ASCII_DESC + ")L" + ASCII_BUILDER + ";");
+            }
+        }
+        method.invokevirtual(ASCII_BUILDER, "build", "()" + ASCII_DESC);
+    }
+
+    private void loadPart(Part<Integer> part, ClassFileWriter.MethodWriter method) {
+        if (part.isConstant()) {
+            method.getstatic(internalName, literalField(part.constant()), ASCII_DESC);
+        } else {
+            method.aload(part.value());
+        }
+    }
+
+    private void compilePipelineCall(Call call, Scope scope, ClassFileWriter.MethodWriter method) {
+        if (call.target().equals(BuiltinRegistry.EACH_LINE)) {
+            eachLine(call.line(), eachLineTarget(call, 0, scope), method);
+            return;
+        }
+        BuiltinRegistry.Descriptor builtin = BuiltinRegistry.find(call.target());
+        if (builtin != null) {
+            if (call.arguments().size() != builtin.argCount) {
+                throw error(call.line(), "Builtin '" + call.target() + "' expects " + builtin.argCount + " argument(s) in pipeline context");
+            }
+            int input = stageInput(method);
+            for (Term arg : call.arguments()) {
+                compileValueTerm(arg, scope, method);
+            }
+            int start = startStage(method);
+            invokeBuiltin(builtin, method);
+            endStage(start, input, call.line(), call.target(), method);
+            return;
+        }
+        Definition definition = scope.definitions().get(call.target());
+        if (definition != null) {
+            if (!call.arguments().isEmpty()) {
+                throw error(call.line(), "User function '" + call.target() + "' does not accept additional arguments in pipeline");
+            }
+            int input = stageInput(method);
+            int start = startStage(method);
+            method.invokestatic(owner(call.target()), fnName(call.target()), VALUE_DESC);
+            endStage(start, input, call.line(), call.target(), method);
+            return;
+        }
+        throw error(call.line(), "Unknown function '" + call.target() + "'");
+    }
+
+    /** Returns the definition an {@code each_line} call applies, checking it as the interpreter does. */
+    private String eachLineTarget(Call call, int values, Scope scope) {
+        String name = BuiltinRegistry.eachLineTarget(call, values);
+        if (name == null) {
+            throw error(call.line(), values == 0
+                ? "Stage 'each_line' expects a definition name in pipeline context"
+                : "Stage 'each_line' expects a value and a definition name in value context");
+        }
+        if (!scope.definitions().containsKey(name)) {
+            throw error(call.line(), "Unknown function '" + name + "'");
+        }
+        return name;
+    }
+
+    /**
+     * Replaces the value on top of the stack with a definition applied to each of its lines, in
+     * the same loop {@link ProgramCompiler} generates: each line is sliced out of the input and
+     * its result appended to one builder, sized for output as long as the input.
+     */
+    private void eachLine(int line, String name, ClassFileWriter.MethodWriter method) {
+        int counted = stageInput(method);
+        int input = method.newLocal();
+        method.astore(input);
+        int start = startStage(method);
+        int lines = method.newLocal();
+        int from = method.newLocal();
+        int end = method.newLocal();
+        method.newObject(ASCII_BUILDER);
+        method.dup();
+        method.aload(input);
+        method.invokevirtual(ASCII, "length", "()I");
+        method.invokespecial(ASCII_BUILDER, "<init>", "(I)V");
+        method.astore(lines);
+        method.iconst0();
+        method.istore(from);
+
+        ClassFileWriter.Label loop = method.newLabel();
+        ClassFileWriter.Label done = method.newLabel();
+        method.mark(loop);
+        method.aload(input);
+        method.iload(from);
+        method.invokevirtual(ASCII, "lineEnd", "(I)I");
+        method.istore(end);
+        method.aload(lines);
+        method.aload(input);
+        method.iload(from);
+        method.iload(end);
+        method.invokevirtual(ASCII, "slice", "(II)" + ASCII_DESC);
+        method.invokestatic(owner(name), fnName(name), VALUE_DESC);
+        method.invokevirtual(ASCII_BUILDER, "append", "(" + ASCII_DESC + ")L" + ASCII_BUILDER + ";");
+        method.pop();
+        method.iload(end);
+        method.aload(input);
+        method.invokevirtual(ASCII, "length", "()I");
+        method.ificmpge(done);
+        method.aload(lines);
+        method.bipush('\n');
+        method.invokevirtual(ASCII_BUILDER, "append", "(C)L" + ASCII_BUILDER + ";");
+        method.pop();
+        method.iload(end);
+        method.iconst(1);
+        method.iadd();
+        method.istore(from);
+        method.gotoLabel(loop);
+        method.mark(done);
+
+        method.aload(lines);
+        method.invokevirtual(ASCII_BUILDER, "build", "()" + ASCII_DESC);
+        endStage(start, counted, line, BuiltinRegistry.EACH_LINE, method);
+    }
+
+    /**
+     * In instrumented classes, copies the stage input on top of the stack to a new local and
+     * returns its slot. Returns -1 otherwise, and the stage helpers then emit nothing.
+     */
+    private int stageInput(ClassFileWriter.MethodWriter method) {
+        if (!options.instrumented()) {
+            return -1;
+        }
+        int slot = method.newLocal();
+        method.dup();
+        method.astore(slot);
+        return slot;
+    }
+
+    /** Stores the start time of a stage in a new wide local and returns its slot, or -1. */
+    private int startStage(ClassFileWriter.MethodWriter method) {
+        if (!options.instrumented()) {
+            return -1;
+        }
+        int slot = method.newWideLocal();
+        method.invokestatic("java/lang/System", "nanoTime", "()J");
+        method.lstore(slot);
+        return slot;
+    }
+
+    /** Passes the stage output on top of the stack through its counter. */
+    private void endStage(int start, int input, int line, String name, ClassFileWriter.MethodWriter method) {
+        if (start < 0) {
+            return;
+        }
+        int output = method.newLocal();
+        method.astore(output);
+        method.getstatic(internalName, stageName(stageCounters.size()), STAGE_DESC);
+        stageCounters.add(new StageSite(currentDefinition, line, name));
+        method.lload(start);
+        method.aload(input);
+        method.aload(output);
+        method.invokevirtual(STAGE, "record", "(J" + ASCII_DESC + ASCII_DESC + ")" + ASCII_DESC);
+    }
+
+    private void invokeBuiltin(BuiltinRegistry.Descriptor builtin, ClassFileWriter.MethodWriter method) {
+        String descriptor = "(" + ASCII_DESC.repeat(builtin.argCount + 1) + ")" + ASCII_DESC;
+        method.invokestatic(BUILTINS, builtin.methodName, descriptor);
+    }
+
+    /** Pushes the field holding a literal, declaring it on first use. */
+    private void loadLiteral(StringLiteral literal, ClassFileWriter.MethodWriter method) {
+        method.getstatic(internalName, literalField(ProgramCompiler.literalValue(literal)), ASCII_DESC);
+    }
+
+    private String literalField(String value) {
+        return literalFields.computeIfAbsent(value, key -> "LIT$" + literalFields.size());
+    }
+
+    /**
+     * Pushes a string constant. Literals longer than a constant pool entry allows are split and
+     * concatenated at run time, where the javac backend would reject them.
+     */
+    private void loadConstant(String value, ClassFileWriter.MethodWriter method) {
+        if (value.length() <= MAX_CONSTANT_LENGTH) {
+            method.ldc(value);
+            return;
+        }
+        method.newObject(STRING_BUILDER);
+        method.dup();
+        method.invokespecial(STRING_BUILDER, "<init>", "()V");
+        for (int start = 0; start < value.length(); start += MAX_CONSTANT_LENGTH) {
+            method.ldc(value.substring(start, Math.min(value.length(), start + MAX_CONSTANT_LENGTH)));
+            method.invokevirtual(STRING_BUILDER, "append", "(" + STRING_DESC + ")L" + STRING_BUILDER + ";");
+        }
+        method.invokevirtual(STRING_BUILDER, "toString", "()" + STRING_DESC);
+    }
+
+    private RuntimeException error(int line, String message) {
+        return new RuntimeException("[line " + line + "] " + message);
+    }
+
+    /** Returns the internal name of the class that declares a definition's method. */
+    private String owner(String name) {
+        return owners.getOrDefault(name, internalName);
+    }
+
+    private static String fnName(String name) {
+        return "fn_" + name;
+    }
+
+    private static String memoName(String name) {
+        return "MEMO$" + name;
+    }
+
+    private static String stageName(int index) {
+        return "STAGE$" + index;
+    }
+
+    private static String emitName(String name) {
+        return "emit_" + name;
+    }
+
+    private record Scope(String parameterName, int parameterSlot, int parameterNumber, Map<String, Definition> definitions) {}
+
+    private record StageSite(String definition, int line, String stage) {}
+}
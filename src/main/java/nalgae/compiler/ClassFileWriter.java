@@ -0,0 +1,562 @@
+package nalgae.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal class file writer used by the bytecode backend.
+ *
+ * <p>Classes are written with major version 49 so the JVM verifies them by type inference and no
+ * {@code StackMapTable} has to be computed for branches.
+ */
+final class ClassFileWriter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+    static final int ACC_BRIDGE = 0x0040;
+    static final int ACC_SYNTHETIC = 0x1000;
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int MAJOR_VERSION = 49;
+    private static final int MAX_CODE_LENGTH = 65535;
+
+    private final ConstantPool pool = new ConstantPool();
+    private final int access;
+    private final int thisClass;
+    private final int superClass;
+    private final List<Integer> interfaces = new ArrayList<>();
+    private final List<int[]> fields = new ArrayList<>();
+    private final List<MethodWriter> methods = new ArrayList<>();
+    private String signature;
+
+    ClassFileWriter(int access, String internalName, String superName) {
+        this.access = access;
+        this.thisClass = pool.classRef(internalName);
+        this.superClass = pool.classRef(superName);
+    }
+
+    void addInterface(String internalName) {
+        interfaces.add(pool.classRef(internalName));
+    }
+
+    void setSignature(String signature) {
+        this.signature = signature;
+    }
+
+    void addField(int access, String name, String descriptor) {
+        fields.add(new int[] {access, pool.utf8(name), pool.utf8(descriptor)});
+    }
+
+    MethodWriter addMethod(int access, String name, String descriptor) {
+        MethodWriter method = new MethodWriter(access, name, descriptor);
+        methods.add(method);
+        return method;
+    }
+
+    byte[] toByteArray() {
+        int signatureName = signature != null ? pool.utf8("Signature") : 0;
+        int signatureIndex = signature != null ? pool.utf8(signature) : 0;
+        int codeName = pool.utf8("Code");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeShort(0);
+            out.writeShort(MAJOR_VERSION);
+            pool.writeTo(out);
+            out.writeShort(access);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.size());
+            for (int index : interfaces) {
+                out.writeShort(index);
+            }
+            out.writeShort(fields.size());
+            for (int[] field : fields) {
+                out.writeShort(field[0]);
+                out.writeShort(field[1]);
+                out.writeShort(field[2]);
+                out.writeShort(0);
+            }
+            out.writeShort(methods.size());
+            for (MethodWriter method : methods) {
+                method.writeTo(out, codeName);
+            }
+            if (signature != null) {
+                out.writeShort(1);
+                out.writeShort(signatureName);
+                out.writeInt(2);
+                out.writeShort(signatureIndex);
+            } else {
+                out.writeShort(0);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Counts the operand stack slots taken by the parameters of a method descriptor. */
+    static int argumentSlots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char ch = descriptor.charAt(i);
+            if (ch == 'J' || ch == 'D') {
+                slots += 2;
+                i++;
+                continue;
+            }
+            while (ch == '[') {
+                ch = descriptor.charAt(++i);
+            }
+            if (ch == 'L') {
+                i = descriptor.indexOf(';', i);
+            }
+            slots++;
+            i++;
+        }
+        return slots;
+    }
+
+    static int returnSlots(String descriptor) {
+        char ch = descriptor.charAt(descriptor.indexOf(')') + 1);
+        return switch (ch) {
+            case 'V' -> 0;
+            case 'J', 'D' -> 2;
+            default -> 1;
+        };
+    }
+
+    static final class Label {
+        private int position = -1;
+        private final List<Integer> references = new ArrayList<>();
+    }
+
+    final class MethodWriter {
+        private static final int ILOAD = 0x15;
+        private static final int ISTORE = 0x36;
+        private static final int LLOAD = 0x16;
+        private static final int LSTORE = 0x37;
+        private static final int ALOAD = 0x19;
+        private static final int ASTORE = 0x3A;
+
+        private final int access;
+        private final int nameIndex;
+        private final int descriptorIndex;
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private final List<Label> labels = new ArrayList<>();
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+
+        private MethodWriter(int access, String name, String descriptor) {
+            this.access = access;
+            this.nameIndex = pool.utf8(name);
+            this.descriptorIndex = pool.utf8(descriptor);
+            this.maxLocals = argumentSlots(descriptor) + ((access & ACC_STATIC) != 0 ? 0 : 1);
+        }
+
+        int newLocal() {
+            return maxLocals++;
+        }
+
+        /** Allocates the two slots of a {@code long} local. */
+        int newWideLocal() {
+            int slot = maxLocals;
+            maxLocals += 2;
+            return slot;
+        }
+
+        Label newLabel() {
+            Label label = new Label();
+            labels.add(label);
+            return label;
+        }
+
+        void aload(int slot) {
+            localInstruction(ALOAD, 0x2A, slot);
+            push(1);
+        }
+
+        void astore(int slot) {
+            localInstruction(ASTORE, 0x4B, slot);
+            pop(1);
+        }
+
+        void iload(int slot) {
+            localInstruction(ILOAD, 0x1A, slot);
+            push(1);
+        }
+
+        void istore(int slot) {
+            localInstruction(ISTORE, 0x3B, slot);
+            pop(1);
+        }
+
+        void lload(int slot) {
+            localInstruction(LLOAD, 0x1E, slot);
+            maxLocals = Math.max(maxLocals, slot + 2);
+            push(2);
+        }
+
+        void lstore(int slot) {
+            localInstruction(LSTORE, 0x3F, slot);
+            maxLocals = Math.max(maxLocals, slot + 2);
+            pop(2);
+        }
+
+        void ldc(long value) {
+            code.write(0x14);
+            writeShort(pool.longValue(value));
+            push(2);
+        }
+
+        void ldc(String value) {
+            int index = pool.string(value);
+            if (index <= 0xFF) {
+                code.write(0x12);
+                code.write(index);
+            } else {
+                code.write(0x13);
+                writeShort(index);
+            }
+            push(1);
+        }
+
+        void iconst0() {
+            code.write(0x03);
+            push(1);
+        }
+
+        /** Pushes an int constant with the shortest instruction that holds it. */
+        void iconst(int value) {
+            if (value >= -1 && value <= 5) {
+                code.write(0x03 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                code.write(0x10);
+                code.write(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                code.write(0x11);
+                writeShort(value);
+            } else {
+                int index = pool.integer(value);
+                if (index <= 0xFF) {
+                    code.write(0x12);
+                    code.write(index);
+                } else {
+                    code.write(0x13);
+                    writeShort(index);
+                }
+            }
+            push(1);
+        }
+
+        void iadd() {
+            code.write(0x60);
+            pop(1);
+        }
+
+        void bipush(int value) {
+            code.write(0x10);
+            code.write(value);
+            push(1);
+        }
+
+        void dup() {
+            code.write(0x59);
+            push(1);
+        }
+
+        void pop() {
+            code.write(0x57);
+            pop(1);
+        }
+
+        void arraylength() {
+            code.write(0xBE);
+        }
+
+        void aaload() {
+            code.write(0x32);
+            pop(1);
+        }
+
+        void areturn() {
+            code.write(0xB0);
+            pop(1);
+        }
+
+        void vreturn() {
+            code.write(0xB1);
+        }
+
+        void newObject(String internalName) {
+            code.write(0xBB);
+            writeShort(pool.classRef(internalName));
+            push(1);
+        }
+
+        void checkcast(String internalName) {
+            code.write(0xC0);
+            writeShort(pool.classRef(internalName));
+        }
+
+        void getstatic(String owner, String name, String descriptor) {
+            code.write(0xB2);
+            writeShort(pool.fieldRef(owner, name, descriptor));
+            push(1);
+        }
+
+        void putstatic(String owner, String name, String descriptor) {
+            code.write(0xB3);
+            writeShort(pool.fieldRef(owner, name, descriptor));
+            pop(1);
+        }
+
+        void invokestatic(String owner, String name, String descriptor) {
+            code.write(0xB8);
+            writeShort(pool.methodRef(owner, name, descriptor, false));
+            pop(argumentSlots(descriptor));
+            push(returnSlots(descriptor));
+        }
+
+        void invokevirtual(String owner, String name, String descriptor) {
+            code.write(0xB6);
+            writeShort(pool.methodRef(owner, name, descriptor, false));
+            pop(argumentSlots(descriptor) + 1);
+            push(returnSlots(descriptor));
+        }
+
+        void invokespecial(String owner, String name, String descriptor) {
+            code.write(0xB7);
+            writeShort(pool.methodRef(owner, name, descriptor, false));
+            pop(argumentSlots(descriptor) + 1);
+            push(returnSlots(descriptor));
+        }
+
+        void invokeinterface(String owner, String name, String descriptor) {
+            int arguments = argumentSlots(descriptor) + 1;
+            code.write(0xB9);
+            writeShort(pool.methodRef(owner, name, descriptor, true));
+            code.write(arguments);
+            code.write(0);
+            pop(arguments);
+            push(returnSlots(descriptor));
+        }
+
+        /** Branches if the int on top of the stack is less than or equal to zero. */
+        void ifle(Label label) {
+            jump(0x9E, label);
+            pop(1);
+        }
+
+        /** Branches if the second int on the stack is greater than or equal to the one on top. */
+        void ificmpge(Label label) {
+            jump(0xA2, label);
+            pop(2);
+        }
+
+        void ifnull(Label label) {
+            jump(0xC6, label);
+            pop(1);
+        }
+
+        void gotoLabel(Label label) {
+            jump(0xA7, label);
+        }
+
+        void mark(Label label) {
+            label.position = code.size();
+        }
+
+        /** Sets the tracked stack depth, used after unconditional jumps where it cannot be inferred. */
+        void setStack(int depth) {
+            stack = depth;
+            maxStack = Math.max(maxStack, depth);
+        }
+
+        private void jump(int opcode, Label label) {
+            int position = code.size();
+            code.write(opcode);
+            label.references.add(position);
+            writeShort(0);
+        }
+
+        private void localInstruction(int opcode, int shortForm, int slot) {
+            if (slot <= 3) {
+                code.write(shortForm + slot);
+            } else if (slot <= 0xFF) {
+                code.write(opcode);
+                code.write(slot);
+            } else {
+                code.write(0xC4);
+                code.write(opcode);
+                writeShort(slot);
+            }
+            maxLocals = Math.max(maxLocals, slot + 1);
+        }
+
+        private void writeShort(int value) {
+            code.write((value >>> 8) & 0xFF);
+            code.write(value & 0xFF);
+        }
+
+        private void push(int slots) {
+            stack += slots;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private void pop(int slots) {
+            stack -= slots;
+        }
+
+        private void writeTo(DataOutputStream out, int codeName) throws IOException {
+            byte[] bytes = code.toByteArray();
+            if (bytes.length > MAX_CODE_LENGTH) {
+                throw new IllegalStateException("Generated method is too large (" + bytes.length + " bytes of bytecode)");
+            }
+            patchLabels(bytes);
+            out.writeShort(access);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + bytes.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+
+        private void patchLabels(byte[] bytes) {
+            for (Label label : labels) {
+                if (label.position < 0) {
+                    throw new IllegalStateException("Unbound label in generated method");
+                }
+                for (int reference : label.references) {
+                    int offset = label.position - reference;
+                    bytes[reference + 1] = (byte) (offset >>> 8);
+                    bytes[reference + 2] = (byte) offset;
+                }
+            }
+        }
+    }
+
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String value) {
+            return entry("U" + value, () -> {
+                out.writeByte(1);
+                out.writeUTF(value);
+            });
+        }
+
+        int classRef(String internalName) {
+            int name = utf8(internalName);
+            return entry("C" + internalName, () -> {
+                out.writeByte(7);
+                out.writeShort(name);
+            });
+        }
+
+        int string(String value) {
+            int utf8 = utf8(value);
+            return entry("S" + value, () -> {
+                out.writeByte(8);
+                out.writeShort(utf8);
+            });
+        }
+
+        int integer(int value) {
+            return entry("I" + value, () -> {
+                out.writeByte(3);
+                out.writeInt(value);
+            });
+        }
+
+        /** Adds a long constant, which takes two pool slots. */
+        int longValue(long value) {
+            boolean added = !entries.containsKey("J" + value);
+            int index = entry("J" + value, () -> {
+                out.writeByte(5);
+                out.writeLong(value);
+            });
+            if (added) {
+                count++;
+            }
+            return index;
+        }
+
+        int fieldRef(String owner, String name, String descriptor) {
+            int ownerIndex = classRef(owner);
+            int nameAndType = nameAndType(name, descriptor);
+            return entry("F" + owner + '.' + name + ':' + descriptor, () -> {
+                out.writeByte(9);
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        int methodRef(String owner, String name, String descriptor, boolean isInterface) {
+            int ownerIndex = classRef(owner);
+            int nameAndType = nameAndType(name, descriptor);
+            return entry((isInterface ? "IM" : "M") + owner + '.' + name + descriptor, () -> {
+                out.writeByte(isInterface ? 11 : 10);
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        private int nameAndType(String name, String descriptor) {
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            return entry("N" + name + ':' + descriptor, () -> {
+                out.writeByte(12);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+        }
+
+        private int entry(String key, EntryWriter writer) {
+            Integer existing = entries.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            if (count > 0xFFFF) {
+                throw new IllegalStateException("Constant pool overflow in generated class");
+            }
+            try {
+                writer.write();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            int index = count++;
+            entries.put(key, index);
+            return index;
+        }
+
+        void writeTo(DataOutputStream target) throws IOException {
+            out.flush();
+            target.writeShort(count);
+            target.write(bytes.toByteArray());
+        }
+
+        private interface EntryWriter {
+            void write() throws IOException;
+        }
+    }
+}
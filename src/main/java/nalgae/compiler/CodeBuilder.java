@@ -8,7 +8,7 @@ final class CodeBuilder {
     private int tempCounter = 0;
 
     String newTemp(String expression) {
-        return newTypedTemp("String", expression);
+        return newTypedTemp("AsciiString", expression);
     }
 
     String newTypedTemp(String type, String expression) {
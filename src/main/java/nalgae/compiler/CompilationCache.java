@@ -0,0 +1,395 @@
+package nalgae.compiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import nalgae.ast.*;
+
+/**
+ * Persistent, content-addressed store of compiled programs.
+ *
+ * <p>Entries are keyed by a SHA-256 over the normalized program (comments and layout do not
+ * contribute, and line numbers only do for instrumented programs, whose stage counters report
+ * them), the class base name, the backend, the {@link CompilerOptions},
+ * {@link ProgramCompiler#COMPILER_VERSION}, the JDK version and the builtin registry. A second, cheaper
+ * key over the raw source text is stored as an alias so unchanged files are found without
+ * lexing or parsing.
+ *
+ * <p>Files are written to a temporary name and atomically renamed, so concurrent processes
+ * sharing a directory only ever observe complete entries. Reads refresh the modification time,
+ * which drives least-recently-used eviction once the directory exceeds its size budget. Any I/O
+ * failure is treated as a miss so that a read-only or vanished cache never breaks compilation.
+ */
+public final class CompilationCache {
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final int ENTRY_MAGIC = 0x4E414C43;
+    private static final String ENTRY_SUFFIX = ".class.bin";
+    private static final String ALIAS_SUFFIX = ".alias";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public CompilationCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /** Resolves {@code $XDG_CACHE_HOME/nalgae}, falling back to {@code ~/.cache/nalgae}. */
+    public static Path defaultDirectory() {
+        String xdg = System.getenv("XDG_CACHE_HOME");
+        Path base = xdg != null && !xdg.isEmpty()
+            ? Path.of(xdg)
+            : Path.of(System.getProperty("user.home"), ".cache");
+        return base.resolve("nalgae");
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    /**
+     * Keys the raw bytes of a source file, between the buffer's position and limit, so that an
+     * unchanged file is found without being decoded or parsed. The buffer's position is kept.
+     */
+    public static String sourceKey(ByteBuffer source, String classBaseName, Backend backend, CompilerOptions options) {
+        Fingerprint fingerprint = new Fingerprint("source", classBaseName, backend, options);
+        fingerprint.bytes(source);
+        return fingerprint.finish();
+    }
+
+    public static String programKey(Program program, String classBaseName, Backend backend, CompilerOptions options) {
+        Fingerprint fingerprint = new Fingerprint("program", classBaseName, backend, options);
+        fingerprint.program(program);
+        return fingerprint.finish();
+    }
+
+    /**
+     * Keys one class of a split program by its name, its definitions and the classes it calls
+     * into, so that it is reused when those are unchanged even if the rest of the program is not.
+     */
+    static String partitionKey(String className, List<Definition> definitions, Map<String, String> callees, Backend backend, CompilerOptions options) {
+        Fingerprint fingerprint = new Fingerprint("partition", className, backend, options);
+        fingerprint.program(new Program(definitions, new Pipeline(List.of(), 0)));
+        fingerprint.material.append('O').append(callees.size());
+        for (Map.Entry<String, String> callee : new TreeMap<>(callees).entrySet()) {
+            fingerprint.string(callee.getKey());
+            fingerprint.string(callee.getValue());
+        }
+        return fingerprint.finish();
+    }
+
+    /** Derives the generated class name for a program key, so cached bytecode stays loadable. */
+    public static String className(String classBaseName, String programKey) {
+        return "nalgae.generated." + classBaseName + "_" + programKey.substring(0, 16);
+    }
+
+    /**
+     * Looks an entry up by its source alias. A missing alias is not counted as a miss because
+     * callers fall back to {@link #find} with the program key.
+     */
+    public Optional<CompiledProgram> findBySource(String sourceKey) {
+        Path alias = directory.resolve(sourceKey + ALIAS_SUFFIX);
+        try {
+            String programKey = Files.readString(alias, StandardCharsets.US_ASCII).trim();
+            Optional<CompiledProgram> compiled = read(programKey);
+            if (compiled.isPresent()) {
+                touch(alias);
+                hits.incrementAndGet();
+            }
+            return compiled;
+        } catch (NoSuchFileException ex) {
+            return Optional.empty();
+        } catch (IOException ex) {
+            failures.incrementAndGet();
+            return Optional.empty();
+        }
+    }
+
+    public Optional<CompiledProgram> find(String programKey) {
+        Optional<CompiledProgram> compiled = read(programKey);
+        (compiled.isPresent() ? hits : misses).incrementAndGet();
+        return compiled;
+    }
+
+    private Optional<CompiledProgram> read(String programKey) {
+        Path entry = directory.resolve(programKey + ENTRY_SUFFIX);
+        try {
+            CompiledProgram compiled = decode(Files.readAllBytes(entry));
+            touch(entry);
+            return Optional.of(compiled);
+        } catch (NoSuchFileException ex) {
+            return Optional.empty();
+        } catch (IOException ex) {
+            failures.incrementAndGet();
+            deleteQuietly(entry);
+            return Optional.empty();
+        }
+    }
+
+    public void store(String programKey, CompiledProgram compiled) {
+        try {
+            Files.createDirectories(directory);
+            writeAtomically(directory.resolve(programKey + ENTRY_SUFFIX), encode(compiled));
+            stores.incrementAndGet();
+            evict();
+        } catch (IOException ex) {
+            failures.incrementAndGet();
+        }
+    }
+
+    /** Records that sources hashing to {@code sourceKey} compile to the entry {@code programKey}. */
+    public void alias(String sourceKey, String programKey) {
+        try {
+            Files.createDirectories(directory);
+            writeAtomically(directory.resolve(sourceKey + ALIAS_SUFFIX), programKey.getBytes(StandardCharsets.US_ASCII));
+            evict();
+        } catch (IOException ex) {
+            failures.incrementAndGet();
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(hits.get(), misses.get(), stores.get(), evictions.get(), failures.get());
+    }
+
+    public record Stats(long hits, long misses, long stores, long evictions, long failures) {
+        @Override
+        public String toString() {
+            return "hits=" + hits + " misses=" + misses + " stores=" + stores + " evictions=" + evictions + " failures=" + failures;
+        }
+    }
+
+    private void writeAtomically(Path target, byte[] content) throws IOException {
+        Path temp = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, content);
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            deleteQuietly(temp);
+        }
+    }
+
+    /** Deletes the least recently used files until the directory fits in {@code maxBytes}. */
+    private void evict() throws IOException {
+        record CacheFile(Path path, long size, FileTime lastUsed) {}
+        List<CacheFile> files = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (!name.endsWith(ENTRY_SUFFIX) && !name.endsWith(ALIAS_SUFFIX)) {
+                    continue;
+                }
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    files.add(new CacheFile(path, attributes.size(), attributes.lastModifiedTime()));
+                    total += attributes.size();
+                } catch (NoSuchFileException ex) {
+                    // Removed by a concurrent process.
+                }
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        files.sort(Comparator.comparing(CacheFile::lastUsed));
+        for (CacheFile file : files) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (deleteQuietly(file.path())) {
+                evictions.incrementAndGet();
+            }
+            total -= file.size();
+        }
+    }
+
+    private static void touch(Path path) {
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ex) {
+            // Read-only caches still serve hits; they just stop tracking recency.
+        }
+    }
+
+    private static boolean deleteQuietly(Path path) {
+        try {
+            return Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private static byte[] encode(CompiledProgram compiled) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(compiled.bytecode().length + 128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(ENTRY_MAGIC);
+            out.writeUTF(compiled.className());
+            out.writeInt(compiled.bytecode().length);
+            out.write(compiled.bytecode());
+            out.writeInt(compiled.companions().size());
+            for (Map.Entry<String, byte[]> companion : compiled.companions().entrySet()) {
+                out.writeUTF(companion.getKey());
+                out.writeInt(companion.getValue().length);
+                out.write(companion.getValue());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static CompiledProgram decode(byte[] content) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(content))) {
+            if (in.readInt() != ENTRY_MAGIC) {
+                throw new IOException("Corrupt cache entry");
+            }
+            String className = in.readUTF();
+            byte[] bytecode = readBytes(in);
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Corrupt cache entry");
+            }
+            Map<String, byte[]> companions = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                companions.put(name, readBytes(in));
+            }
+            if (in.available() != 0) {
+                throw new IOException("Corrupt cache entry");
+            }
+            return new CompiledProgram(className, bytecode, companions);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Truncated cache entry");
+        }
+        return in.readNBytes(length);
+    }
+
+    /** Builds an unambiguous, length-prefixed serialization of the key material and hashes it. */
+    private static final class Fingerprint {
+        private final MessageDigest digest;
+        private final StringBuilder material = new StringBuilder();
+        private final boolean lines;
+
+        Fingerprint(String kind, String classBaseName, Backend backend, CompilerOptions options) {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException("SHA-256 is not available", ex);
+            }
+            string(kind);
+            string(ProgramCompiler.COMPILER_VERSION);
+            string(Runtime.version().feature() + "");
+            string(BuiltinRegistry.fingerprint());
+            string(backend.name());
+            string(options.fingerprint());
+            string(classBaseName);
+            lines = options.instrumented();
+        }
+
+        void string(String value) {
+            material.append(value.length()).append(':').append(value);
+        }
+
+        /** Hashes {@code value} straight from the buffer rather than through the material. */
+        void bytes(ByteBuffer value) {
+            material.append('B').append(value.remaining()).append(':');
+            flush();
+            digest.update(value.duplicate());
+        }
+
+        void program(Program program) {
+            material.append('D').append(program.definitions().size());
+            for (Definition definition : program.definitions()) {
+                string(definition.name());
+                string(definition.parameter());
+                expression(definition.body());
+            }
+            expression(program.expression());
+        }
+
+        private void expression(Expression expression) {
+            if (expression instanceof Pipeline pipeline) {
+                material.append('P').append(pipeline.terms().size());
+                for (Term term : pipeline.terms()) {
+                    term(term);
+                }
+                return;
+            }
+            throw new IllegalStateException("Unsupported expression type: " + expression.getClass());
+        }
+
+        private void term(Term term) {
+            if (lines) {
+                material.append('L').append(term.line());
+            }
+            if (term instanceof Identifier identifier) {
+                material.append('I');
+                string(identifier.name());
+            } else if (term instanceof StringLiteral literal) {
+                material.append('S');
+                string(literal.value());
+            } else if (term instanceof Call call) {
+                material.append('C');
+                string(call.target());
+                material.append(call.arguments().size());
+                for (Term argument : call.arguments()) {
+                    term(argument);
+                }
+            } else if (term instanceof Group group) {
+                material.append('G').append(group.expressions().size());
+                for (Expression expression : group.expressions()) {
+                    expression(expression);
+                }
+            } else {
+                throw new IllegalStateException("Unhandled term: " + term);
+            }
+        }
+
+        private void flush() {
+            digest.update(material.toString().getBytes(StandardCharsets.UTF_8));
+            material.setLength(0);
+        }
+
+        String finish() {
+            flush();
+            return HexFormat.of().formatHex(digest.digest());
+        }
+    }
+}
@@ -1,5 +1,80 @@
 package nalgae.compiler;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
 
-public record CompiledProgram(String className, byte[] bytecode, Path classFile, Path classesDirectory) {}
+/**
+ * Result of compiling a program. The bytecode is always held in memory; the class file and
+ * classes directory are only present once the program has been written out with
+ * {@link #writeTo(Path)}.
+ *
+ * <p>Large programs are split over several classes. {@code bytecode} is then the class with the
+ * entry points, and {@code companions} holds the classes its definitions live in, by name.
+ */
+public record CompiledProgram(String className, byte[] bytecode, Map<String, byte[]> companions, Optional<Path> classFile, Optional<Path> classesDirectory) {
+    public CompiledProgram {
+        companions = Map.copyOf(companions);
+    }
+
+    public CompiledProgram(String className, byte[] bytecode) {
+        this(className, bytecode, Map.of());
+    }
+
+    public CompiledProgram(String className, byte[] bytecode, Map<String, byte[]> companions) {
+        this(className, bytecode, companions, Optional.empty(), Optional.empty());
+    }
+
+    /** Counts the methods declared in the class file, including constructors and initializers. */
+    public int methodCount() {
+        ByteBuffer in = ByteBuffer.wrap(bytecode);
+        in.position(8);
+        int poolCount = in.getShort() & 0xFFFF;
+        for (int i = 1; i < poolCount; i++) {
+            int tag = in.get();
+            switch (tag) {
+                case 1 -> {
+                    int length = in.getShort() & 0xFFFF;
+                    in.position(in.position() + length);
+                }
+                case 7, 8, 16, 19, 20 -> in.position(in.position() + 2);
+                case 15 -> in.position(in.position() + 3);
+                case 3, 4, 9, 10, 11, 12, 17, 18 -> in.position(in.position() + 4);
+                case 5, 6 -> {
+                    in.position(in.position() + 8);
+                    i++;
+                }
+                default -> throw new IllegalStateException("Unknown constant pool tag " + tag + " in " + className);
+            }
+        }
+        in.position(in.position() + 6);
+        int interfaceCount = in.getShort() & 0xFFFF;
+        in.position(in.position() + 2 * interfaceCount);
+        int fieldCount = in.getShort() & 0xFFFF;
+        for (int i = 0; i < fieldCount; i++) {
+            in.position(in.position() + 6);
+            int attributeCount = in.getShort() & 0xFFFF;
+            for (int j = 0; j < attributeCount; j++) {
+                in.position(in.position() + 2);
+                int length = in.getInt();
+                in.position(in.position() + length);
+            }
+        }
+        return in.getShort() & 0xFFFF;
+    }
+
+    public CompiledProgram writeTo(Path classesDirectory) throws IOException {
+        Path classFile = classesDirectory.resolve(className.replace('.', '/') + ".class");
+        Files.createDirectories(classFile.getParent());
+        Files.write(classFile, bytecode);
+        for (Map.Entry<String, byte[]> companion : companions.entrySet()) {
+            Path companionFile = classesDirectory.resolve(companion.getKey().replace('.', '/') + ".class");
+            Files.createDirectories(companionFile.getParent());
+            Files.write(companionFile, companion.getValue());
+        }
+        return new CompiledProgram(className, bytecode, companions, Optional.of(classFile), Optional.of(classesDirectory));
+    }
+}
@@ -0,0 +1,30 @@
+package nalgae.compiler;
+
+/**
+ * Code generation settings besides the {@link Backend}. They change the generated class, so
+ * they are part of every cache key.
+ *
+ * @param streaming also generate {@code runTo(AsciiString, AsciiSink)}, which writes the output
+ *     to a sink piece by piece instead of returning it
+ * @param memoization definitions whose results are cached across calls
+ * @param instrumented count the calls, time and bytes of every stage in a
+ *     {@link nalgae.runtime.StageCounter}; classes compiled without it carry no counting code
+ */
+public record CompilerOptions(boolean streaming, Memoization memoization, boolean instrumented) {
+    public static final CompilerOptions DEFAULT = new CompilerOptions(false, Memoization.NONE, false);
+
+    public CompilerOptions {
+        if (streaming && instrumented) {
+            throw new IllegalArgumentException("Instrumented programs cannot stream their output");
+        }
+    }
+
+    public CompilerOptions(boolean streaming, Memoization memoization) {
+        this(streaming, memoization, false);
+    }
+
+    /** Describes the options in a stable form for cache keys. */
+    String fingerprint() {
+        return "streaming=" + streaming + " memoize=" + memoization.fingerprint() + " instrumented=" + instrumented;
+    }
+}
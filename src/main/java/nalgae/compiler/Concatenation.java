@@ -0,0 +1,102 @@
+package nalgae.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import nalgae.ast.Call;
+import nalgae.ast.Group;
+import nalgae.ast.Term;
+
+/**
+ * Shared planning for fused string building. A pipeline that ends in {@code append},
+ * {@code prepend} and {@code wrap} steps, and a group, both produce a value that is just its
+ * pieces laid end to end; the code generators evaluate the pieces in source order and copy them
+ * once into a builder sized to fit, instead of materializing every intermediate value.
+ */
+final class Concatenation {
+    private Concatenation() {}
+
+    /**
+     * A piece of a fused value: text known at compile time, or a value computed at run time and
+     * held in a backend-specific location such as a variable name or a local slot.
+     */
+    record Part<V>(String constant, V value) {
+        static <V> Part<V> constant(String text) {
+            return new Part<>(text, null);
+        }
+
+        static <V> Part<V> value(V value) {
+            return new Part<>(null, value);
+        }
+
+        boolean isConstant() {
+            return constant != null;
+        }
+    }
+
+    /** Joins adjacent constant pieces and drops empty ones. */
+    static <V> List<Part<V>> merge(List<Part<V>> parts) {
+        List<Part<V>> merged = new ArrayList<>();
+        StringBuilder pending = new StringBuilder();
+        for (Part<V> part : parts) {
+            if (part.isConstant()) {
+                pending.append(part.constant());
+                continue;
+            }
+            if (!pending.isEmpty()) {
+                merged.add(Part.constant(pending.toString()));
+                pending.setLength(0);
+            }
+            merged.add(part);
+        }
+        if (!pending.isEmpty()) {
+            merged.add(Part.constant(pending.toString()));
+        }
+        return merged;
+    }
+
+    static int constantLength(List<? extends Part<?>> parts) {
+        int length = 0;
+        for (Part<?> part : parts) {
+            if (part.isConstant()) {
+                length += part.constant().length();
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Returns where the trailing run of concatenation steps of a pipeline starts, or the
+     * pipeline's length if it has none. The first term is never part of the run.
+     */
+    static int runStart(List<Term> terms) {
+        int start = terms.size();
+        while (start > 1 && isConcatStep(terms.get(start - 1))) {
+            start--;
+        }
+        return start;
+    }
+
+    /** Whether a step is a well-formed {@code append}, {@code prepend} or {@code wrap} call. */
+    static boolean isConcatStep(Term term) {
+        if (!(term instanceof Call call)) {
+            return false;
+        }
+        int arguments = switch (call.target()) {
+            case "append", "prepend" -> 1;
+            case "wrap" -> 2;
+            default -> -1;
+        };
+        BuiltinRegistry.Descriptor builtin = BuiltinRegistry.find(call.target());
+        return builtin != null && builtin.argCount == arguments && call.arguments().size() == arguments;
+    }
+
+    /**
+     * Whether building a pipeline from its pieces saves an intermediate value: it ends in two or
+     * more concatenation steps, or in one applied to a group.
+     */
+    static boolean isFusible(List<Term> terms) {
+        int run = runStart(terms);
+        int steps = terms.size() - run;
+        return steps >= 2 || (steps == 1 && terms.get(run - 1) instanceof Group);
+    }
+}
@@ -0,0 +1,41 @@
+package nalgae.compiler;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Defines compiled programs straight from their in-memory bytecode. The companion classes of a
+ * split program are defined lazily, when the main class first refers to them.
+ */
+public final class GeneratedClassLoader extends ClassLoader {
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final Map<String, byte[]> pending = new ConcurrentHashMap<>();
+
+    public GeneratedClassLoader(ClassLoader parent) {
+        super(parent);
+    }
+
+    public Class<?> define(CompiledProgram compiled) {
+        pending.putAll(compiled.companions());
+        synchronized (getClassLoadingLock(compiled.className())) {
+            Class<?> existing = findLoadedClass(compiled.className());
+            if (existing != null) {
+                return existing;
+            }
+            byte[] bytecode = compiled.bytecode();
+            return defineClass(compiled.className(), bytecode, 0, bytecode.length);
+        }
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        byte[] bytecode = pending.get(name);
+        if (bytecode == null) {
+            throw new ClassNotFoundException(name);
+        }
+        return defineClass(name, bytecode, 0, bytecode.length);
+    }
+}
@@ -0,0 +1,268 @@
+package nalgae.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import nalgae.ast.*;
+import nalgae.runtime.Builtins;
+
+/**
+ * Runs programs without generating a class. The AST is translated once into a tree of closures
+ * that call {@link Builtins} directly, so a program is ready as soon as it is parsed.
+ *
+ * <p>The translation performs the same checks, in the same order and with the same messages, as
+ * {@link ProgramCompiler}, so a program is rejected by both tiers or by neither.
+ */
+public final class Interpreter {
+    private final Program program;
+
+    public Interpreter(Program program) {
+        this.program = program;
+    }
+
+    /** Evaluates an expression with the current binding of the scope's parameter. */
+    @FunctionalInterface
+    private interface Value {
+        String eval(String parameter);
+    }
+
+    /** Transforms the pipeline value flowing into a step. */
+    @FunctionalInterface
+    private interface Step {
+        String apply(String current, String parameter);
+    }
+
+    public Function<String, String> prepare() {
+        Map<String, Definition> definitionMap = new HashMap<>();
+        for (Definition def : program.definitions()) {
+            definitionMap.put(def.name(), def);
+        }
+        Map<String, Value[]> bodies = new HashMap<>();
+        for (Definition def : program.definitions()) {
+            bodies.put(def.name(), new Value[1]);
+        }
+        for (Definition definition : program.definitions()) {
+            Scope scope = new Scope(definition.parameter(), definitionMap, bodies);
+            bodies.get(definition.name())[0] = compileExpression(definition.body(), scope);
+        }
+        Value top = compileExpression(program.expression(), new Scope("it", definitionMap, bodies));
+        return new InterpretedProgram(top);
+    }
+
+    private static final class InterpretedProgram implements Function<String, String> {
+        private final Value body;
+
+        InterpretedProgram(Value body) {
+            this.body = body;
+        }
+
+        @Override
+        public String apply(String input) {
+            return body.eval(Builtins.requireAscii(input));
+        }
+    }
+
+    private Value compileExpression(Expression expression, Scope scope) {
+        if (expression instanceof Pipeline pipeline) {
+            return compilePipeline(pipeline, scope);
+        }
+        throw new IllegalStateException("Unsupported expression type: " + expression.getClass());
+    }
+
+    private Value compilePipeline(Pipeline pipeline, Scope scope) {
+        if (pipeline.terms().isEmpty()) {
+            throw new IllegalArgumentException("Empty pipeline at line " + pipeline.line());
+        }
+        Value first = compileValueTerm(pipeline.terms().get(0), scope);
+        int count = pipeline.terms().size() - 1;
+        if (count == 0) {
+            return first;
+        }
+        Step[] steps = new Step[count];
+        for (int i = 0; i < count; i++) {
+            steps[i] = compilePipelineStep(pipeline.terms().get(i + 1), scope);
+        }
+        if (count == 1) {
+            Step step = steps[0];
+            return parameter -> step.apply(first.eval(parameter), parameter);
+        }
+        return parameter -> {
+            String current = first.eval(parameter);
+            for (Step step : steps) {
+                current = step.apply(current, parameter);
+            }
+            return current;
+        };
+    }
+
+    private Value compileValueTerm(Term term, Scope scope) {
+        if (term instanceof Identifier identifier) {
+            if (identifier.name().equals(scope.parameterName())) {
+                return parameter -> parameter;
+            }
+            throw error(term.line(), "Unknown identifier '" + identifier.name() + "' in value context");
+        }
+        if (term instanceof StringLiteral literal) {
+            String value = ProgramCompiler.literalValue(literal);
+            return parameter -> value;
+        }
+        if (term instanceof Call call) {
+            return compileValueCall(call, scope);
+        }
+        if (term instanceof Group group) {
+            return compileGroup(group, scope);
+        }
+        throw new IllegalStateException("Unhandled term: " + term);
+    }
+
+    private Value compileValueCall(Call call, Scope scope) {
+        if (call.target().equals(BuiltinRegistry.EACH_LINE)) {
+            Value[] body = eachLineBody(call, 1, scope);
+            Value input = compileValueTerm(call.arguments().get(0), scope);
+            return parameter -> Builtins.eachLine(input.eval(parameter), line -> body[0].eval(line));
+        }
+        BuiltinRegistry.Descriptor builtin = BuiltinRegistry.find(call.target());
+        if (builtin != null) {
+            if (call.arguments().size() != builtin.argCount + 1) {
+                throw error(call.line(), "Builtin '" + call.target() + "' expects " + (builtin.argCount + 1) + " arguments in value context");
+            }
+            List<Value> args = new ArrayList<>();
+            for (Term arg : call.arguments()) {
+                args.add(compileValueTerm(arg, scope));
+            }
+            Step step = invoke(builtin, args.subList(1, args.size()));
+            Value input = args.get(0);
+            return parameter -> step.apply(input.eval(parameter), parameter);
+        }
+        Definition definition = scope.definitions().get(call.target());
+        if (definition != null) {
+            if (call.arguments().size() != 1) {
+                throw error(call.line(), "Function '" + call.target() + "' expects exactly one argument");
+            }
+            Value argument = compileValueTerm(call.arguments().get(0), scope);
+            Value[] body = scope.bodies().get(call.target());
+            return parameter -> body[0].eval(argument.eval(parameter));
+        }
+        throw error(call.line(), "Unknown function '" + call.target() + "'");
+    }
+
+    private Step compilePipelineStep(Term term, Scope scope) {
+        if (term instanceof Identifier identifier) {
+            if (identifier.name().equals(scope.parameterName())) {
+                throw error(term.line(), "Cannot call parameter '" + identifier.name() + "' as a function");
+            }
+            if (identifier.name().equals(BuiltinRegistry.EACH_LINE)) {
+                throw error(term.line(), "Stage 'each_line' expects a definition name in pipeline context");
+            }
+            BuiltinRegistry.Descriptor builtin = BuiltinRegistry.find(identifier.name());
+            if (builtin != null) {
+                if (builtin.argCount != 0) {
+                    throw error(term.line(), "Builtin '" + identifier.name() + "' requires arguments");
+                }
+                return invoke(builtin, List.of());
+            }
+            Definition definition = scope.definitions().get(identifier.name());
+            if (definition != null) {
+                Value[] body = scope.bodies().get(identifier.name());
+                return (current, parameter) -> body[0].eval(current);
+            }
+            throw error(term.line(), "Unknown function '" + identifier.name() + "'");
+        }
+        if (term instanceof StringLiteral literal) {
+            String value = ProgramCompiler.literalValue(literal);
+            return (current, parameter) -> value;
+        }
+        if (term instanceof Call call) {
+            return compilePipelineCall(call, scope);
+        }
+        if (term instanceof Group group) {
+            Value body = compileGroup(group, scope);
+            return (current, parameter) -> body.eval(current);
+        }
+        throw new IllegalStateException("Unhandled term: " + term);
+    }
+
+    private Value compileGroup(Group group, Scope scope) {
+        if (group.expressions().isEmpty()) {
+            return parameter -> "";
+        }
+        Value[] sections = new Value[group.expressions().size()];
+        for (int i = 0; i < sections.length; i++) {
+            sections[i] = compileExpression(group.expressions().get(i), scope);
+        }
+        return parameter -> {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < sections.length; i++) {
+                if (i > 0) {
+                    sb.append('\n');
+                }
+                sb.append(sections[i].eval(parameter));
+            }
+            return sb.toString();
+        };
+    }
+
+    private Step compilePipelineCall(Call call, Scope scope) {
+        if (call.target().equals(BuiltinRegistry.EACH_LINE)) {
+            Value[] body = eachLineBody(call, 0, scope);
+            return (current, parameter) -> Builtins.eachLine(current, line -> body[0].eval(line));
+        }
+        BuiltinRegistry.Descriptor builtin = BuiltinRegistry.find(call.target());
+        if (builtin != null) {
+            if (call.arguments().size() != builtin.argCount) {
+                throw error(call.line(), "Builtin '" + call.target() + "' expects " + builtin.argCount + " argument(s) in pipeline context");
+            }
+            List<Value> args = new ArrayList<>();
+            for (Term arg : call.arguments()) {
+                args.add(compileValueTerm(arg, scope));
+            }
+            return invoke(builtin, args);
+        }
+        Definition definition = scope.definitions().get(call.target());
+        if (definition != null) {
+            if (!call.arguments().isEmpty()) {
+                throw error(call.line(), "User function '" + call.target() + "' does not accept additional arguments in pipeline");
+            }
+            Value[] body = scope.bodies().get(call.target());
+            return (current, parameter) -> body[0].eval(current);
+        }
+        throw error(call.line(), "Unknown function '" + call.target() + "'");
+    }
+
+    /** Returns the body of the definition an {@code each_line} call applies to every line. */
+    private Value[] eachLineBody(Call call, int values, Scope scope) {
+        String name = BuiltinRegistry.eachLineTarget(call, values);
+        if (name == null) {
+            throw error(call.line(), values == 0
+                ? "Stage 'each_line' expects a definition name in pipeline context"
+                : "Stage 'each_line' expects a value and a definition name in value context");
+        }
+        if (!scope.definitions().containsKey(name)) {
+            throw error(call.line(), "Unknown function '" + name + "'");
+        }
+        return scope.bodies().get(name);
+    }
+
+    /** Binds a builtin to its extra arguments; the pipeline value is passed as the first one. */
+    private static Step invoke(BuiltinRegistry.Descriptor builtin, List<Value> args) {
+        if (builtin.implementation instanceof BuiltinRegistry.Unary unary) {
+            return (current, parameter) -> unary.apply(current);
+        }
+        if (builtin.implementation instanceof BuiltinRegistry.Binary binary) {
+            Value first = args.get(0);
+            return (current, parameter) -> binary.apply(current, first.eval(parameter));
+        }
+        BuiltinRegistry.Ternary ternary = (BuiltinRegistry.Ternary) builtin.implementation;
+        Value first = args.get(0);
+        Value second = args.get(1);
+        return (current, parameter) -> ternary.apply(current, first.eval(parameter), second.eval(parameter));
+    }
+
+    private RuntimeException error(int line, String message) {
+        return new RuntimeException("[line " + line + "] " + message);
+    }
+
+    private record Scope(String parameterName, Map<String, Definition> definitions, Map<String, Value[]> bodies) {}
+}
@@ -0,0 +1,43 @@
+package nalgae.compiler;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Which definitions compile to a lookup in a {@link nalgae.runtime.MemoCache} before their body
+ * runs, and how large each definition's cache may grow. Definitions are pure, so a cached result
+ * is always the one the body would compute.
+ *
+ * @param all memoize every definition of the program
+ * @param definitions names of the definitions to memoize when {@code all} is not set
+ * @param maxEntries most results kept per definition
+ * @param maxBytes estimated memory that each definition's cached arguments and results may retain
+ */
+public record Memoization(boolean all, Set<String> definitions, int maxEntries, long maxBytes) {
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+    public static final Memoization NONE = new Memoization(false, Set.of(), DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+
+    public Memoization {
+        definitions = Set.copyOf(definitions);
+        if (maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Memoization limits must be positive");
+        }
+    }
+
+    public boolean isEnabled() {
+        return all || !definitions.isEmpty();
+    }
+
+    public boolean applies(String definition) {
+        return all || definitions.contains(definition);
+    }
+
+    String fingerprint() {
+        if (!isEnabled()) {
+            return "none";
+        }
+        String names = all ? "*" : String.join(",", new TreeSet<>(definitions));
+        return names + " entries=" + maxEntries + " bytes=" + maxBytes;
+    }
+}
@@ -0,0 +1,544 @@
+package nalgae.compiler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import nalgae.ast.*;
+
+/**
+ * Optimizing passes that {@link ProgramCompiler} runs on a program after constant folding.
+ *
+ * <p>Small definitions that do not recurse are inlined at their call sites. Stages whose value a
+ * later {@code const}, literal or group step ignores are dropped when they always complete.
+ * Definitions that are no longer called are removed. Each pass only rewrites code that compiles:
+ * a definition with an error is kept as it is, so the compilers report the same errors in the
+ * same order. Memoized definitions are neither inlined nor removed, and instrumented programs keep
+ * every call so that it is counted under its own name. Shared sub-expressions are left to the
+ * code generators, which number values with {@link ValueNumbering}.
+ */
+final class MiddleEnd {
+    /** Largest definition body, counted in terms, that is copied into its callers. */
+    static final int INLINE_LIMIT = 16;
+
+    private final Program program;
+    private final Memoization memoization;
+    private final boolean inlining;
+    private final Map<String, Definition> definitions = new HashMap<>();
+    private final Set<String> valid = new HashSet<>();
+    private final Set<String> terminating = new HashSet<>();
+    private final Map<String, Pipeline> inlinable = new HashMap<>();
+    private int inlinedCalls;
+    private int droppedStages;
+    private int removedDefinitions;
+
+    MiddleEnd(Program program, CompilerOptions options) {
+        this.program = program;
+        this.memoization = options.memoization();
+        this.inlining = !options.instrumented();
+    }
+
+    Program optimize() {
+        for (Definition definition : program.definitions()) {
+            if (definitions.put(definition.name(), definition) != null) {
+                // A program that defines a name twice does not compile; leave it to fail as it is.
+                return program;
+            }
+        }
+        for (Definition definition : program.definitions()) {
+            if (isValidExpression(definition.body(), definition.parameter(), false)) {
+                valid.add(definition.name());
+            }
+        }
+        Set<String> recursive = classifyCalls();
+
+        Map<String, Expression> bodies = new HashMap<>();
+        for (String name : calleesFirst()) {
+            Definition definition = definitions.get(name);
+            Expression body = rewrite(definition.body(), definition.parameter());
+            bodies.put(name, body);
+            if (inlining
+                && valid.contains(name)
+                && !recursive.contains(name)
+                && !memoization.applies(name)
+                && body instanceof Pipeline pipeline
+                && size(pipeline) <= INLINE_LIMIT) {
+                inlinable.put(name, pipeline);
+            }
+        }
+        Expression expression = rewrite(program.expression(), "it");
+
+        Set<String> reachable = reachable(expression, bodies);
+        List<Definition> kept = new ArrayList<>();
+        for (Definition definition : program.definitions()) {
+            String name = definition.name();
+            if (!reachable.contains(name) && valid.contains(name) && !memoization.applies(name)) {
+                removedDefinitions++;
+                continue;
+            }
+            kept.add(new Definition(name, definition.parameter(), bodies.get(name), definition.line()));
+        }
+        return new Program(kept, expression);
+    }
+
+    /** Whether every definition and the main expression compile, so the program can be split freely. */
+    boolean isValid() {
+        return valid.size() == program.definitions().size() && isValidExpression(program.expression(), "it", false);
+    }
+
+    OptimizationStats statistics(int sharedValues) {
+        return new OptimizationStats(inlinedCalls, droppedStages, removedDefinitions, sharedValues);
+    }
+
+    /**
+     * Fills {@link #terminating} with the valid definitions that only reach valid, non-recursive
+     * definitions, and returns the definitions that can call themselves.
+     */
+    private Set<String> classifyCalls() {
+        Map<String, Set<String>> reaches = new HashMap<>();
+        Set<String> recursive = new HashSet<>();
+        for (String name : definitions.keySet()) {
+            Deque<String> pending = new ArrayDeque<>(callees(name));
+            Set<String> seen = new HashSet<>();
+            while (!pending.isEmpty()) {
+                String callee = pending.removeFirst();
+                if (seen.add(callee)) {
+                    pending.addAll(callees(callee));
+                }
+            }
+            reaches.put(name, seen);
+            if (seen.contains(name)) {
+                recursive.add(name);
+            }
+        }
+        for (Map.Entry<String, Set<String>> entry : reaches.entrySet()) {
+            String name = entry.getKey();
+            if (valid.contains(name) && !recursive.contains(name) && valid.containsAll(entry.getValue())) {
+                terminating.add(name);
+            }
+        }
+        return recursive;
+    }
+
+    private Set<String> callees(String name) {
+        Definition definition = definitions.get(name);
+        Set<String> names = new LinkedHashSet<>();
+        collectCalls(definition.body(), definition.parameter(), names);
+        names.retainAll(definitions.keySet());
+        return names;
+    }
+
+    /** Orders the definitions so that, outside of cycles, every callee precedes its callers. */
+    private List<String> calleesFirst() {
+        List<String> order = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        for (Definition definition : program.definitions()) {
+            visit(definition.name(), visited, order);
+        }
+        return order;
+    }
+
+    private void visit(String name, Set<String> visited, List<String> order) {
+        if (!visited.add(name)) {
+            return;
+        }
+        for (String callee : callees(name)) {
+            visit(callee, visited, order);
+        }
+        order.add(name);
+    }
+
+    private Set<String> reachable(Expression expression, Map<String, Expression> bodies) {
+        Set<String> reached = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        Set<String> roots = new LinkedHashSet<>();
+        collectCalls(expression, "it", roots);
+        for (Definition definition : program.definitions()) {
+            if (!valid.contains(definition.name()) || memoization.applies(definition.name())) {
+                roots.add(definition.name());
+            }
+        }
+        pending.addAll(roots);
+        while (!pending.isEmpty()) {
+            String name = pending.removeFirst();
+            Definition definition = definitions.get(name);
+            if (definition == null || !reached.add(name)) {
+                continue;
+            }
+            Set<String> names = new LinkedHashSet<>();
+            collectCalls(bodies.get(name), definition.parameter(), names);
+            pending.addAll(names);
+        }
+        return reached;
+    }
+
+    private Expression rewrite(Expression expression, String parameterName) {
+        if (!(expression instanceof Pipeline pipeline) || pipeline.terms().isEmpty()) {
+            return expression;
+        }
+        List<Term> source = pipeline.terms();
+        List<Term> terms = new ArrayList<>();
+        Term first = source.get(0);
+        Pipeline body = valueCallee(first, parameterName);
+        if (body != null) {
+            terms.add(rewriteValue(((Call) first).arguments().get(0), parameterName));
+            inline(body, definitionOf(first), parameterName, first.line(), terms);
+        } else {
+            terms.add(rewriteValue(first, parameterName));
+        }
+        for (Term step : source.subList(1, source.size())) {
+            body = stepCallee(step, parameterName);
+            if (body != null) {
+                inline(body, definitionOf(step), parameterName, step.line(), terms);
+            } else {
+                terms.add(rewriteStep(step, parameterName));
+            }
+        }
+        dropIgnoredStages(terms, parameterName);
+        return new Pipeline(terms, pipeline.line());
+    }
+
+    private Term rewriteValue(Term term, String parameterName) {
+        Pipeline body = valueCallee(term, parameterName);
+        if (body != null) {
+            List<Term> terms = new ArrayList<>();
+            terms.add(rewriteValue(((Call) term).arguments().get(0), parameterName));
+            inline(body, definitionOf(term), parameterName, term.line(), terms);
+            return new Group(List.of(new Pipeline(terms, term.line())), term.line());
+        }
+        if (term instanceof Call call) {
+            List<Term> arguments = new ArrayList<>();
+            for (Term argument : call.arguments()) {
+                arguments.add(rewriteValue(argument, parameterName));
+            }
+            return new Call(call.target(), arguments, call.line());
+        }
+        if (term instanceof Group group) {
+            return rewriteGroup(group, parameterName);
+        }
+        return term;
+    }
+
+    private Term rewriteStep(Term term, String parameterName) {
+        if (term instanceof Call call) {
+            List<Term> arguments = new ArrayList<>();
+            for (Term argument : call.arguments()) {
+                arguments.add(rewriteValue(argument, parameterName));
+            }
+            return new Call(call.target(), arguments, call.line());
+        }
+        if (term instanceof Group group) {
+            return rewriteGroup(group, parameterName);
+        }
+        return term;
+    }
+
+    private Group rewriteGroup(Group group, String parameterName) {
+        List<Expression> sections = new ArrayList<>();
+        for (Expression section : group.expressions()) {
+            sections.add(rewrite(section, parameterName));
+        }
+        return new Group(sections, group.line());
+    }
+
+    /**
+     * Appends the steps of an inlined body applied to the pipeline value. A body that starts from
+     * its parameter and does not use it again is spliced in directly; any other body becomes a
+     * group step, which binds the parameter to the pipeline value.
+     */
+    private void inline(Pipeline body, Definition definition, String parameterName, int line, List<Term> terms) {
+        inlinedCalls++;
+        Pipeline renamed = definition.parameter().equals(parameterName)
+            ? body
+            : (Pipeline) rename(body, definition.parameter(), parameterName);
+        List<Term> steps = renamed.terms().subList(1, renamed.terms().size());
+        if (renamed.terms().get(0) instanceof Identifier identifier
+            && identifier.name().equals(parameterName)
+            && steps.stream().noneMatch(step -> mentions(step, parameterName))) {
+            terms.addAll(steps);
+            return;
+        }
+        terms.add(new Group(List.of(renamed), line));
+    }
+
+    /** Returns the body to inline for a value-context call {@code f arg}, or null. */
+    private Pipeline valueCallee(Term term, String parameterName) {
+        if (!(term instanceof Call call) || call.arguments().size() != 1 || BuiltinRegistry.isReserved(call.target())) {
+            return null;
+        }
+        return inlinableAt(call.target(), parameterName);
+    }
+
+    /** Returns the body to inline for a step that calls a definition, or null. */
+    private Pipeline stepCallee(Term term, String parameterName) {
+        String name;
+        if (term instanceof Identifier identifier && !identifier.name().equals(parameterName)) {
+            name = identifier.name();
+        } else if (term instanceof Call call && call.arguments().isEmpty()) {
+            name = call.target();
+        } else {
+            return null;
+        }
+        return BuiltinRegistry.isReserved(name) ? null : inlinableAt(name, parameterName);
+    }
+
+    private Pipeline inlinableAt(String name, String parameterName) {
+        Pipeline body = inlinable.get(name);
+        if (body == null) {
+            return null;
+        }
+        // Renaming the parameter must not capture a function of the same name.
+        String parameter = definitions.get(name).parameter();
+        return parameter.equals(parameterName) || !mentions(body, parameterName) ? body : null;
+    }
+
+    private Definition definitionOf(Term term) {
+        return definitions.get(term instanceof Call call ? call.target() : ((Identifier) term).name());
+    }
+
+    /**
+     * Replaces everything before the last step that ignores its input with that step's value,
+     * when every dropped stage is valid and always completes.
+     */
+    private void dropIgnoredStages(List<Term> terms, String parameterName) {
+        for (int last = terms.size() - 1; last > 0; last--) {
+            Term replacement = ignoringInput(terms.get(last), parameterName);
+            if (replacement == null) {
+                continue;
+            }
+            if (!isValidValue(terms.get(0), parameterName, true)) {
+                return;
+            }
+            for (int i = 1; i < last; i++) {
+                if (!isValidStep(terms.get(i), parameterName, true)) {
+                    return;
+                }
+            }
+            droppedStages += last;
+            terms.subList(0, last + 1).clear();
+            terms.add(0, replacement);
+            return;
+        }
+    }
+
+    /** Returns the value term equivalent to a step that ignores its input, or null. */
+    private static Term ignoringInput(Term step, String parameterName) {
+        if (step instanceof StringLiteral) {
+            return step;
+        }
+        if (step instanceof Call call && call.arguments().size() == 1) {
+            BuiltinRegistry.Descriptor builtin = BuiltinRegistry.find(call.target());
+            if (builtin != null && builtin.methodName.equals("constValue") && builtin.argCount == 1) {
+                return call.arguments().get(0);
+            }
+        }
+        if (step instanceof Group group && !mentions(group, parameterName)) {
+            return group;
+        }
+        return null;
+    }
+
+    /**
+     * Whether an expression compiles without errors, mirroring the checks of the code generators.
+     * With {@code complete}, it must also only call definitions that always complete.
+     */
+    private boolean isValidExpression(Expression expression, String parameterName, boolean complete) {
+        if (!(expression instanceof Pipeline pipeline) || pipeline.terms().isEmpty()) {
+            return false;
+        }
+        if (!isValidValue(pipeline.terms().get(0), parameterName, complete)) {
+            return false;
+        }
+        for (Term step : pipeline.terms().subList(1, pipeline.terms().size())) {
+            if (!isValidStep(step, parameterName, complete)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isValidValue(Term term, String parameterName, boolean complete) {
+        if (term instanceof Identifier identifier) {
+            return identifier.name().equals(parameterName);
+        }
+        if (term instanceof StringLiteral literal) {
+            return isAscii(literal);
+        }
+        if (term instanceof Group group) {
+            return isValidGroup(group, parameterName, complete);
+        }
+        Call call = (Call) term;
+        if (call.target().equals(BuiltinRegistry.EACH_LINE)) {
+            String name = BuiltinRegistry.eachLineTarget(call, 1);
+            return name != null && isCallable(name, complete) && isValidValue(call.arguments().get(0), parameterName, complete);
+        }
+        BuiltinRegistry.Descriptor builtin = BuiltinRegistry.find(call.target());
+        int expected = builtin != null ? builtin.argCount + 1 : 1;
+        if (call.arguments().size() != expected || (builtin == null && !isCallable(call.target(), complete))) {
+            return false;
+        }
+        for (Term argument : call.arguments()) {
+            if (!isValidValue(argument, parameterName, complete)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isValidStep(Term term, String parameterName, boolean complete) {
+        if (term instanceof StringLiteral literal) {
+            return isAscii(literal);
+        }
+        if (term instanceof Group group) {
+            return isValidGroup(group, parameterName, complete);
+        }
+        String target = term instanceof Call call ? call.target() : ((Identifier) term).name();
+        List<Term> arguments = term instanceof Call call ? call.arguments() : List.of();
+        if (term instanceof Identifier && target.equals(parameterName)) {
+            return false;
+        }
+        if (target.equals(BuiltinRegistry.EACH_LINE)) {
+            String name = term instanceof Call call ? BuiltinRegistry.eachLineTarget(call, 0) : null;
+            return name != null && isCallable(name, complete);
+        }
+        BuiltinRegistry.Descriptor builtin = BuiltinRegistry.find(target);
+        if (builtin == null) {
+            return arguments.isEmpty() && isCallable(target, complete);
+        }
+        if (arguments.size() != builtin.argCount) {
+            return false;
+        }
+        for (Term argument : arguments) {
+            if (!isValidValue(argument, parameterName, complete)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isValidGroup(Group group, String parameterName, boolean complete) {
+        for (Expression section : group.expressions()) {
+            if (!isValidExpression(section, parameterName, complete)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isCallable(String name, boolean complete) {
+        return complete ? terminating.contains(name) : definitions.containsKey(name);
+    }
+
+    private static boolean isAscii(StringLiteral literal) {
+        try {
+            ProgramCompiler.literalValue(literal);
+            return true;
+        } catch (RuntimeException ex) {
+            return false;
+        }
+    }
+
+    /** Collects the names a body may call as definitions, resolved as the code generators do. */
+    static void collectCalls(Expression expression, String parameterName, Set<String> names) {
+        if (!(expression instanceof Pipeline pipeline)) {
+            return;
+        }
+        for (int i = 0; i < pipeline.terms().size(); i++) {
+            Term term = pipeline.terms().get(i);
+            if (term instanceof Identifier identifier) {
+                if (i > 0 && !identifier.name().equals(parameterName) && !BuiltinRegistry.isReserved(identifier.name())) {
+                    names.add(identifier.name());
+                }
+            } else {
+                collectTermCalls(term, parameterName, names);
+            }
+        }
+    }
+
+    private static void collectTermCalls(Term term, String parameterName, Set<String> names) {
+        if (term instanceof Call call) {
+            if (call.target().equals(BuiltinRegistry.EACH_LINE)) {
+                // The last argument names the definition applied to each line.
+                if (!call.arguments().isEmpty() && call.arguments().get(call.arguments().size() - 1) instanceof Identifier name) {
+                    names.add(name.name());
+                }
+            } else if (BuiltinRegistry.find(call.target()) == null) {
+                names.add(call.target());
+            }
+            for (Term argument : call.arguments()) {
+                collectTermCalls(argument, parameterName, names);
+            }
+        } else if (term instanceof Group group) {
+            for (Expression section : group.expressions()) {
+                collectCalls(section, parameterName, names);
+            }
+        }
+    }
+
+    /** Whether a name appears anywhere in a term, as an identifier or a call target. */
+    private static boolean mentions(Object node, String name) {
+        if (node instanceof Pipeline pipeline) {
+            return pipeline.terms().stream().anyMatch(term -> mentions(term, name));
+        }
+        if (node instanceof Identifier identifier) {
+            return identifier.name().equals(name);
+        }
+        if (node instanceof Call call) {
+            return call.target().equals(name) || call.arguments().stream().anyMatch(argument -> mentions(argument, name));
+        }
+        if (node instanceof Group group) {
+            return group.expressions().stream().anyMatch(section -> mentions(section, name));
+        }
+        return false;
+    }
+
+    /** Renames identifiers; call targets, definitions and the name {@code each_line} applies are unaffected. */
+    private static Object rename(Object node, String from, String to) {
+        if (node instanceof Pipeline pipeline) {
+            List<Term> terms = new ArrayList<>();
+            for (Term term : pipeline.terms()) {
+                terms.add((Term) rename(term, from, to));
+            }
+            return new Pipeline(terms, pipeline.line());
+        }
+        if (node instanceof Identifier identifier) {
+            return identifier.name().equals(from) ? new Identifier(to, identifier.line()) : identifier;
+        }
+        if (node instanceof Call call) {
+            List<Term> arguments = new ArrayList<>();
+            for (Term argument : call.arguments()) {
+                arguments.add((Term) rename(argument, from, to));
+            }
+            if (call.target().equals(BuiltinRegistry.EACH_LINE) && !arguments.isEmpty()) {
+                arguments.set(arguments.size() - 1, call.arguments().get(arguments.size() - 1));
+            }
+            return new Call(call.target(), arguments, call.line());
+        }
+        if (node instanceof Group group) {
+            List<Expression> sections = new ArrayList<>();
+            for (Expression section : group.expressions()) {
+                sections.add((Expression) rename(section, from, to));
+            }
+            return new Group(sections, group.line());
+        }
+        return node;
+    }
+
+    private static int size(Object node) {
+        if (node instanceof Pipeline pipeline) {
+            return pipeline.terms().stream().mapToInt(MiddleEnd::size).sum();
+        }
+        if (node instanceof Call call) {
+            return 1 + call.arguments().stream().mapToInt(MiddleEnd::size).sum();
+        }
+        if (node instanceof Group group) {
+            return 1 + group.expressions().stream().mapToInt(MiddleEnd::size).sum();
+        }
+        return 1;
+    }
+}
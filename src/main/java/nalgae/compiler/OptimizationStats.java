@@ -0,0 +1,16 @@
+package nalgae.compiler;
+
+/**
+ * What the optimizing middle end and the code generators did to one program.
+ *
+ * @param inlinedCalls calls to definitions replaced by the definition's body
+ * @param droppedStages pipeline stages removed because a later stage ignores their value
+ * @param removedDefinitions definitions left without callers and not generated
+ * @param sharedValues repeated sub-expressions that reuse a value computed earlier in the method
+ */
+public record OptimizationStats(int inlinedCalls, int droppedStages, int removedDefinitions, int sharedValues) {
+    @Override
+    public String toString() {
+        return "inlined=" + inlinedCalls + " dropped=" + droppedStages + " removed=" + removedDefinitions + " shared=" + sharedValues;
+    }
+}
@@ -0,0 +1,495 @@
+package nalgae.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import nalgae.ast.*;
+
+/**
+ * Folds the constant parts of a program before it is compiled or interpreted.
+ *
+ * <p>Builtins are pure, so any builtin whose arguments are known is evaluated here, groups whose
+ * sections are all known become one literal, and calls to definitions are evaluated for known
+ * arguments. A definition that does not depend on its parameter folds to a literal, which the
+ * code generators hold in a {@code static final} field. A pipeline step that ignores its input
+ * replaces the steps before it only when those steps are valid and cannot fail, so every error
+ * the compilers report is still reported after folding.
+ */
+public final class Optimizer {
+    /** Longest literal produced by folding; javac rejects longer string constants. */
+    static final int MAX_LITERAL_LENGTH = 65535;
+    private static final int MAX_CALL_DEPTH = 64;
+    private static final int MAX_DESCRIPTION_LENGTH = 40;
+
+    private final Program program;
+    private final Map<String, Definition> definitions = new HashMap<>();
+    private final Map<String, String> evaluatedCalls = new HashMap<>();
+    private final Set<String> activeCalls = new HashSet<>();
+    private final List<String> folds = new ArrayList<>();
+
+    public Optimizer(Program program) {
+        this.program = program;
+        for (Definition definition : program.definitions()) {
+            definitions.put(definition.name(), definition);
+        }
+    }
+
+    public Program optimize() {
+        List<Definition> optimized = new ArrayList<>();
+        for (Definition definition : program.definitions()) {
+            Expression body = foldExpression(definition.body(), new Scope(definition.parameter(), null));
+            optimized.add(new Definition(definition.name(), definition.parameter(), body, definition.line()));
+        }
+        Expression expression = foldExpression(program.expression(), new Scope("it", null));
+        return new Program(optimized, expression);
+    }
+
+    /** Describes each folding performed by {@link #optimize}, in source order. */
+    public List<String> folds() {
+        return folds;
+    }
+
+    private Expression foldExpression(Expression expression, Scope scope) {
+        if (expression instanceof Pipeline pipeline && !pipeline.terms().isEmpty()) {
+            List<Term> terms = new ArrayList<>();
+            walkPipeline(pipeline, scope, terms);
+            return new Pipeline(terms, pipeline.line());
+        }
+        return expression;
+    }
+
+    private String evaluateExpression(Expression expression, Scope scope) {
+        if (expression instanceof Pipeline pipeline && !pipeline.terms().isEmpty()) {
+            return walkPipeline(pipeline, scope, null);
+        }
+        return null;
+    }
+
+    /**
+     * Evaluates a pipeline as far as possible and returns its value, or {@code null} if it is not
+     * constant. When {@code terms} is given, the folded pipeline is written to it.
+     */
+    private String walkPipeline(Pipeline pipeline, Scope scope, List<Term> terms) {
+        List<Term> source = pipeline.terms();
+        Term first = source.get(0);
+        String value = evaluateValue(first, scope);
+        boolean safe = value != null || isSafeValue(first, scope);
+        int runStart = 0;
+        if (terms != null) {
+            terms.add(value != null ? new StringLiteral(value, first.line()) : foldValue(first, scope));
+        }
+        for (int i = 1; i < source.size(); i++) {
+            Term step = source.get(i);
+            String result = evaluateStep(step, scope, value);
+            if (result != null && (value != null || safe)) {
+                if (value == null) {
+                    runStart = i;
+                    if (terms != null) {
+                        note(step.line(), "dropped " + describe(source.subList(0, i)) + ", ignored by " + describe(List.of(step)));
+                    }
+                }
+                if (terms != null) {
+                    terms.clear();
+                    terms.add(new StringLiteral(result, source.get(runStart).line()));
+                }
+                value = result;
+                safe = true;
+            } else {
+                if (value != null && terms != null) {
+                    noteRun(source.subList(runStart, i), value);
+                }
+                safe = safe && isSafeStep(step, scope);
+                value = null;
+                if (terms != null) {
+                    terms.add(foldStep(step, scope));
+                }
+            }
+        }
+        if (value != null && terms != null) {
+            noteRun(source.subList(runStart, source.size()), value);
+        }
+        return value;
+    }
+
+    private void noteRun(List<Term> run, String value) {
+        if (run.size() > 1 || !(run.get(0) instanceof StringLiteral)) {
+            note(run.get(0).line(), describe(run) + " -> " + value.length() + " chars");
+        }
+    }
+
+    private Term fold(Term term, String value) {
+        noteRun(List.of(term), value);
+        return new StringLiteral(value, term.line());
+    }
+
+    private Term foldValue(Term term, Scope scope) {
+        if (term instanceof Call call) {
+            List<Term> arguments = new ArrayList<>();
+            for (Term argument : call.arguments()) {
+                if (isEachLineName(call, argument)) {
+                    arguments.add(argument);
+                    continue;
+                }
+                String value = evaluateValue(argument, scope);
+                arguments.add(value != null ? fold(argument, value) : foldValue(argument, scope));
+            }
+            return new Call(call.target(), arguments, call.line());
+        }
+        if (term instanceof Group group) {
+            return foldGroup(group, scope);
+        }
+        return term;
+    }
+
+    private Term foldStep(Term term, Scope scope) {
+        if (term instanceof Call call) {
+            return foldValue(call, scope);
+        }
+        if (term instanceof Group group) {
+            return foldGroup(group, new Scope(scope.parameterName(), null));
+        }
+        return term;
+    }
+
+    /** Folds each section and merges runs of adjacent constant sections into one. */
+    private Term foldGroup(Group group, Scope scope) {
+        List<Expression> sections = new ArrayList<>();
+        StringBuilder pending = null;
+        int pendingLine = 0;
+        int pendingCount = 0;
+        for (Expression expression : group.expressions()) {
+            Expression folded = foldExpression(expression, scope);
+            String constant = constantOf(folded);
+            if (constant != null && (pending == null || pending.length() + 1 + constant.length() <= MAX_LITERAL_LENGTH)) {
+                if (pending == null) {
+                    pending = new StringBuilder(constant);
+                    pendingLine = folded instanceof Pipeline pipeline ? pipeline.line() : group.line();
+                    pendingCount = 0;
+                } else {
+                    pending.append('\n').append(constant);
+                }
+                pendingCount++;
+                continue;
+            }
+            if (pending != null) {
+                sections.add(mergedSections(pending, pendingLine, pendingCount));
+                pending = null;
+            }
+            sections.add(folded);
+        }
+        if (pending != null) {
+            sections.add(mergedSections(pending, pendingLine, pendingCount));
+        }
+        return new Group(sections, group.line());
+    }
+
+    private Pipeline mergedSections(StringBuilder value, int line, int count) {
+        if (count > 1) {
+            note(line, "merged " + count + " constant group sections -> " + value.length() + " chars");
+        }
+        return literalPipeline(value.toString(), line);
+    }
+
+    private static String constantOf(Expression expression) {
+        if (expression instanceof Pipeline pipeline
+            && pipeline.terms().size() == 1
+            && pipeline.terms().get(0) instanceof StringLiteral literal) {
+            return literal.value();
+        }
+        return null;
+    }
+
+    private static Pipeline literalPipeline(String value, int line) {
+        return new Pipeline(List.of(new StringLiteral(value, line)), line);
+    }
+
+    private String evaluateValue(Term term, Scope scope) {
+        if (term instanceof StringLiteral literal) {
+            return literalValue(literal);
+        }
+        if (term instanceof Identifier identifier) {
+            return identifier.name().equals(scope.parameterName()) ? scope.value() : null;
+        }
+        if (term instanceof Group group) {
+            return evaluateGroup(group, scope);
+        }
+        Call call = (Call) term;
+        if (call.target().equals(BuiltinRegistry.EACH_LINE)) {
+            String name = BuiltinRegistry.eachLineTarget(call, 1);
+            return name == null ? null : evaluateEachLine(name, evaluateValue(call.arguments().get(0), scope));
+        }
+        BuiltinRegistry.Descriptor builtin = BuiltinRegistry.find(call.target());
+        if (builtin != null) {
+            if (call.arguments().size() != builtin.argCount + 1) {
+                return null;
+            }
+            String[] values = evaluateArguments(call.arguments(), scope);
+            return values == null ? null : apply(builtin, values[0], values, 1);
+        }
+        Definition definition = definitions.get(call.target());
+        if (definition == null || call.arguments().size() != 1) {
+            return null;
+        }
+        Term argument = call.arguments().get(0);
+        String value = evaluateValue(argument, scope);
+        if (value != null) {
+            return evaluateDefinition(definition, value);
+        }
+        return isSafeValue(argument, scope) ? evaluateDefinition(definition, null) : null;
+    }
+
+    /**
+     * Evaluates a step applied to {@code current}, which may be unknown. A non-null result for an
+     * unknown input means the step does not depend on its input.
+     */
+    private String evaluateStep(Term term, Scope scope, String current) {
+        if (term instanceof StringLiteral literal) {
+            return literalValue(literal);
+        }
+        if (term instanceof Group group) {
+            return evaluateGroup(group, new Scope(scope.parameterName(), current));
+        }
+        String target = term instanceof Call call ? call.target() : ((Identifier) term).name();
+        List<Term> arguments = term instanceof Call call ? call.arguments() : List.of();
+        if (target.equals(scope.parameterName())) {
+            return null;
+        }
+        if (target.equals(BuiltinRegistry.EACH_LINE)) {
+            String name = term instanceof Call call ? BuiltinRegistry.eachLineTarget(call, 0) : null;
+            return name == null ? null : evaluateEachLine(name, current);
+        }
+        BuiltinRegistry.Descriptor builtin = BuiltinRegistry.find(target);
+        if (builtin != null) {
+            if (arguments.size() != builtin.argCount) {
+                return null;
+            }
+            String[] values = evaluateArguments(arguments, scope);
+            if (values == null) {
+                return null;
+            }
+            if (builtin.methodName.equals("constValue")) {
+                // const is the one builtin that ignores its input.
+                return values[0];
+            }
+            return current == null ? null : apply(builtin, current, values, 0);
+        }
+        Definition definition = definitions.get(target);
+        if (definition == null || !arguments.isEmpty()) {
+            return null;
+        }
+        return evaluateDefinition(definition, current);
+    }
+
+    private String evaluateGroup(Group group, Scope scope) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < group.expressions().size(); i++) {
+            String value = evaluateExpression(group.expressions().get(i), scope);
+            if (value == null) {
+                return null;
+            }
+            if (i > 0) {
+                sb.append('\n');
+            }
+            sb.append(value);
+            if (sb.length() > MAX_LITERAL_LENGTH) {
+                return null;
+            }
+        }
+        return sb.toString();
+    }
+
+    private String[] evaluateArguments(List<Term> arguments, Scope scope) {
+        String[] values = new String[arguments.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = evaluateValue(arguments.get(i), scope);
+            if (values[i] == null) {
+                return null;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Evaluates a definition for a known argument, or for an unknown one when {@code argument} is
+     * {@code null}. Recursive calls and deep call chains are left to run time.
+     */
+    private String evaluateDefinition(Definition definition, String argument) {
+        String key = definition.name() + (argument == null ? "?" : "=" + argument);
+        if (evaluatedCalls.containsKey(key)) {
+            return evaluatedCalls.get(key);
+        }
+        if (activeCalls.size() >= MAX_CALL_DEPTH || !activeCalls.add(key)) {
+            return null;
+        }
+        String value;
+        try {
+            value = evaluateExpression(definition.body(), new Scope(definition.parameter(), argument));
+        } finally {
+            activeCalls.remove(key);
+        }
+        evaluatedCalls.put(key, value);
+        return value;
+    }
+
+    /**
+     * Applies a definition to every line of a known value, as {@link nalgae.runtime.Builtins#eachLine}
+     * does, or returns {@code null} if the value or the result for any line is unknown.
+     */
+    private String evaluateEachLine(String name, String input) {
+        Definition definition = definitions.get(name);
+        if (definition == null || input == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(input.length());
+        int start = 0;
+        while (true) {
+            int newline = input.indexOf('\n', start);
+            int end = newline < 0 ? input.length() : newline;
+            String line = evaluateDefinition(definition, input.substring(start, end));
+            if (line == null) {
+                return null;
+            }
+            sb.append(line);
+            if (sb.length() > MAX_LITERAL_LENGTH) {
+                return null;
+            }
+            if (newline < 0) {
+                return sb.toString();
+            }
+            sb.append('\n');
+            start = end + 1;
+        }
+    }
+
+    /** Whether an argument is the name of the definition an {@code each_line} call applies. */
+    private static boolean isEachLineName(Call call, Term argument) {
+        return call.target().equals(BuiltinRegistry.EACH_LINE) && argument == call.arguments().get(call.arguments().size() - 1);
+    }
+
+    private static String apply(BuiltinRegistry.Descriptor builtin, String input, String[] values, int first) {
+        String result;
+        if (builtin.implementation instanceof BuiltinRegistry.Unary unary) {
+            result = unary.apply(input);
+        } else if (builtin.implementation instanceof BuiltinRegistry.Binary binary) {
+            result = binary.apply(input, values[first]);
+        } else {
+            BuiltinRegistry.Ternary ternary = (BuiltinRegistry.Ternary) builtin.implementation;
+            result = ternary.apply(input, values[first], values[first + 1]);
+        }
+        return result.length() <= MAX_LITERAL_LENGTH ? result : null;
+    }
+
+    /** Whether a value term compiles and always completes, so it may be dropped unevaluated. */
+    private boolean isSafeValue(Term term, Scope scope) {
+        if (term instanceof StringLiteral literal) {
+            return literalValue(literal) != null;
+        }
+        if (term instanceof Identifier identifier) {
+            return identifier.name().equals(scope.parameterName());
+        }
+        if (term instanceof Group group) {
+            return isSafeGroup(group, scope);
+        }
+        Call call = (Call) term;
+        if (call.target().equals(BuiltinRegistry.EACH_LINE)) {
+            String name = BuiltinRegistry.eachLineTarget(call, 1);
+            return name != null && isConstantDefinition(name) && isSafeValue(call.arguments().get(0), scope);
+        }
+        BuiltinRegistry.Descriptor builtin = BuiltinRegistry.find(call.target());
+        if (builtin != null) {
+            return call.arguments().size() == builtin.argCount + 1 && areSafeValues(call.arguments(), scope);
+        }
+        Definition definition = definitions.get(call.target());
+        return definition != null
+            && call.arguments().size() == 1
+            && isSafeValue(call.arguments().get(0), scope)
+            && evaluateDefinition(definition, null) != null;
+    }
+
+    private boolean isSafeStep(Term term, Scope scope) {
+        if (term instanceof StringLiteral literal) {
+            return literalValue(literal) != null;
+        }
+        if (term instanceof Group group) {
+            return isSafeGroup(group, new Scope(scope.parameterName(), null));
+        }
+        String target = term instanceof Call call ? call.target() : ((Identifier) term).name();
+        List<Term> arguments = term instanceof Call call ? call.arguments() : List.of();
+        if (target.equals(scope.parameterName())) {
+            return false;
+        }
+        if (target.equals(BuiltinRegistry.EACH_LINE)) {
+            String name = term instanceof Call call ? BuiltinRegistry.eachLineTarget(call, 0) : null;
+            return name != null && isConstantDefinition(name);
+        }
+        BuiltinRegistry.Descriptor builtin = BuiltinRegistry.find(target);
+        if (builtin != null) {
+            return arguments.size() == builtin.argCount && areSafeValues(arguments, scope);
+        }
+        Definition definition = definitions.get(target);
+        return definition != null && arguments.isEmpty() && evaluateDefinition(definition, null) != null;
+    }
+
+    /** Whether a definition exists and does not depend on its parameter, so it always completes. */
+    private boolean isConstantDefinition(String name) {
+        Definition definition = definitions.get(name);
+        return definition != null && evaluateDefinition(definition, null) != null;
+    }
+
+    private boolean isSafeGroup(Group group, Scope scope) {
+        for (Expression expression : group.expressions()) {
+            if (!(expression instanceof Pipeline pipeline) || pipeline.terms().isEmpty()) {
+                return false;
+            }
+            if (!isSafeValue(pipeline.terms().get(0), scope)) {
+                return false;
+            }
+            for (int i = 1; i < pipeline.terms().size(); i++) {
+                if (!isSafeStep(pipeline.terms().get(i), scope)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean areSafeValues(List<Term> terms, Scope scope) {
+        for (Term term : terms) {
+            if (!isSafeValue(term, scope)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the literal's value, or {@code null} if the compiler will reject it. */
+    private static String literalValue(StringLiteral literal) {
+        try {
+            return ProgramCompiler.literalValue(literal);
+        } catch (RuntimeException ex) {
+            return null;
+        }
+    }
+
+    private void note(int line, String message) {
+        folds.add("line " + line + ": " + message);
+    }
+
+    private static String describe(List<Term> terms) {
+        StringBuilder sb = new StringBuilder();
+        for (Term term : terms) {
+            if (sb.length() > 0) {
+                sb.append(" | ");
+            }
+            sb.append(ProgramPrinter.term(term));
+        }
+        String text = sb.toString().replaceAll("\\s+", " ");
+        return text.length() <= MAX_DESCRIPTION_LENGTH ? text : text.substring(0, MAX_DESCRIPTION_LENGTH - 3) + "...";
+    }
+
+    /** The parameter in scope and its value, or {@code null} when it is only known at run time. */
+    private record Scope(String parameterName, String value) {}
+}
@@ -0,0 +1,204 @@
+package nalgae.compiler;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import nalgae.ast.*;
+
+/**
+ * Splits the definitions of a large program into partitions that {@link ProgramCompiler}
+ * generates as separate classes. Definitions that call each other, directly or not, stay
+ * together when they fit in one partition; a larger connected set is cut between strongly
+ * connected components, callees first, so that calls between partitions run in one direction
+ * wherever the call graph allows.
+ *
+ * <p>A partition's class is named after its members, not after their bodies, so that editing one
+ * definition leaves the names, and therefore the cached bytecode, of the other partitions intact.
+ */
+final class Partitioner {
+    private final Map<String, Definition> definitions = new LinkedHashMap<>();
+    private final Map<String, Set<String>> callees = new HashMap<>();
+
+    private Partitioner(Program program) {
+        for (Definition definition : program.definitions()) {
+            definitions.put(definition.name(), definition);
+        }
+        for (Definition definition : program.definitions()) {
+            callees.put(definition.name(), calls(definition.body(), definition.parameter(), definitions.keySet()));
+        }
+    }
+
+    /**
+     * Groups the definitions of a program into partitions of at most {@code maxSize}, except for
+     * larger cycles. Sets of definitions smaller than that are packed together in source order,
+     * so that a program of many small, unrelated definitions does not become many tiny classes.
+     */
+    static List<List<Definition>> partition(Program program, int maxSize) {
+        Partitioner partitioner = new Partitioner(program);
+        List<List<String>> pieces = new ArrayList<>();
+        for (List<String> component : partitioner.connectedComponents()) {
+            if (component.size() <= maxSize) {
+                pieces.add(component);
+                continue;
+            }
+            List<String> current = new ArrayList<>();
+            for (List<String> cycle : partitioner.stronglyConnected(component)) {
+                if (!current.isEmpty() && current.size() + cycle.size() > maxSize) {
+                    pieces.add(current);
+                    current = new ArrayList<>();
+                }
+                current.addAll(cycle);
+            }
+            pieces.add(current);
+        }
+        List<List<Definition>> partitions = new ArrayList<>();
+        List<String> current = new ArrayList<>();
+        for (List<String> piece : pieces) {
+            if (!current.isEmpty() && current.size() + piece.size() > maxSize) {
+                partitions.add(partitioner.definitionsOf(current));
+                current = new ArrayList<>();
+            }
+            current.addAll(piece);
+        }
+        partitions.add(partitioner.definitionsOf(current));
+        return partitions;
+    }
+
+    /** Returns the definitions a body calls, limited to {@code known}. */
+    static Set<String> calls(Expression body, String parameterName, Set<String> known) {
+        Set<String> names = new LinkedHashSet<>();
+        MiddleEnd.collectCalls(body, parameterName, names);
+        names.retainAll(known);
+        return names;
+    }
+
+    /**
+     * Names the class of a partition after the program's class, without the program key that
+     * {@link CompilationCache#className} appends, and after the names of its members.
+     */
+    static String className(String programClass, List<Definition> partition) {
+        return programClass.replaceFirst("_[0-9a-f]{16}$", "") + "_Defs_" + hash(partition);
+    }
+
+    private static String hash(List<Definition> partition) {
+        StringBuilder material = new StringBuilder();
+        for (Definition definition : partition) {
+            material.append(definition.name()).append('\n');
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(material.toString().getBytes(StandardCharsets.UTF_8))).substring(0, 16);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    private List<Definition> definitionsOf(List<String> names) {
+        Set<String> wanted = new HashSet<>(names);
+        List<Definition> members = new ArrayList<>();
+        for (String name : definitions.keySet()) {
+            if (wanted.contains(name)) {
+                members.add(definitions.get(name));
+            }
+        }
+        return members;
+    }
+
+    /** Returns the sets of definitions linked by calls in either direction, in source order. */
+    private List<List<String>> connectedComponents() {
+        Map<String, Set<String>> links = new HashMap<>();
+        for (String name : definitions.keySet()) {
+            links.computeIfAbsent(name, key -> new LinkedHashSet<>());
+            for (String callee : callees.get(name)) {
+                links.get(name).add(callee);
+                links.computeIfAbsent(callee, key -> new LinkedHashSet<>()).add(name);
+            }
+        }
+        List<List<String>> components = new ArrayList<>();
+        Set<String> seen = new LinkedHashSet<>();
+        for (String name : definitions.keySet()) {
+            if (!seen.add(name)) {
+                continue;
+            }
+            List<String> component = new ArrayList<>();
+            Deque<String> pending = new ArrayDeque<>(List.of(name));
+            while (!pending.isEmpty()) {
+                String next = pending.removeFirst();
+                component.add(next);
+                for (String linked : links.get(next)) {
+                    if (seen.add(linked)) {
+                        pending.addLast(linked);
+                    }
+                }
+            }
+            components.add(component);
+        }
+        return components;
+    }
+
+    /** Returns the strongly connected components of a set of definitions, callees first (Tarjan). */
+    private List<List<String>> stronglyConnected(List<String> names) {
+        Set<String> members = new LinkedHashSet<>(names);
+        Map<String, Integer> index = new HashMap<>();
+        Map<String, Integer> lowLink = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>();
+        Set<String> onStack = new LinkedHashSet<>();
+        List<List<String>> components = new ArrayList<>();
+        for (String name : definitionsOrder(members)) {
+            if (!index.containsKey(name)) {
+                connect(name, members, index, lowLink, stack, onStack, components);
+            }
+        }
+        return components;
+    }
+
+    private List<String> definitionsOrder(Set<String> members) {
+        List<String> order = new ArrayList<>();
+        for (String name : definitions.keySet()) {
+            if (members.contains(name)) {
+                order.add(name);
+            }
+        }
+        return order;
+    }
+
+    private void connect(String name, Set<String> members, Map<String, Integer> index, Map<String, Integer> lowLink,
+                         Deque<String> stack, Set<String> onStack, List<List<String>> components) {
+        index.put(name, index.size());
+        lowLink.put(name, index.get(name));
+        stack.push(name);
+        onStack.add(name);
+        for (String callee : callees.get(name)) {
+            if (!members.contains(callee)) {
+                continue;
+            }
+            if (!index.containsKey(callee)) {
+                connect(callee, members, index, lowLink, stack, onStack, components);
+                lowLink.put(name, Math.min(lowLink.get(name), lowLink.get(callee)));
+            } else if (onStack.contains(callee)) {
+                lowLink.put(name, Math.min(lowLink.get(name), index.get(callee)));
+            }
+        }
+        if (lowLink.get(name).equals(index.get(name))) {
+            List<String> component = new ArrayList<>();
+            String member;
+            do {
+                member = stack.pop();
+                onStack.remove(member);
+                component.add(member);
+            } while (!member.equals(name));
+            components.add(component);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package nalgae.compiler;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Flight Recorder event for one {@link PhaseMetrics.Phase}; committed only while recording. */
+@Name("nalgae.Phase")
+@Label("Nalgae Phase")
+@Category("Nalgae")
+@Description("A phase of loading, compiling or running a program")
+@StackTrace(false)
+final class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+
+    @Label("Details")
+    String details;
+}
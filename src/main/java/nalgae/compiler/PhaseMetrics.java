@@ -0,0 +1,139 @@
+package nalgae.compiler;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Registry of the time and memory spent in each phase of loading, compiling and running
+ * programs: lexing, parsing, folding, the middle end, code generation, javac, class definition
+ * and execution. Phases are timed with {@link #start} in a try-with-resources block, which adds
+ * them to the totals and, while Flight Recorder is running, commits a {@code nalgae.Phase} event.
+ * Without Flight Recorder the event class is never loaded: setting it up takes longer than a
+ * cached run of a small program.
+ *
+ * <p>Allocation is measured per thread, so a phase counts what its own thread allocated.
+ */
+public final class PhaseMetrics {
+    private static final PhaseMetrics GLOBAL = new PhaseMetrics();
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private final Map<String, Totals> totals = new LinkedHashMap<>();
+
+    /** Returns the registry that the CLI and {@link ProgramCompiler} record to. */
+    public static PhaseMetrics global() {
+        return GLOBAL;
+    }
+
+    public Phase start(String name) {
+        return new Phase(name);
+    }
+
+    /** Returns the totals of every phase seen so far, in the order the phases first ran. */
+    public synchronized List<Stats> stats() {
+        List<Stats> stats = new ArrayList<>();
+        for (Map.Entry<String, Totals> entry : totals.entrySet()) {
+            Totals phase = entry.getValue();
+            stats.add(new Stats(entry.getKey(), phase.count, phase.nanos, phase.allocated, Collections.unmodifiableMap(new LinkedHashMap<>(phase.measures))));
+        }
+        return stats;
+    }
+
+    public synchronized void clear() {
+        totals.clear();
+    }
+
+    private synchronized void record(String name, long nanos, long allocated, Map<String, Long> measures) {
+        Totals phase = totals.computeIfAbsent(name, key -> new Totals());
+        phase.count++;
+        phase.nanos += nanos;
+        phase.allocated += allocated;
+        for (Map.Entry<String, Long> measure : measures.entrySet()) {
+            phase.measures.merge(measure.getKey(), measure.getValue(), Long::sum);
+        }
+    }
+
+    private static long allocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported()) {
+            threads.setThreadAllocatedMemoryEnabled(true);
+            return threads;
+        }
+        return null;
+    }
+
+    /** One running phase. Closing it records the phase, even if it failed. */
+    public final class Phase implements AutoCloseable {
+        private final String name;
+        private final PhaseEvent event = FlightRecorder.isInitialized() ? new PhaseEvent() : null;
+        private final Map<String, Long> measures = new LinkedHashMap<>();
+        private final long startAllocated = allocatedBytes();
+        private final long startNanos = System.nanoTime();
+
+        private Phase(String name) {
+            this.name = name;
+            if (event != null) {
+                event.begin();
+            }
+        }
+
+        /** Adds a size the phase worked on, such as the number of tokens or generated methods. */
+        public Phase measure(String key, long value) {
+            measures.merge(key, value, Long::sum);
+            return this;
+        }
+
+        @Override
+        public void close() {
+            long nanos = System.nanoTime() - startNanos;
+            long allocated = allocatedBytes() - startAllocated;
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.phase = name;
+                    event.allocated = allocated;
+                    event.details = describe(measures);
+                    event.commit();
+                }
+            }
+            record(name, nanos, allocated, measures);
+        }
+    }
+
+    /** Totals of one phase; {@code measures} sums the sizes passed to {@link Phase#measure}. */
+    public record Stats(String phase, long count, long nanos, long allocatedBytes, Map<String, Long> measures) {
+        @Override
+        public String toString() {
+            return phase + ": calls=" + count
+                + String.format(Locale.ROOT, " wall=%.3fms alloc=%.1fKiB", nanos / 1e6, allocatedBytes / 1024.0)
+                + (measures.isEmpty() ? "" : " " + describe(measures));
+        }
+    }
+
+    private static String describe(Map<String, Long> measures) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> measure : measures.entrySet()) {
+            if (!sb.isEmpty()) {
+                sb.append(' ');
+            }
+            sb.append(measure.getKey()).append('=').append(measure.getValue());
+        }
+        return sb.toString();
+    }
+
+    private static final class Totals {
+        long count;
+        long nanos;
+        long allocated;
+        final Map<String, Long> measures = new LinkedHashMap<>();
+    }
+}
@@ -2,63 +2,441 @@ package nalgae.compiler;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
 import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
 import javax.tools.ToolProvider;
 import nalgae.ast.*;
+import nalgae.compiler.Concatenation.Part;
+import nalgae.runtime.Builtins;
 
 public final class ProgramCompiler {
+    /** Identifies the code generator; bump whenever generated classes change for the same program. */
+    public static final String COMPILER_VERSION = "8";
+
+    /** Programs with more definitions than this are split into several classes. */
+    static final int PARTITION_SIZE = 64;
+
     private final Program program;
     private final String className;
+    private final Backend backend;
+    private final CompilerOptions options;
+    private final CompilationCache cache;
+    private Map<String, String> owners = Map.of();
+    private final Map<String, String> literalFields = new LinkedHashMap<>();
+    private final Set<String> emittedDefinitions = new LinkedHashSet<>();
+    private final Deque<Definition> pendingEmitters = new ArrayDeque<>();
+    private final List<String> stageCounters = new ArrayList<>();
+    private String currentDefinition;
+    private final ValueNumbering numbering = new ValueNumbering();
+    private Map<Integer, String> available = new HashMap<>();
+    private int sharedValues;
+    private MiddleEnd middleEnd;
+    private OptimizationStats statistics;
 
     public ProgramCompiler(Program program, String className) {
+        this(program, className, Backend.JAVAC);
+    }
+
+    public ProgramCompiler(Program program, String className, Backend backend) {
+        this(program, className, backend, CompilerOptions.DEFAULT);
+    }
+
+    public ProgramCompiler(Program program, String className, Backend backend, CompilerOptions options) {
+        this(program, className, backend, options, null);
+    }
+
+    /**
+     * Creates a compiler that looks up and stores the classes of a split program in
+     * {@code cache}, so that the parts of a large program that did not change are not compiled
+     * again. {@code cache} may be {@code null}.
+     */
+    public ProgramCompiler(Program program, String className, Backend backend, CompilerOptions options, CompilationCache cache) {
         this.program = program;
         this.className = className;
+        this.backend = backend;
+        this.options = options;
+        this.cache = cache;
     }
 
     public CompiledProgram compile() {
-        try {
-            SourceLayout layout = buildSource();
-            Path sourceFile = layout.sourceFile();
-            Files.createDirectories(sourceFile.getParent());
-            Files.writeString(sourceFile, layout.source(), StandardCharsets.UTF_8);
-
-            Path classesDir = layout.classesDir();
-            Files.createDirectories(classesDir);
-
-            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-            if (compiler == null) {
-                throw new IllegalStateException("JDK tools are required to compile");
-            }
-            List<String> options = new ArrayList<>();
-            String classpath = System.getProperty("java.class.path");
-            if (classpath != null && !classpath.isEmpty()) {
-                options.add("-classpath");
-                options.add(classpath);
-            }
-            options.add("-d");
-            options.add(classesDir.toString());
-            options.add(sourceFile.toString());
-            int result = compiler.run(null, null, null, options.toArray(new String[0]));
-            if (result != 0) {
-                throw new IllegalStateException("Java compilation failed with exit code " + result);
-            }
-
-            Path classFile = classesDir.resolve(layout.classRelativePath());
-            byte[] bytecode = Files.readAllBytes(classFile);
-            return new CompiledProgram(className, bytecode, classFile, classesDir);
+        Program optimized = optimize();
+        List<List<Definition>> partitions = partitions(optimized);
+        CompiledProgram compiled;
+        if (partitions.size() > 1) {
+            compiled = compilePartitioned(optimized, partitions);
+        } else {
+            compiled = switch (backend) {
+                case JAVAC -> compileSource(generate(optimized));
+                case BYTECODE -> compileToBytecode(optimized);
+            };
+        }
+        statistics = middleEnd.statistics(sharedValues);
+        return compiled;
+    }
+
+    /**
+     * Runs the middle end and returns the Java source the javac backend would compile. Together
+     * with {@link #compileSource} this is {@link #compile} in two steps, so each can be measured.
+     */
+    public String generateSource() {
+        return generate(optimize());
+    }
+
+    /**
+     * Runs the middle end and returns the Java source of every class the program compiles to, by
+     * class name, starting with the class that has the entry points. A large program is split as
+     * {@link #compile} splits it, but nothing is taken from the cache and no class is stubbed, so
+     * that the sources can be compiled in one javac task with those of other programs.
+     */
+    public Map<String, String> generateClassSources() {
+        Program optimized = optimize();
+        List<List<Definition>> partitions = partitions(optimized);
+        Map<String, String> sources = new LinkedHashMap<>();
+        if (partitions.size() > 1) {
+            Map<String, List<Definition>> classes = assignClasses(partitions);
+            try (PhaseMetrics.Phase phase = PhaseMetrics.global().start("generate")) {
+                sources.put(className, buildClass(className, optimized, List.of(), true));
+                for (Map.Entry<String, List<Definition>> partition : classes.entrySet()) {
+                    sources.put(partition.getKey(), buildClass(partition.getKey(), optimized, partition.getValue(), false));
+                }
+                phase.measure("sourceChars", sources.values().stream().mapToLong(String::length).sum());
+            }
+        } else {
+            sources.put(className, generate(optimized));
+        }
+        statistics = middleEnd.statistics(sharedValues);
+        return sources;
+    }
+
+    /** Compiles source returned by {@link #generateSource} with javac. */
+    public CompiledProgram compileSource(String source) {
+        return new CompiledProgram(className, javac(Set.of(className), Map.of(className, source)).get(className));
+    }
+
+    /** Compiles {@code sources}, keyed by class name, and returns the bytecode of the {@code targets}. */
+    private static Map<String, byte[]> javac(Set<String> targets, Map<String, String> sources) {
+        JavaCompiler compiler = systemCompiler();
+        List<String> options = javacOptions();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (PhaseMetrics.Phase phase = PhaseMetrics.global().start("javac");
+                InMemoryFileManager fileManager = new InMemoryFileManager(compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8))) {
+            List<JavaFileObject> units = new ArrayList<>();
+            for (Map.Entry<String, String> source : sources.entrySet()) {
+                units.add(InMemoryFileManager.source(source.getKey(), source.getValue()));
+            }
+            Boolean success = compiler.getTask(null, fileManager, diagnostics, options, null, units).call();
+            if (!Boolean.TRUE.equals(success)) {
+                throw new IllegalStateException("Java compilation failed: " + describe(diagnostics));
+            }
+            Map<String, byte[]> classes = new HashMap<>();
+            for (String target : targets) {
+                byte[] bytecode = fileManager.classes().get(target);
+                if (bytecode == null) {
+                    throw new IllegalStateException("Java compilation produced no class for " + target);
+                }
+                phase.measure("methods", new CompiledProgram(target, bytecode).methodCount()).measure("classBytes", bytecode.length);
+                classes.put(target, bytecode);
+            }
+            return classes;
         } catch (IOException ex) {
             throw new RuntimeException("Failed to compile program: " + ex.getMessage(), ex);
         }
     }
 
-    private SourceLayout buildSource() {
+    static JavaCompiler systemCompiler() {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("JDK tools are required to compile");
+        }
+        return compiler;
+    }
+
+    /** Compiles generated sources against this process's class path, where the runtime is. */
+    static List<String> javacOptions() {
+        List<String> options = new ArrayList<>();
+        String classpath = System.getProperty("java.class.path");
+        if (classpath != null && !classpath.isEmpty()) {
+            options.add("-classpath");
+            options.add(classpath);
+        }
+        return options;
+    }
+
+    /** Describes what the middle end and the code generator optimized in {@link #compile}. */
+    public OptimizationStats statistics() {
+        if (statistics == null) {
+            throw new IllegalStateException("Program has not been compiled");
+        }
+        return statistics;
+    }
+
+    private Program optimize() {
+        checkMemoized(program, options.memoization());
+        literalFields.clear();
+        emittedDefinitions.clear();
+        pendingEmitters.clear();
+        stageCounters.clear();
+        owners = Map.of();
+        sharedValues = 0;
+        try (PhaseMetrics.Phase phase = PhaseMetrics.global().start("optimize")) {
+            middleEnd = new MiddleEnd(program, options);
+            Program optimized = middleEnd.optimize();
+            phase.measure("definitions", optimized.definitions().size());
+            return optimized;
+        }
+    }
+
+    private String generate(Program program) {
+        try (PhaseMetrics.Phase phase = PhaseMetrics.global().start("generate")) {
+            String source = buildClass(className, program, program.definitions(), true);
+            phase.measure("sourceChars", source.length());
+            return source;
+        }
+    }
+
+    private CompiledProgram compileToBytecode(Program program) {
+        try (PhaseMetrics.Phase phase = PhaseMetrics.global().start("generate")) {
+            BytecodeGenerator generator = new BytecodeGenerator(program, className, options);
+            CompiledProgram compiled = new CompiledProgram(className, generator.generate());
+            sharedValues = generator.sharedValues();
+            phase.measure("methods", compiled.methodCount()).measure("classBytes", compiled.bytecode().length);
+            return compiled;
+        }
+    }
+
+    /**
+     * Splits a large program over several classes. Streaming, memoized and instrumented programs
+     * keep one class, and so do programs with errors, which are then reported in the same order
+     * as before.
+     */
+    private List<List<Definition>> partitions(Program optimized) {
+        if (options.streaming() || options.memoization().isEnabled() || options.instrumented()
+                || optimized.definitions().size() <= PARTITION_SIZE || !middleEnd.isValid()) {
+            return List.of();
+        }
+        return Partitioner.partition(optimized, PARTITION_SIZE);
+    }
+
+    /**
+     * Compiles each partition into its own class and the entry points into a class that declares
+     * no definitions. Partitions found in the cache are reused; the rest are compiled
+     * concurrently, each against stubs of the classes it calls into.
+     */
+    private CompiledProgram compilePartitioned(Program program, List<List<Definition>> partitions) {
+        Map<String, List<Definition>> classes = assignClasses(partitions);
+        Map<String, byte[]> companions = new LinkedHashMap<>();
+        List<Unit> units = new ArrayList<>();
+        for (Map.Entry<String, List<Definition>> partition : classes.entrySet()) {
+            Map<String, String> callees = callees(partition.getKey(), partition.getValue());
+            String cacheKey = null;
+            if (cache != null) {
+                cacheKey = CompilationCache.partitionKey(partition.getKey(), partition.getValue(), callees, backend, options);
+                Optional<CompiledProgram> cached = cache.find(cacheKey);
+                if (cached.isPresent()) {
+                    companions.put(partition.getKey(), cached.get().bytecode());
+                    continue;
+                }
+            }
+            units.add(new Unit(partition.getKey(), partition.getValue(), callees, false, cacheKey));
+        }
+        Map<String, String> entryCallees = new TreeMap<>();
+        for (String name : Partitioner.calls(program.expression(), "it", owners.keySet())) {
+            entryCallees.put(name, owners.get(name));
+        }
+        units.add(new Unit(className, List.of(), entryCallees, true, null));
+
+        List<byte[]> bytecode = switch (backend) {
+            case JAVAC -> compileUnits(program, units);
+            case BYTECODE -> generateUnits(program, units);
+        };
+        byte[] entry = null;
+        for (int i = 0; i < units.size(); i++) {
+            Unit unit = units.get(i);
+            if (unit.entryPoints()) {
+                entry = bytecode.get(i);
+                continue;
+            }
+            companions.put(unit.className(), bytecode.get(i));
+            if (unit.cacheKey() != null) {
+                cache.store(unit.cacheKey(), new CompiledProgram(unit.className(), bytecode.get(i)));
+            }
+        }
+        return new CompiledProgram(className, entry, companions);
+    }
+
+    /** Names the class of each partition and records it as the owner of the partition's definitions. */
+    private Map<String, List<Definition>> assignClasses(List<List<Definition>> partitions) {
+        Map<String, List<Definition>> classes = new LinkedHashMap<>();
+        Map<String, String> owners = new HashMap<>();
+        for (List<Definition> partition : partitions) {
+            String name = Partitioner.className(className, partition);
+            classes.put(name, partition);
+            for (Definition definition : partition) {
+                owners.put(definition.name(), name);
+            }
+        }
+        this.owners = owners;
+        return classes;
+    }
+
+    /** Maps each definition a class calls but does not declare to the class that declares it. */
+    private Map<String, String> callees(String name, List<Definition> definitions) {
+        Map<String, String> callees = new TreeMap<>();
+        for (Definition definition : definitions) {
+            for (String callee : Partitioner.calls(definition.body(), definition.parameter(), owners.keySet())) {
+                if (!owners.get(callee).equals(name)) {
+                    callees.put(callee, owners.get(callee));
+                }
+            }
+        }
+        return callees;
+    }
+
+    /**
+     * Generates the units' sources in order, then compiles them with one javac task per thread.
+     * Each task compiles its share of the units against stubs of the other classes they call.
+     */
+    private List<byte[]> compileUnits(Program program, List<Unit> units) {
+        Map<String, String> sources = new HashMap<>();
+        try (PhaseMetrics.Phase phase = PhaseMetrics.global().start("generate")) {
+            long sourceChars = 0;
+            for (Unit unit : units) {
+                String source = buildClass(unit.className(), program, unit.definitions(), unit.entryPoints());
+                sourceChars += source.length();
+                sources.put(unit.className(), source);
+            }
+            phase.measure("sourceChars", sourceChars);
+        }
+        int tasks = Math.min(units.size(), Runtime.getRuntime().availableProcessors());
+        List<Callable<Map<String, byte[]>>> batches = new ArrayList<>();
+        for (int i = 0; i < tasks; i++) {
+            Map<String, String> batch = new LinkedHashMap<>();
+            for (int j = i; j < units.size(); j += tasks) {
+                batch.put(units.get(j).className(), sources.get(units.get(j).className()));
+            }
+            Map<String, List<String>> stubs = new TreeMap<>();
+            for (int j = i; j < units.size(); j += tasks) {
+                units.get(j).callees().forEach((callee, owner) -> {
+                    if (!batch.containsKey(owner)) {
+                        stubs.computeIfAbsent(owner, key -> new ArrayList<>()).add(callee);
+                    }
+                });
+            }
+            Map<String, String> compiled = new LinkedHashMap<>(batch);
+            stubs.forEach((owner, names) -> compiled.put(owner, stubSource(owner, names)));
+            batches.add(() -> javac(batch.keySet(), compiled));
+        }
+        Map<String, byte[]> bytecode = new HashMap<>();
+        for (Map<String, byte[]> classes : inParallel(batches)) {
+            bytecode.putAll(classes);
+        }
+        List<byte[]> results = new ArrayList<>();
+        for (Unit unit : units) {
+            results.add(bytecode.get(unit.className()));
+        }
+        return results;
+    }
+
+    /** Generates the units' class files concurrently, one generator per unit. */
+    private List<byte[]> generateUnits(Program program, List<Unit> units) {
+        List<BytecodeGenerator> generators = new ArrayList<>();
+        List<Callable<byte[]>> tasks = new ArrayList<>();
+        for (Unit unit : units) {
+            BytecodeGenerator generator = new BytecodeGenerator(program, unit.className(), options, unit.definitions(), owners, unit.entryPoints());
+            generators.add(generator);
+            tasks.add(() -> {
+                try (PhaseMetrics.Phase phase = PhaseMetrics.global().start("generate")) {
+                    byte[] bytecode = generator.generate();
+                    phase.measure("methods", new CompiledProgram(unit.className(), bytecode).methodCount()).measure("classBytes", bytecode.length);
+                    return bytecode;
+                }
+            });
+        }
+        List<byte[]> bytecode = inParallel(tasks);
+        for (BytecodeGenerator generator : generators) {
+            sharedValues += generator.sharedValues();
+        }
+        return bytecode;
+    }
+
+    /** Runs tasks on up to one thread per processor and returns their results in order. */
+    private static <T> List<T> inParallel(List<Callable<T>> tasks) {
+        int threads = Math.min(tasks.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while compiling", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (ex.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException("Failed to compile program: " + ex.getCause().getMessage(), ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /** Declares the methods another class calls, so that javac can check calls without its body. */
+    private static String stubSource(String className, List<String> names) {
+        int dot = className.lastIndexOf('.');
+        StringBuilder sb = new StringBuilder();
+        if (dot > 0) {
+            sb.append("package ").append(className, 0, dot).append(";\n\n");
+        }
+        sb.append("final class ").append(className.substring(dot + 1)).append(" {\n");
+        for (String name : names) {
+            sb.append("    static nalgae.runtime.AsciiString ").append(fnName(name))
+                .append("(nalgae.runtime.AsciiString input) {\n        throw new AssertionError();\n    }\n");
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static String describe(DiagnosticCollector<JavaFileObject> diagnostics) {
+        StringJoiner joiner = new StringJoiner("; ");
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                joiner.add("line " + diagnostic.getLineNumber() + ": " + diagnostic.getMessage(Locale.ROOT));
+            }
+        }
+        return joiner.length() == 0 ? "unknown error" : joiner.toString();
+    }
+
+    /**
+     * Builds the source of one class declaring {@code localDefinitions}, plus the entry points when
+     * {@code entryPoints} is set. Calls to other definitions go to the class {@link #owners} names.
+     */
+    private String buildClass(String className, Program program, List<Definition> localDefinitions, boolean entryPoints) {
+        literalFields.clear();
         int dot = className.lastIndexOf('.');
         String packageName = dot >= 0 ? className.substring(0, dot) : null;
         String simpleName = dot >= 0 ? className.substring(dot + 1) : className;
@@ -66,53 +444,250 @@ public final class ProgramCompiler {
         if (packageName != null && !packageName.isEmpty()) {
             sb.append("package ").append(packageName).append(";\n\n");
         }
-        sb.append("import nalgae.runtime.Builtins;\n");
-        sb.append("import java.util.function.Function;\n\n");
-        sb.append("public final class ").append(simpleName).append(" implements Function<String, String> {\n");
+        sb.append("import nalgae.runtime.AsciiBuiltins;\n");
+        if (options.streaming()) {
+            sb.append("import nalgae.runtime.AsciiSink;\n");
+        }
+        sb.append("import nalgae.runtime.AsciiString;\n");
+        if (options.memoization().isEnabled()) {
+            sb.append("import nalgae.runtime.MemoCache;\n");
+        }
+        if (options.instrumented()) {
+            sb.append("import nalgae.runtime.StageCounter;\n");
+        }
+        if (!entryPoints) {
+            sb.append("\nfinal class ").append(simpleName).append(" {\n");
+        } else {
+            sb.append("import java.util.function.Function;\n\n");
+            sb.append("public final class ").append(simpleName).append(" implements Function<String, String> {\n");
+        }
 
         Map<String, Definition> definitionMap = new HashMap<>();
         for (Definition def : program.definitions()) {
             definitionMap.put(def.name(), def);
         }
 
-        for (Definition definition : program.definitions()) {
-            sb.append("    private static String ")
+        StringBuilder methods = new StringBuilder();
+        for (Definition definition : localDefinitions) {
+            methods.append(owners.isEmpty() ? "    private static AsciiString " : "    static AsciiString ")
                 .append(fnName(definition.name()))
-                .append("(String ")
+                .append("(AsciiString ")
                 .append(definition.parameter())
                 .append(") {\n");
+            boolean memoized = options.memoization().applies(definition.name());
+            if (memoized) {
+                methods.append("        AsciiString memo$ = ").append(memoName(definition.name()))
+                    .append(".get(").append(definition.parameter()).append(");\n");
+                methods.append("        if (memo$ != null) {\n            return memo$;\n        }\n");
+                methods.append("        long start$ = System.nanoTime();\n");
+            }
             CodeBuilder builder = new CodeBuilder();
-            Scope scope = new Scope(definition.parameter(), definition.parameter(), definitionMap);
+            available = new HashMap<>();
+            currentDefinition = definition.name();
+            Scope scope = new Scope(definition.parameter(), definition.parameter(), ValueNumbering.PARAMETER, definitionMap);
             String resultVar = compileExpression(definition.body(), scope, builder);
-            builder.appendTo(sb, 2);
-            sb.append("        return ").append(resultVar).append(";\n");
-            sb.append("    }\n\n");
+            builder.appendTo(methods, 2);
+            if (memoized) {
+                methods.append("        return ").append(memoName(definition.name())).append(".put(")
+                    .append(definition.parameter()).append(", ").append(resultVar).append(", start$);\n");
+            } else {
+                methods.append("        return ").append(resultVar).append(";\n");
+            }
+            methods.append("    }\n\n");
+        }
+
+        if (entryPoints) {
+            methods.append("    public static AsciiString runAscii(AsciiString input) {\n");
+            CodeBuilder topBuilder = new CodeBuilder();
+            available = new HashMap<>();
+            currentDefinition = "it";
+            Scope topScope = new Scope("it", "input", ValueNumbering.PARAMETER, definitionMap);
+            String topResult = compileExpression(program.expression(), topScope, topBuilder);
+            topBuilder.appendTo(methods, 2);
+            methods.append("        return ").append(topResult).append(";\n");
+            methods.append("    }\n\n");
+        }
+
+        if (options.streaming()) {
+            appendStreamingMethods(program, methods, definitionMap);
+        }
+
+        for (Map.Entry<String, String> literal : literalFields.entrySet()) {
+            sb.append("    private static final AsciiString ").append(literal.getValue())
+                .append(" = AsciiString.of(").append(quote(literal.getKey())).append(");\n");
+        }
+        Memoization memoization = options.memoization();
+        for (Definition definition : localDefinitions) {
+            if (memoization.applies(definition.name())) {
+                sb.append("    private static final MemoCache ").append(memoName(definition.name()))
+                    .append(" = new MemoCache(").append(quote(definition.name())).append(", ")
+                    .append(memoization.maxEntries()).append(", ").append(memoization.maxBytes()).append("L);\n");
+            }
+        }
+        for (int i = 0; i < stageCounters.size(); i++) {
+            sb.append("    private static final StageCounter STAGE$").append(i)
+                .append(" = new StageCounter(").append(stageCounters.get(i)).append(");\n");
+        }
+        if (!literalFields.isEmpty() || memoization.isEnabled() || !stageCounters.isEmpty()) {
+            sb.append('\n');
+        }
+        sb.append(methods);
+        if (!entryPoints) {
+            sb.setLength(sb.length() - 1);
+            sb.append("}\n");
+            return sb.toString();
         }
 
         sb.append("    public static String run(String input) {\n");
-        CodeBuilder topBuilder = new CodeBuilder();
-        Scope topScope = new Scope("it", "input", definitionMap);
-        String topResult = compileExpression(program.expression(), topScope, topBuilder);
-        topBuilder.appendTo(sb, 2);
-        sb.append("        return ").append(topResult).append(";\n");
+        sb.append("        return runAscii(AsciiString.of(input)).toString();\n");
         sb.append("    }\n\n");
 
         sb.append("    @Override\n    public String apply(String input) {\n        return run(input);\n    }\n\n");
 
-        sb.append("    public static void main(String[] args) {\n");
+        sb.append("    public static void main(String[] args) throws java.io.IOException {\n");
         sb.append("        String input = args.length > 0 ? args[0] : \"\";\n");
-        sb.append("        String result = run(input);\n");
-        sb.append("        System.out.println(result);\n");
+        if (options.streaming()) {
+            sb.append("        AsciiSink sink = AsciiSink.of(new java.io.FileOutputStream(java.io.FileDescriptor.out).getChannel());\n");
+            sb.append("        runTo(AsciiString.of(input), sink);\n");
+            sb.append("        sink.write('\\n');\n");
+            sb.append("        sink.flush();\n");
+        } else {
+            sb.append("        runAscii(AsciiString.of(input)).writeLine(System.out);\n");
+        }
         sb.append("    }\n");
 
         sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * Generates {@code runTo} and an {@code emit_} twin for each definition it can reach in an
+     * output position. These run after the value methods, which have already reported any error in
+     * the program, so the order of the messages does not depend on the mode.
+     */
+    private void appendStreamingMethods(Program program, StringBuilder methods, Map<String, Definition> definitionMap) {
+        methods.append("    public static void runTo(AsciiString input, AsciiSink sink) throws java.io.IOException {\n");
+        CodeBuilder topBuilder = new CodeBuilder();
+        available = new HashMap<>();
+        emitExpression(program.expression(), new Scope("it", "input", ValueNumbering.PARAMETER, definitionMap), topBuilder);
+        topBuilder.appendTo(methods, 2);
+        methods.append("    }\n\n");
+
+        while (!pendingEmitters.isEmpty()) {
+            Definition definition = pendingEmitters.removeFirst();
+            methods.append("    private static void ")
+                .append(emitName(definition.name()))
+                .append("(AsciiString ")
+                .append(definition.parameter())
+                .append(", AsciiSink sink) throws java.io.IOException {\n");
+            CodeBuilder builder = new CodeBuilder();
+            available = new HashMap<>();
+            Scope scope = new Scope(definition.parameter(), definition.parameter(), ValueNumbering.PARAMETER, definitionMap);
+            emitExpression(definition.body(), scope, builder);
+            builder.appendTo(methods, 2);
+            methods.append("    }\n\n");
+        }
+    }
+
+    /**
+     * Writes the value of an expression to {@code sink}. Concatenation steps, groups and calls to
+     * definitions in the last position write their pieces directly; anything else is evaluated
+     * as usual and written whole.
+     */
+    private void emitExpression(Expression expression, Scope scope, CodeBuilder builder) {
+        if (!(expression instanceof Pipeline pipeline)) {
+            throw new IllegalStateException("Unsupported expression type: " + expression.getClass());
+        }
+        if (pipeline.terms().isEmpty()) {
+            throw new IllegalArgumentException("Empty pipeline at line " + pipeline.line());
+        }
+        emitTerms(pipeline.terms(), scope, builder);
+    }
+
+    private void emitTerms(List<Term> terms, Scope scope, CodeBuilder builder) {
+        Term last = terms.get(terms.size() - 1);
+        if (terms.size() > 1 && Concatenation.isConcatStep(last)) {
+            List<Term> base = terms.subList(0, terms.size() - 1);
+            List<Term> arguments = ((Call) last).arguments();
+            switch (((Call) last).target()) {
+                case "append" -> {
+                    emitTerms(base, scope, builder);
+                    emitArgument(arguments.get(0), scope, builder);
+                }
+                case "prepend" -> {
+                    emitArgument(arguments.get(0), scope, builder);
+                    emitTerms(base, scope, builder);
+                }
+                default -> {
+                    emitArgument(arguments.get(0), scope, builder);
+                    emitTerms(base, scope, builder);
+                    emitArgument(arguments.get(1), scope, builder);
+                }
+            }
+            return;
+        }
+        if (last instanceof Group group) {
+            if (terms.size() == 1) {
+                emitGroup(group, scope, builder);
+            } else {
+                List<Term> base = terms.subList(0, terms.size() - 1);
+                String current = compileTerms(base, scope, builder);
+                emitGroup(group, rebind(scope, current, base), builder);
+            }
+            return;
+        }
+        Definition definition = streamedDefinition(terms, scope.parameterName(), scope.definitions());
+        if (definition != null && !options.memoization().applies(definition.name())) {
+            String argument = terms.size() == 1
+                ? compileValueTerm(((Call) last).arguments().get(0), scope, builder)
+                : compileTerms(terms.subList(0, terms.size() - 1), scope, builder);
+            builder.add(emitter(definition) + "(" + argument + ", sink);");
+            return;
+        }
+        builder.add("sink.write(" + compileTerms(terms, scope, builder) + ");");
+    }
+
+    private void emitGroup(Group group, Scope scope, CodeBuilder builder) {
+        for (int i = 0; i < group.expressions().size(); i++) {
+            if (i > 0) {
+                builder.add("sink.write('\\n');");
+            }
+            emitExpression(group.expressions().get(i), scope, builder);
+        }
+    }
 
-        Path sourceDir = Path.of("build", "nalgae", "sources");
-        String relativePath = className.replace('.', '/') + ".java";
-        Path sourceFile = sourceDir.resolve(relativePath);
-        Path classesDir = Path.of("build", "nalgae", "classes");
-        String classRelativePath = className.replace('.', '/') + ".class";
-        return new SourceLayout(sb.toString(), sourceFile, classesDir, Path.of(classRelativePath));
+    private void emitArgument(Term term, Scope scope, CodeBuilder builder) {
+        emitTerms(List.of(term), scope, builder);
+    }
+
+    /**
+     * Returns the definition called by the last term of a pipeline, either as a step or as
+     * {@code f arg} on its own, or null if the last term is anything else.
+     */
+    static Definition streamedDefinition(List<Term> terms, String parameterName, Map<String, Definition> definitions) {
+        Term last = terms.get(terms.size() - 1);
+        String name;
+        if (terms.size() == 1) {
+            if (!(last instanceof Call call) || call.arguments().size() != 1) {
+                return null;
+            }
+            name = call.target();
+        } else if (last instanceof Identifier identifier && !identifier.name().equals(parameterName)) {
+            name = identifier.name();
+        } else if (last instanceof Call call && call.arguments().isEmpty()) {
+            name = call.target();
+        } else {
+            return null;
+        }
+        return BuiltinRegistry.isReserved(name) ? null : definitions.get(name);
+    }
+
+    /** Returns the name of a definition's streaming twin, queueing it for generation on first use. */
+    private String emitter(Definition definition) {
+        if (emittedDefinitions.add(definition.name())) {
+            pendingEmitters.addLast(definition);
+        }
+        return emitName(definition.name());
     }
 
     private String compileExpression(Expression expression, Scope scope, CodeBuilder builder) {
@@ -126,13 +701,49 @@ public final class ProgramCompiler {
         if (pipeline.terms().isEmpty()) {
             throw new IllegalArgumentException("Empty pipeline at line " + pipeline.line());
         }
-        String current = compileValueTerm(pipeline.terms().get(0), scope, builder);
-        for (int i = 1; i < pipeline.terms().size(); i++) {
-            current = compilePipelineStep(pipeline.terms().get(i), scope, builder, current);
+        if (options.instrumented() || !Concatenation.isFusible(pipeline.terms())) {
+            return compileTerms(pipeline.terms(), scope, builder);
+        }
+        int number = numbering.pipeline(pipeline.terms(), scope.parameterName(), scope.parameterNumber());
+        String shared = shared(number);
+        if (shared != null) {
+            return shared;
+        }
+        String result = concatenate(collectPipeline(pipeline.terms(), scope, builder), builder);
+        available.putIfAbsent(number, result);
+        return result;
+    }
+
+    /** Evaluates a pipeline, starting from the longest prefix already computed in this method. */
+    private String compileTerms(List<Term> terms, Scope scope, CodeBuilder builder) {
+        int[] numbers = numbering.prefixes(terms, scope.parameterName(), scope.parameterNumber());
+        int start = terms.size() - 1;
+        while (start > 0 && !available.containsKey(numbers[start])) {
+            start--;
+        }
+        String current = start > 0 ? shared(numbers[start]) : compileValueTerm(terms.get(0), scope, builder);
+        for (int i = start + 1; i < terms.size(); i++) {
+            current = compilePipelineStep(terms.get(i), scope, builder, current, numbers[i - 1]);
+            available.putIfAbsent(numbers[i], current);
         }
         return current;
     }
 
+    /** Returns the variable holding an already computed value, or null. */
+    private String shared(int number) {
+        String variable = available.get(number);
+        if (variable != null) {
+            sharedValues++;
+        }
+        return variable;
+    }
+
+    /** Returns the scope of a group step, whose parameter is the value of {@code base}. */
+    private Scope rebind(Scope scope, String variable, List<Term> base) {
+        int number = numbering.pipeline(base, scope.parameterName(), scope.parameterNumber());
+        return new Scope(scope.parameterName(), variable, number, scope.definitions());
+    }
+
     private String compileValueTerm(Term term, Scope scope, CodeBuilder builder) {
         if (term instanceof Identifier identifier) {
             if (identifier.name().equals(scope.parameterName())) {
@@ -141,18 +752,31 @@ public final class ProgramCompiler {
             throw error(term.line(), "Unknown identifier '" + identifier.name() + "' in value context");
         }
         if (term instanceof StringLiteral literal) {
-            return builder.newTemp(quote(literal.value()));
+            return literalField(literal);
         }
-        if (term instanceof Call call) {
-            return compileValueCall(call, scope, builder);
+        int number = numbering.value(term, scope.parameterName(), scope.parameterNumber());
+        String shared = shared(number);
+        if (shared != null) {
+            return shared;
         }
-        if (term instanceof Group) {
-            return compileGroup((Group) term, scope, builder, null);
+        String result;
+        if (term instanceof Call call) {
+            result = compileValueCall(call, scope, builder);
+        } else if (term instanceof Group group) {
+            result = concatenate(collectGroup(group, scope, builder), builder);
+        } else {
+            throw new IllegalStateException("Unhandled term: " + term);
         }
-        throw new IllegalStateException("Unhandled term: " + term);
+        available.putIfAbsent(number, result);
+        return result;
     }
 
     private String compileValueCall(Call call, Scope scope, CodeBuilder builder) {
+        if (call.target().equals(BuiltinRegistry.EACH_LINE)) {
+            String name = eachLineTarget(call, 1, scope);
+            String input = compileValueTerm(call.arguments().get(0), scope, builder);
+            return eachLine(call.line(), name, input, builder);
+        }
         BuiltinRegistry.Descriptor builtin = BuiltinRegistry.find(call.target());
         if (builtin != null) {
             if (call.arguments().size() != builtin.argCount + 1) {
@@ -162,7 +786,7 @@ public final class ProgramCompiler {
             for (Term arg : call.arguments()) {
                 args.add(compileValueTerm(arg, scope, builder));
             }
-            return builder.newTemp(buildCall("Builtins." + builtin.methodName, args));
+            return stage(call.line(), call.target(), args.get(0), buildCall("AsciiBuiltins." + builtin.methodName, args), builder);
         }
         Definition definition = scope.definitions().get(call.target());
         if (definition != null) {
@@ -170,61 +794,147 @@ public final class ProgramCompiler {
                 throw error(call.line(), "Function '" + call.target() + "' expects exactly one argument");
             }
             String argument = compileValueTerm(call.arguments().get(0), scope, builder);
-            return builder.newTemp(fnName(call.target()) + "(" + argument + ")");
+            return stage(call.line(), call.target(), argument, fnCall(call.target()) + "(" + argument + ")", builder);
         }
         throw error(call.line(), "Unknown function '" + call.target() + "'");
     }
 
-    private String compilePipelineStep(Term term, Scope scope, CodeBuilder builder, String currentVar) {
+    private String compilePipelineStep(Term term, Scope scope, CodeBuilder builder, String currentVar, int currentNumber) {
         if (term instanceof Identifier identifier) {
             if (identifier.name().equals(scope.parameterName())) {
                 throw error(term.line(), "Cannot call parameter '" + identifier.name() + "' as a function");
             }
+            if (identifier.name().equals(BuiltinRegistry.EACH_LINE)) {
+                throw error(term.line(), "Stage 'each_line' expects a definition name in pipeline context");
+            }
             BuiltinRegistry.Descriptor builtin = BuiltinRegistry.find(identifier.name());
             if (builtin != null) {
                 if (builtin.argCount != 0) {
                     throw error(term.line(), "Builtin '" + identifier.name() + "' requires arguments");
                 }
-                return builder.newTemp("Builtins." + builtin.methodName + "(" + currentVar + ")");
+                return stage(term.line(), identifier.name(), currentVar, "AsciiBuiltins." + builtin.methodName + "(" + currentVar + ")", builder);
             }
             Definition definition = scope.definitions().get(identifier.name());
             if (definition != null) {
-                return builder.newTemp(fnName(identifier.name()) + "(" + currentVar + ")");
+                return stage(term.line(), identifier.name(), currentVar, fnCall(identifier.name()) + "(" + currentVar + ")", builder);
             }
             throw error(term.line(), "Unknown function '" + identifier.name() + "'");
         }
         if (term instanceof StringLiteral literal) {
-            return builder.newTemp("Builtins.constValue(" + quote(literal.value()) + ")");
+            return literalField(literal);
         }
         if (term instanceof Call call) {
             return compilePipelineCall(call, scope, builder, currentVar);
         }
-        if (term instanceof Group) {
-            return compileGroup((Group) term, scope, builder, currentVar);
+        if (term instanceof Group group) {
+            Scope innerScope = new Scope(scope.parameterName(), currentVar, currentNumber, scope.definitions());
+            String start = startStage(builder);
+            String result = concatenate(collectGroup(group, innerScope, builder), builder);
+            endStage(start, term.line(), "{...}", currentVar, result, builder);
+            return result;
         }
         throw new IllegalStateException("Unhandled term: " + term);
     }
 
-    private String compileGroup(Group group, Scope scope, CodeBuilder builder, String pipelineValue) {
-        if (group.expressions().isEmpty()) {
-            return builder.newTemp("\"\"");
+    /**
+     * Evaluates the run-time pieces of a pipeline in source order and returns the pieces of its
+     * value. Concatenation steps and groups contribute their pieces instead of a built value.
+     */
+    private List<Part<String>> collectPipeline(List<Term> terms, Scope scope, CodeBuilder builder) {
+        if (options.instrumented() && terms.size() > 1) {
+            // Every step is a stage of its own, so nothing is fused.
+            return new ArrayList<>(List.of(Part.value(compileTerms(terms, scope, builder))));
+        }
+        int run = Concatenation.runStart(terms);
+        List<Part<String>> parts;
+        Term last = terms.get(run - 1);
+        if (run == 1 && last instanceof StringLiteral literal) {
+            parts = new ArrayList<>(List.of(Part.<String>constant(literalValue(literal))));
+        } else if (run == 1 && last instanceof Group group) {
+            parts = collectGroup(group, scope, builder);
+        } else if (last instanceof Group group) {
+            List<Term> base = terms.subList(0, run - 1);
+            String current = compileTerms(base, scope, builder);
+            parts = collectGroup(group, rebind(scope, current, base), builder);
+        } else {
+            parts = new ArrayList<>(List.of(Part.value(compileTerms(terms.subList(0, run), scope, builder))));
         }
-        Scope innerScope = pipelineValue == null
-            ? scope
-            : new Scope(scope.parameterName(), pipelineValue, scope.definitions());
-        String sbVar = builder.newTypedTemp("StringBuilder", "new StringBuilder()");
+        for (Term step : terms.subList(run, terms.size())) {
+            Call call = (Call) step;
+            List<Part<String>> first = collectArgument(call.arguments().get(0), scope, builder);
+            switch (call.target()) {
+                case "append" -> parts.addAll(first);
+                case "prepend" -> parts.addAll(0, first);
+                default -> {
+                    List<Part<String>> second = collectArgument(call.arguments().get(1), scope, builder);
+                    parts.addAll(0, first);
+                    parts.addAll(second);
+                }
+            }
+        }
+        return parts;
+    }
+
+    private List<Part<String>> collectGroup(Group group, Scope scope, CodeBuilder builder) {
+        List<Part<String>> parts = new ArrayList<>();
         for (int i = 0; i < group.expressions().size(); i++) {
+            if (i > 0) {
+                parts.add(Part.<String>constant("\n"));
+            }
             Expression expression = group.expressions().get(i);
-            String value = compileExpression(expression, innerScope, builder);
-            builder.add(sbVar + ".append(" + value + ");");
-            if (i < group.expressions().size() - 1) {
-                builder.add(sbVar + ".append('\\n');");
+            if (!(expression instanceof Pipeline pipeline) || pipeline.terms().isEmpty()) {
+                parts.add(Part.value(compileExpression(expression, scope, builder)));
+                continue;
+            }
+            parts.addAll(collectPipeline(pipeline.terms(), scope, builder));
+        }
+        return parts;
+    }
+
+    private List<Part<String>> collectArgument(Term term, Scope scope, CodeBuilder builder) {
+        if (term instanceof StringLiteral literal) {
+            return List.of(Part.<String>constant(literalValue(literal)));
+        }
+        if (term instanceof Group group) {
+            return collectGroup(group, scope, builder);
+        }
+        return List.of(Part.value(compileValueTerm(term, scope, builder)));
+    }
+
+    /** Joins the pieces with one builder sized from the constant lengths and the run-time ones. */
+    private String concatenate(List<Part<String>> pieces, CodeBuilder builder) {
+        List<Part<String>> parts = Concatenation.merge(pieces);
+        if (parts.isEmpty()) {
+            return "AsciiString.EMPTY";
+        }
+        if (parts.size() == 1) {
+            Part<String> part = parts.get(0);
+            return part.isConstant() ? literalField(part.constant()) : part.value();
+        }
+        StringBuilder capacity = new StringBuilder();
+        capacity.append(Concatenation.constantLength(parts));
+        for (Part<String> part : parts) {
+            if (!part.isConstant()) {
+                capacity.append(" + ").append(part.value()).append(".length()");
+            }
+        }
+        String sbVar = builder.newTypedTemp("AsciiString.Builder", "new AsciiString.Builder(" + capacity + ")");
+        for (Part<String> part : parts) {
+            if (!part.isConstant()) {
+                builder.add(sbVar + ".append(" + part.value() + ");");
+            } else if (part.constant().length() == 1) {
+                builder.add(sbVar + ".append(" + quoteChar(part.constant().charAt(0)) + ");");
+            } else {
+                builder.add(sbVar + ".append(" + literalField(part.constant()) + ");");
             }
         }
-        return builder.newTemp(sbVar + ".toString()");
+        return builder.newTemp(sbVar + ".build()");
     }
 
     private String compilePipelineCall(Call call, Scope scope, CodeBuilder builder, String currentVar) {
+        if (call.target().equals(BuiltinRegistry.EACH_LINE)) {
+            return eachLine(call.line(), eachLineTarget(call, 0, scope), currentVar, builder);
+        }
         BuiltinRegistry.Descriptor builtin = BuiltinRegistry.find(call.target());
         if (builtin != null) {
             if (call.arguments().size() != builtin.argCount) {
@@ -235,18 +945,75 @@ public final class ProgramCompiler {
             for (Term arg : call.arguments()) {
                 args.add(compileValueTerm(arg, scope, builder));
             }
-            return builder.newTemp(buildCall("Builtins." + builtin.methodName, args));
+            return stage(call.line(), call.target(), currentVar, buildCall("AsciiBuiltins." + builtin.methodName, args), builder);
         }
         Definition definition = scope.definitions().get(call.target());
         if (definition != null) {
             if (!call.arguments().isEmpty()) {
                 throw error(call.line(), "User function '" + call.target() + "' does not accept additional arguments in pipeline");
             }
-            return builder.newTemp(fnName(call.target()) + "(" + currentVar + ")");
+            return stage(call.line(), call.target(), currentVar, fnCall(call.target()) + "(" + currentVar + ")", builder);
         }
         throw error(call.line(), "Unknown function '" + call.target() + "'");
     }
 
+    /** Returns the definition an {@code each_line} call applies, checking it as the interpreter does. */
+    private String eachLineTarget(Call call, int values, Scope scope) {
+        String name = BuiltinRegistry.eachLineTarget(call, values);
+        if (name == null) {
+            throw error(call.line(), values == 0
+                ? "Stage 'each_line' expects a definition name in pipeline context"
+                : "Stage 'each_line' expects a value and a definition name in value context");
+        }
+        if (!scope.definitions().containsKey(name)) {
+            throw error(call.line(), "Unknown function '" + name + "'");
+        }
+        return name;
+    }
+
+    /**
+     * Applies a definition to every line of {@code input} in a loop that slices each line out of
+     * the input and appends the results to one builder, sized for output as long as the input.
+     */
+    private String eachLine(int line, String name, String input, CodeBuilder builder) {
+        String start = startStage(builder);
+        String lines = builder.newTypedTemp("AsciiString.Builder", "new AsciiString.Builder(" + input + ".length())");
+        String from = builder.newTypedTemp("int", "0");
+        String end = builder.newTypedTemp("int", "0");
+        builder.add("while (true) {");
+        builder.add("    " + end + " = " + input + ".lineEnd(" + from + ");");
+        builder.add("    " + lines + ".append(" + fnCall(name) + "(" + input + ".slice(" + from + ", " + end + ")));");
+        builder.add("    if (" + end + " == " + input + ".length()) break;");
+        builder.add("    " + lines + ".append('\\n');");
+        builder.add("    " + from + " = " + end + " + 1;");
+        builder.add("}");
+        String result = builder.newTemp(lines + ".build()");
+        endStage(start, line, BuiltinRegistry.EACH_LINE, input, result, builder);
+        return result;
+    }
+
+    /** Evaluates a builtin or definition call, counting it as a stage in instrumented classes. */
+    private String stage(int line, String name, String input, String call, CodeBuilder builder) {
+        String start = startStage(builder);
+        String result = builder.newTemp(call);
+        endStage(start, line, name, input, result, builder);
+        return result;
+    }
+
+    /** Returns the variable holding the start time of a stage, or null if nothing is counted. */
+    private String startStage(CodeBuilder builder) {
+        return options.instrumented() ? builder.newTypedTemp("long", "System.nanoTime()") : null;
+    }
+
+    private void endStage(String start, int line, String name, String input, String result, CodeBuilder builder) {
+        if (start == null) {
+            return;
+        }
+        String counter = "STAGE$" + stageCounters.size();
+        stageCounters.add(quote(currentDefinition) + ", " + line + ", " + quote(name));
+        builder.add(counter + ".record(" + start + ", " + input + ", " + result + ");");
+    }
+
     private static String buildCall(String target, List<String> arguments) {
         StringJoiner joiner = new StringJoiner(", ");
         for (String arg : arguments) {
@@ -255,6 +1022,17 @@ public final class ProgramCompiler {
         return target + "(" + joiner + ")";
     }
 
+    private static String quoteChar(char ch) {
+        return switch (ch) {
+            case '\'' -> "'\\''";
+            case '\\' -> "'\\\\'";
+            case '\n' -> "'\\n'";
+            case '\r' -> "'\\r'";
+            case '\t' -> "'\\t'";
+            default -> "'" + ch + "'";
+        };
+    }
+
     private static String quote(String value) {
         StringBuilder sb = new StringBuilder();
         sb.append('"');
@@ -273,15 +1051,57 @@ public final class ProgramCompiler {
         return sb.toString();
     }
 
+    /** Returns the constant field holding a literal, declaring it on first use. */
+    private String literalField(StringLiteral literal) {
+        return literalField(literalValue(literal));
+    }
+
+    private String literalField(String value) {
+        return literalFields.computeIfAbsent(value, key -> "LIT$" + literalFields.size());
+    }
+
+    /** Rejects memoization of definitions the program does not have. */
+    static void checkMemoized(Program program, Memoization memoization) {
+        for (String name : memoization.definitions()) {
+            if (program.definitions().stream().noneMatch(definition -> definition.name().equals(name))) {
+                throw new IllegalArgumentException("Cannot memoize unknown definition '" + name + "'");
+            }
+        }
+    }
+
+    /** Validates a literal once at compile time so the runtime never has to re-check it. */
+    static String literalValue(StringLiteral literal) {
+        try {
+            return Builtins.requireAscii(literal.value());
+        } catch (IllegalArgumentException ex) {
+            throw new RuntimeException("[line " + literal.line() + "] Non-ASCII character in string literal");
+        }
+    }
+
     private RuntimeException error(int line, String message) {
         return new RuntimeException("[line " + line + "] " + message);
     }
 
+    /** Returns the method a definition compiles to, qualified when another class declares it. */
+    private String fnCall(String name) {
+        String owner = owners.get(name);
+        return owner == null ? fnName(name) : owner.substring(owner.lastIndexOf('.') + 1) + "." + fnName(name);
+    }
+
     private static String fnName(String name) {
         return "fn_" + name;
     }
 
-    private record Scope(String parameterName, String parameterVariable, Map<String, Definition> definitions) {}
+    private static String memoName(String name) {
+        return "MEMO$" + name;
+    }
+
+    private static String emitName(String name) {
+        return "emit_" + name;
+    }
+
+    /** One class of a split program, with the definitions it calls in other classes. */
+    private record Unit(String className, List<Definition> definitions, Map<String, String> callees, boolean entryPoints, String cacheKey) {}
 
-    private record SourceLayout(String source, Path sourceFile, Path classesDir, Path classRelativePath) {}
+    private record Scope(String parameterName, String parameterVariable, int parameterNumber, Map<String, Definition> definitions) {}
 }
@@ -0,0 +1,104 @@
+package nalgae.compiler;
+
+import nalgae.ast.*;
+
+/**
+ * Formats a program as nalgae source, used to show what {@link Optimizer} produced. Line numbers
+ * and comments are not preserved.
+ */
+public final class ProgramPrinter {
+    private static final String INDENT = "  ";
+
+    private ProgramPrinter() {}
+
+    public static String print(Program program) {
+        StringBuilder sb = new StringBuilder();
+        for (Definition definition : program.definitions()) {
+            sb.append("def ").append(definition.name()).append('(').append(definition.parameter()).append(") = ");
+            expression(definition.body(), sb, 0);
+            sb.append("\n\n");
+        }
+        expression(program.expression(), sb, 0);
+        return sb.append('\n').toString();
+    }
+
+    static String term(Term term) {
+        StringBuilder sb = new StringBuilder();
+        term(term, sb, 0);
+        return sb.toString();
+    }
+
+    private static void expression(Expression expression, StringBuilder sb, int depth) {
+        Pipeline pipeline = (Pipeline) expression;
+        for (int i = 0; i < pipeline.terms().size(); i++) {
+            if (i > 0) {
+                sb.append(" | ");
+            }
+            term(pipeline.terms().get(i), sb, depth);
+        }
+    }
+
+    private static void term(Term term, StringBuilder sb, int depth) {
+        if (term instanceof Identifier identifier) {
+            sb.append(identifier.name());
+        } else if (term instanceof StringLiteral literal) {
+            literal(literal.value(), sb);
+        } else if (term instanceof Call call) {
+            sb.append(call.target());
+            for (Term argument : call.arguments()) {
+                sb.append(' ');
+                if (argument instanceof Call) {
+                    // A call argument would swallow the arguments after it; a one-section group does not.
+                    sb.append("{ ");
+                    term(argument, sb, depth);
+                    sb.append(" }");
+                } else {
+                    term(argument, sb, depth);
+                }
+            }
+        } else if (term instanceof Group group) {
+            if (group.expressions().isEmpty()) {
+                sb.append("{}");
+                return;
+            }
+            sb.append("{\n");
+            for (Expression expression : group.expressions()) {
+                sb.append(INDENT.repeat(depth + 1));
+                expression(expression, sb, depth + 1);
+                sb.append('\n');
+            }
+            sb.append(INDENT.repeat(depth)).append('}');
+        }
+    }
+
+    /**
+     * Quotes a literal. nalgae strings have no escapes, so a value that fits none of the three
+     * quoting styles is split into pieces that do and rebuilt with {@code append} inside a group.
+     */
+    private static void literal(String value, StringBuilder sb) {
+        if (value.indexOf('\n') < 0 && value.indexOf('"') < 0) {
+            sb.append('"').append(value).append('"');
+        } else if (value.indexOf('\n') < 0 && value.indexOf('\'') < 0) {
+            sb.append('\'').append(value).append('\'');
+        } else if ((value + "\"\"\"").indexOf("\"\"\"") == value.length()) {
+            sb.append("\"\"\"").append(value).append("\"\"\"");
+        } else {
+            sb.append("{ ");
+            int start = 0;
+            while (start < value.length()) {
+                boolean quotes = value.charAt(start) == '"';
+                int end = start;
+                while (end < value.length() && (value.charAt(end) == '"') == quotes) {
+                    end++;
+                }
+                if (start > 0) {
+                    sb.append(" | append ");
+                }
+                String piece = value.substring(start, end);
+                sb.append(quotes ? "'" + piece + "'" : "\"\"\"" + piece + "\"\"\"");
+                start = end;
+            }
+            sb.append(" }");
+        }
+    }
+}
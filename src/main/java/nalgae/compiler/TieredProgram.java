@@ -0,0 +1,78 @@
+package nalgae.compiler;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Starts a program on the {@link Interpreter} and promotes it to compiled bytecode once it has
+ * been invoked {@code threshold} times.
+ *
+ * <p>Compilation runs on a background thread while callers keep using the interpreter; the
+ * compiled function is then published through a volatile field, so every call sees one tier or
+ * the other in full. If compilation fails the program simply stays interpreted.
+ */
+public final class TieredProgram implements Function<String, String> {
+    public static final long DEFAULT_THRESHOLD = 1000;
+
+    private static final Executor COMPILER_THREAD = Executors.newSingleThreadExecutor(
+        Thread.ofPlatform().name("nalgae-tier-compiler").daemon().factory());
+
+    private final Callable<Function<String, String>> compiler;
+    private final long threshold;
+    private final Executor executor;
+    private final AtomicLong invocations = new AtomicLong();
+    private final AtomicBoolean promotionStarted = new AtomicBoolean();
+    private volatile Function<String, String> current;
+    private volatile boolean compiled;
+    private volatile Throwable failure;
+
+    public TieredProgram(Function<String, String> interpreted, Callable<Function<String, String>> compiler, long threshold) {
+        this(interpreted, compiler, threshold, COMPILER_THREAD);
+    }
+
+    public TieredProgram(Function<String, String> interpreted, Callable<Function<String, String>> compiler, long threshold, Executor executor) {
+        this.current = interpreted;
+        this.compiler = compiler;
+        this.threshold = threshold;
+        this.executor = executor;
+        if (threshold <= 0) {
+            promote();
+        }
+    }
+
+    @Override
+    public String apply(String input) {
+        Function<String, String> function = current;
+        if (!promotionStarted.get() && invocations.incrementAndGet() >= threshold) {
+            promote();
+        }
+        return function.apply(input);
+    }
+
+    public boolean isCompiled() {
+        return compiled;
+    }
+
+    /** Returns why the compiled tier could not be built, or {@code null}. */
+    public Throwable failure() {
+        return failure;
+    }
+
+    private void promote() {
+        if (!promotionStarted.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                current = compiler.call();
+                compiled = true;
+            } catch (Throwable ex) {
+                failure = ex;
+            }
+        });
+    }
+}
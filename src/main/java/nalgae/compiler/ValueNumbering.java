@@ -0,0 +1,160 @@
+package nalgae.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import nalgae.ast.*;
+
+/**
+ * Numbers the values a method computes so that the code generators evaluate each distinct
+ * sub-expression once. Two values get the same number when the same builtins and definitions
+ * compute them from the same literals and the same binding of the parameter, wherever they
+ * appear in the source.
+ *
+ * <p>Builtins and definitions have no side effects. A value whose number was already computed
+ * earlier in a method therefore completed without failing, and reusing it cannot be told apart
+ * from evaluating it again. Generated methods are straight-line code, so every earlier value is
+ * still in scope.
+ */
+final class ValueNumbering {
+    /** Number of the parameter of the method being generated. */
+    static final int PARAMETER = 0;
+
+    private final Map<List<Object>, Integer> numbers = new HashMap<>();
+    private final Map<Integer, Map<Term, Integer>> values = new HashMap<>();
+    private final Map<Integer, Map<Term, int[]>> pipelines = new HashMap<>();
+
+    ValueNumbering() {
+        numbers.put(List.of("parameter"), PARAMETER);
+    }
+
+    /** Returns the number of each prefix of a pipeline: element {@code i} covers terms 0 to i. */
+    int[] prefixes(List<Term> terms, String parameterName, int binding) {
+        Map<Term, int[]> cache = pipelines.computeIfAbsent(binding, key -> new IdentityHashMap<>());
+        int[] cached = cache.get(terms.get(0));
+        if (cached != null && cached.length >= terms.size()) {
+            return cached;
+        }
+        int[] result = new int[terms.size()];
+        result[0] = value(terms.get(0), parameterName, binding);
+        for (int i = 1; i < result.length; i++) {
+            result[i] = step(terms.get(i), result[i - 1], parameterName, binding);
+        }
+        cache.put(terms.get(0), result);
+        return result;
+    }
+
+    int pipeline(List<Term> terms, String parameterName, int binding) {
+        return prefixes(terms, parameterName, binding)[terms.size() - 1];
+    }
+
+    int value(Term term, String parameterName, int binding) {
+        if (term instanceof Identifier identifier) {
+            return identifier.name().equals(parameterName) ? binding : intern(List.of("unknown", identifier.name()));
+        }
+        if (term instanceof StringLiteral literal) {
+            return intern(List.of("literal", literal.value()));
+        }
+        Map<Term, Integer> cache = values.computeIfAbsent(binding, key -> new IdentityHashMap<>());
+        Integer cached = cache.get(term);
+        if (cached != null) {
+            return cached;
+        }
+        List<Object> key = new ArrayList<>();
+        if (term instanceof Call call) {
+            key.add("call");
+            key.add(call.target());
+            for (Term argument : call.arguments()) {
+                key.add(value(argument, parameterName, binding));
+            }
+        } else {
+            key.add("group");
+            for (Expression section : ((Group) term).expressions()) {
+                key.add(expression(section, parameterName, binding));
+            }
+        }
+        int number = intern(key);
+        cache.put(term, number);
+        return number;
+    }
+
+    /**
+     * Returns the numbers that occur more than once in a method body. Only those values need to
+     * be kept once computed.
+     */
+    Set<Integer> repeated(Expression body, String parameterName) {
+        Set<Integer> seen = new HashSet<>();
+        Set<Integer> repeated = new HashSet<>();
+        countExpression(body, parameterName, PARAMETER, seen, repeated);
+        return repeated;
+    }
+
+    private int step(Term term, int current, String parameterName, int binding) {
+        List<Object> key = new ArrayList<>();
+        key.add("step");
+        key.add(current);
+        if (term instanceof StringLiteral literal) {
+            key.add(value(literal, parameterName, binding));
+        } else if (term instanceof Identifier identifier) {
+            key.add(identifier.name());
+        } else if (term instanceof Call call) {
+            key.add(call.target());
+            for (Term argument : call.arguments()) {
+                key.add(value(argument, parameterName, binding));
+            }
+        } else {
+            key.add(value(term, parameterName, current));
+        }
+        return intern(key);
+    }
+
+    private int expression(Expression expression, String parameterName, int binding) {
+        if (expression instanceof Pipeline pipeline && !pipeline.terms().isEmpty()) {
+            return pipeline(pipeline.terms(), parameterName, binding);
+        }
+        return intern(List.of("empty"));
+    }
+
+    private int intern(List<Object> key) {
+        Integer number = numbers.get(key);
+        if (number == null) {
+            number = numbers.size();
+            numbers.put(key, number);
+        }
+        return number;
+    }
+
+    private void countExpression(Expression expression, String parameterName, int binding, Set<Integer> seen, Set<Integer> repeated) {
+        if (!(expression instanceof Pipeline pipeline) || pipeline.terms().isEmpty()) {
+            return;
+        }
+        List<Term> terms = pipeline.terms();
+        int[] prefixes = prefixes(terms, parameterName, binding);
+        for (int i = 0; i < terms.size(); i++) {
+            if (!seen.add(prefixes[i])) {
+                repeated.add(prefixes[i]);
+            }
+            Term term = terms.get(i);
+            if (term instanceof Call call) {
+                for (Term argument : call.arguments()) {
+                    countValue(argument, parameterName, binding, seen, repeated);
+                }
+            } else if (term instanceof Group group) {
+                int groupBinding = i == 0 ? binding : prefixes[i - 1];
+                for (Expression section : group.expressions()) {
+                    countExpression(section, parameterName, groupBinding, seen, repeated);
+                }
+            }
+        }
+    }
+
+    private void countValue(Term term, String parameterName, int binding, Set<Integer> seen, Set<Integer> repeated) {
+        if (term instanceof Call || term instanceof Group) {
+            countExpression(new Pipeline(List.of(term), 0), parameterName, binding, seen, repeated);
+        }
+    }
+}
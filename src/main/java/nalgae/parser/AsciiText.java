@@ -0,0 +1,107 @@
+package nalgae.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads ASCII bytes as characters without decoding them, so that {@link Lexer} can run directly
+ * over a buffer, including one mapped from a file. Indices are relative to the buffer's position
+ * when the view was made; the buffer's own position is never moved.
+ *
+ * <p>Characters are served from a small window that is refilled by bulk copies as reads move
+ * through the buffer, because reading a direct buffer one byte at a time costs several calls per
+ * byte until the JIT has compiled them away. Each window is checked as it is filled; a read that
+ * brings a non-ASCII byte into it throws {@link NotAscii}, and the caller goes on with
+ * {@link #decode}. Every byte before that one is ASCII, so up to there an index in the view is
+ * also an index in the decoded text. A view is not safe for concurrent use.
+ */
+final class AsciiText implements CharSequence {
+    private static final int WINDOW = 16 * 1024;
+    /** How far before a read the window starts, so that re-reading a token stays inside it. */
+    private static final int LOOKBEHIND = 256;
+
+    /** Thrown by {@link #charAt} once the bytes turn out not to be all ASCII. */
+    static final class NotAscii extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        NotAscii() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final ByteBuffer bytes;
+    private final int base;
+    private final int length;
+    private final byte[] window = new byte[WINDOW];
+    private int windowStart;
+    private int windowLength;
+
+    AsciiText(ByteBuffer bytes) {
+        this.bytes = bytes;
+        this.base = bytes.position();
+        this.length = bytes.remaining();
+    }
+
+    /**
+     * Decodes all of the bytes as UTF-8.
+     *
+     * @throws IllegalArgumentException if they are not valid UTF-8
+     */
+    String decode() {
+        try {
+            return StandardCharsets.UTF_8.newDecoder().decode(bytes.slice(base, length)).toString();
+        } catch (CharacterCodingException ex) {
+            throw new IllegalArgumentException("Source is not valid UTF-8", ex);
+        }
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        int offset = index - windowStart;
+        if (offset < 0 || offset >= windowLength) {
+            offset = slide(index);
+        }
+        return (char) window[offset];
+    }
+
+    /** Moves the window so that it holds {@code index}, and returns where in it that is. */
+    private int slide(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        int start = Math.max(0, index - LOOKBEHIND);
+        int count = Math.min(WINDOW, length - start);
+        bytes.get(base + start, window, 0, count);
+        // Any byte with its high bit set makes the union negative.
+        int union = 0;
+        for (int i = 0; i < count; i++) {
+            union |= window[i];
+        }
+        if (union < 0) {
+            windowLength = 0;
+            throw new NotAscii();
+        }
+        windowStart = start;
+        windowLength = count;
+        return index - start;
+    }
+
+    /** Copies the characters between {@code start} and {@code end} into a new string. */
+    @Override
+    public String subSequence(int start, int end) {
+        byte[] copy = new byte[end - start];
+        bytes.get(base + start, copy);
+        return new String(copy, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length);
+    }
+}
@@ -0,0 +1,231 @@
+package nalgae.parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import nalgae.ast.*;
+
+/**
+ * Parses successive versions of one source file, re-lexing and re-parsing only what an edit
+ * touched.
+ *
+ * <p>The source is cut into sections at every top-level {@code def}, so that each section holds
+ * one definition, and the last one also the main expression. After an edit, lexing restarts at
+ * the section the edit begins in and continues until it reaches, past the edit, a {@code def} at
+ * the start of an old section; from there on the text and therefore the tokens are unchanged.
+ * Only the re-lexed sections are parsed again. The others keep their definitions, with line
+ * numbers moved by the number of lines the edit added or removed.
+ *
+ * <p>Whenever the edited version does not lex or parse, it is parsed again from the beginning by
+ * {@link Lexer} and {@link Parser}, so errors are reported exactly as they are for a full parse.
+ */
+public final class IncrementalParser {
+    private String source;
+    private List<Section> sections;
+    private Update lastUpdate;
+
+    /**
+     * What the last call to {@link #parse} did.
+     *
+     * @param incremental whether earlier sections were reused
+     * @param relexedChars characters lexed again
+     * @param reparsedDefinitions definitions parsed again
+     * @param definitions definitions in the program
+     */
+    public record Update(boolean incremental, int relexedChars, int reparsedDefinitions, int definitions) {
+        @Override
+        public String toString() {
+            return (incremental ? "incremental" : "full") + " relexed=" + relexedChars
+                + " reparsed=" + reparsedDefinitions + "/" + definitions;
+        }
+    }
+
+    /** A top-level section of the source: where it starts, and what it parsed to. */
+    private record Section(int start, int line, List<Definition> definitions, Expression expression) {}
+
+    /** Parses {@code newSource}, reusing what it shares with the source of the previous call. */
+    public Program parse(String newSource) {
+        if (sections != null) {
+            try {
+                Program program = reparse(newSource);
+                source = newSource;
+                return program;
+            } catch (RuntimeException ex) {
+                // The edit breaks the program; report it as a full parse would.
+            }
+        }
+        return parseFully(newSource);
+    }
+
+    public Update lastUpdate() {
+        if (lastUpdate == null) {
+            throw new IllegalStateException("Nothing has been parsed");
+        }
+        return lastUpdate;
+    }
+
+    private Program parseFully(String newSource) {
+        source = null;
+        sections = null;
+        List<Section> parsed;
+        try {
+            List<Token> tokens = new Lexer(newSource).tokenize();
+            parsed = parseSections(tokens.subList(0, tokens.size() - 1), 0, 1, true);
+        } catch (RuntimeException ex) {
+            return new Parser(new Lexer(newSource)).parseProgram();
+        }
+        source = newSource;
+        sections = parsed;
+        Program program = program();
+        lastUpdate = new Update(false, newSource.length(), program.definitions().size(), program.definitions().size());
+        return program;
+    }
+
+    private Program reparse(String newSource) {
+        int prefix = 0;
+        int limit = Math.min(source.length(), newSource.length());
+        while (prefix < limit && source.charAt(prefix) == newSource.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < limit - prefix
+                && source.charAt(source.length() - 1 - suffix) == newSource.charAt(newSource.length() - 1 - suffix)) {
+            suffix++;
+        }
+        int oldEditEnd = source.length() - suffix;
+        int delta = newSource.length() - source.length();
+
+        int first = 0;
+        while (first + 1 < sections.size() && sections.get(first + 1).start() < prefix) {
+            first++;
+        }
+        Map<Integer, Integer> oldStarts = new HashMap<>();
+        for (int i = first + 1; i < sections.size(); i++) {
+            oldStarts.put(sections.get(i).start(), i);
+        }
+
+        Section restart = sections.get(first);
+        Lexer lexer = new Lexer(newSource, restart.start(), restart.line());
+        List<Token> tokens = new ArrayList<>();
+        int resumeAt = sections.size();
+        int stop = newSource.length();
+        int lineDelta = 0;
+        for (Token token = lexer.next(); token != null; token = lexer.next()) {
+            if (token.type == TokenType.DEF && token.offset - delta >= oldEditEnd) {
+                Integer old = oldStarts.get(token.offset - delta);
+                if (old != null) {
+                    resumeAt = old;
+                    stop = token.offset;
+                    lineDelta = token.line - sections.get(old).line();
+                    break;
+                }
+            }
+            tokens.add(token);
+        }
+        if (first > 0 && (tokens.isEmpty() || tokens.get(0).type != TokenType.DEF || tokens.get(0).offset != restart.start())) {
+            throw new IllegalStateException("Edit removes the start of a definition");
+        }
+        boolean last = resumeAt == sections.size();
+        List<Section> replaced = parseSections(tokens, restart.start(), restart.line(), last);
+
+        List<Section> updated = new ArrayList<>(sections.subList(0, first));
+        updated.addAll(replaced);
+        for (Section section : sections.subList(resumeAt, sections.size())) {
+            updated.add(lineDelta == 0 && delta == 0 ? section : shift(section, delta, lineDelta));
+        }
+        sections = updated;
+        Program program = program();
+        int reparsed = 0;
+        for (Section section : replaced) {
+            reparsed += section.definitions().size();
+        }
+        lastUpdate = new Update(true, stop - restart.start(), reparsed, program.definitions().size());
+        return program;
+    }
+
+    /**
+     * Cuts tokens into sections at each {@code def} and parses them. The first section starts at
+     * {@code start}, even when it does not begin with a {@code def}.
+     */
+    private static List<Section> parseSections(List<Token> tokens, int start, int line, boolean last) {
+        List<List<Token>> pieces = new ArrayList<>();
+        List<Integer> starts = new ArrayList<>();
+        List<Integer> lines = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            if (pieces.isEmpty() || (token.type == TokenType.DEF && i > 0)) {
+                pieces.add(new ArrayList<>());
+                starts.add(pieces.size() == 1 ? start : token.offset);
+                lines.add(pieces.size() == 1 ? line : token.line);
+            }
+            pieces.get(pieces.size() - 1).add(token);
+        }
+        if (pieces.isEmpty()) {
+            pieces.add(new ArrayList<>());
+            starts.add(start);
+            lines.add(line);
+        }
+        List<Section> sections = new ArrayList<>();
+        for (int i = 0; i < pieces.size(); i++) {
+            List<Token> piece = pieces.get(i);
+            int endLine = piece.isEmpty() ? lines.get(i) : piece.get(piece.size() - 1).line;
+            piece.add(new Token(TokenType.EOF, "", endLine, -1));
+            Program parsed = new Parser(piece).parseSection(last && i == pieces.size() - 1);
+            sections.add(new Section(starts.get(i), lines.get(i), parsed.definitions(), parsed.expression()));
+        }
+        return sections;
+    }
+
+    private Program program() {
+        List<Definition> definitions = new ArrayList<>();
+        for (Section section : sections) {
+            definitions.addAll(section.definitions());
+        }
+        return new Program(definitions, sections.get(sections.size() - 1).expression());
+    }
+
+    private static Section shift(Section section, int delta, int lineDelta) {
+        if (lineDelta == 0) {
+            return new Section(section.start() + delta, section.line(), section.definitions(), section.expression());
+        }
+        List<Definition> definitions = new ArrayList<>();
+        for (Definition definition : section.definitions()) {
+            definitions.add(new Definition(definition.name(), definition.parameter(),
+                shift(definition.body(), lineDelta), definition.line() + lineDelta));
+        }
+        Expression expression = section.expression() == null ? null : shift(section.expression(), lineDelta);
+        return new Section(section.start() + delta, section.line() + lineDelta, definitions, expression);
+    }
+
+    private static Expression shift(Expression expression, int lineDelta) {
+        Pipeline pipeline = (Pipeline) expression;
+        List<Term> terms = new ArrayList<>();
+        for (Term term : pipeline.terms()) {
+            terms.add(shift(term, lineDelta));
+        }
+        return new Pipeline(terms, pipeline.line() + lineDelta);
+    }
+
+    private static Term shift(Term term, int lineDelta) {
+        if (term instanceof Identifier identifier) {
+            return new Identifier(identifier.name(), identifier.line() + lineDelta);
+        }
+        if (term instanceof StringLiteral literal) {
+            return new StringLiteral(literal.value(), literal.line() + lineDelta);
+        }
+        if (term instanceof Call call) {
+            List<Term> arguments = new ArrayList<>();
+            for (Term argument : call.arguments()) {
+                arguments.add(shift(argument, lineDelta));
+            }
+            return new Call(call.target(), arguments, call.line() + lineDelta);
+        }
+        Group group = (Group) term;
+        List<Expression> expressions = new ArrayList<>();
+        for (Expression expression : group.expressions()) {
+            expressions.add(shift(expression, lineDelta));
+        }
+        return new Group(expressions, group.line() + lineDelta);
+    }
+}
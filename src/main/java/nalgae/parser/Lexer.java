@@ -1,59 +1,132 @@
 package nalgae.parser;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import nalgae.runtime.AsciiScan;
 
+/**
+ * Turns source text into tokens, one at a time on demand through {@link Parser#Parser(Lexer)}, or
+ * all at once through {@link #tokenize}.
+ *
+ * <p>A lexer over a {@link ByteBuffer} reads the bytes in place for as long as they are ASCII,
+ * which is what a source file mapped into memory usually is, and decodes them as UTF-8 from the
+ * first byte that is not. Identifiers are interned per lexer, and string literals are left in the
+ * source until the parser asks for their text, so lexing allocates little beyond the tokens.
+ */
 public final class Lexer {
-    private final String source;
-    private int position = 0;
-    private int line = 1;
+    private CharSequence source;
+    private int position;
+    private int line;
+    private int tokens;
+    private String[] names = new String[64];
+    private int nameCount;
 
     public Lexer(String source) {
+        this(source, 0, 1);
+    }
+
+    /**
+     * Lexes the bytes of {@code source} between its position and limit, which must be UTF-8. The
+     * buffer's position is left where it is.
+     *
+     * @throws IllegalArgumentException once lexing reaches bytes that are not valid UTF-8
+     */
+    public Lexer(ByteBuffer source) {
+        this(new AsciiText(source), 0, 1);
+    }
+
+    /**
+     * Starts lexing at {@code position}, on {@code line}. The position must be one the lexer
+     * reaches between two tokens when it starts from the beginning.
+     */
+    Lexer(CharSequence source, int position, int line) {
         this.source = source;
+        this.position = position;
+        this.line = line;
     }
 
     public List<Token> tokenize() {
         List<Token> tokens = new ArrayList<>();
-        while (!isAtEnd()) {
-            skipWhitespace();
-            if (isAtEnd()) {
-                break;
-            }
-            int start = position;
-            int tokenLine = line;
-            char ch = advance();
-            switch (ch) {
-                case '"' -> {
-                    if (!isAtEnd() && peek() == '"' && peekNext() == '"') {
-                        advance();
-                        advance();
-                        tokens.add(readMultilineString(tokenLine));
-                    } else {
-                        tokens.add(readString('"', tokenLine));
-                    }
+        for (Token token = next(); token != null; token = next()) {
+            tokens.add(token);
+        }
+        tokens.add(eof());
+        return tokens;
+    }
+
+    /** Returns the number of tokens produced so far, not counting the end of input. */
+    public int tokenCount() {
+        return tokens;
+    }
+
+    /** Returns the next token, or {@code null} once only whitespace and comments remain. */
+    Token next() {
+        while (true) {
+            int resume = position;
+            int resumeLine = line;
+            try {
+                Token token = scan();
+                if (token != null) {
+                    tokens++;
+                    return token;
                 }
-                case '\'' -> tokens.add(readString('\'', tokenLine));
-                case '(' -> tokens.add(new Token(TokenType.LPAREN, "(", line));
-                case ')' -> tokens.add(new Token(TokenType.RPAREN, ")", line));
-                case '=' -> tokens.add(new Token(TokenType.EQUAL, "=", line));
-                case '{' -> tokens.add(new Token(TokenType.LBRACE, "{", line));
-                case '}' -> tokens.add(new Token(TokenType.RBRACE, "}", line));
-                case '|' -> tokens.add(new Token(TokenType.PIPE, "|", line));
-                case ';' -> tokens.add(new Token(TokenType.SEMICOLON, ";", line));
-                case '#' -> skipComment();
-                default -> {
-                    if (isIdentifierStart(ch)) {
-                        String ident = readIdentifier(start);
-                        TokenType type = ident.equals("def") ? TokenType.DEF : TokenType.IDENTIFIER;
-                        tokens.add(new Token(type, ident, tokenLine));
-                    } else {
-                        throw error("Unexpected character '" + ch + "'");
-                    }
+                if (isAtEnd()) {
+                    return null;
                 }
+            } catch (AsciiText.NotAscii ex) {
+                // Nothing before the offending byte has a different offset once decoded.
+                source = ((AsciiText) source).decode();
+                position = resume;
+                line = resumeLine;
             }
         }
-        tokens.add(new Token(TokenType.EOF, "", line));
-        return tokens;
+    }
+
+    /** Reads one token, or returns {@code null} after a comment or at the end of input. */
+    private Token scan() {
+        skipWhitespace();
+        if (isAtEnd()) {
+            return null;
+        }
+        int start = position;
+        int tokenLine = line;
+        char ch = advance();
+        return switch (ch) {
+            case '"' -> {
+                if (!isAtEnd() && peek() == '"' && peekNext() == '"') {
+                    advance();
+                    advance();
+                    yield readMultilineString(start, tokenLine);
+                }
+                yield readString('"', start, tokenLine);
+            }
+            case '\'' -> readString('\'', start, tokenLine);
+            case '(' -> new Token(TokenType.LPAREN, "(", line, start);
+            case ')' -> new Token(TokenType.RPAREN, ")", line, start);
+            case '=' -> new Token(TokenType.EQUAL, "=", line, start);
+            case '{' -> new Token(TokenType.LBRACE, "{", line, start);
+            case '}' -> new Token(TokenType.RBRACE, "}", line, start);
+            case '|' -> new Token(TokenType.PIPE, "|", line, start);
+            case ';' -> new Token(TokenType.SEMICOLON, ";", line, start);
+            case '#' -> {
+                skipComment();
+                yield null;
+            }
+            default -> {
+                if (!isIdentifierStart(ch)) {
+                    throw error("Unexpected character '" + ch + "'");
+                }
+                String ident = readIdentifier(start);
+                TokenType type = ident.equals("def") ? TokenType.DEF : TokenType.IDENTIFIER;
+                yield new Token(type, ident, tokenLine, start);
+            }
+        };
+    }
+
+    /** Returns the end-of-input token for the current position. */
+    Token eof() {
+        return new Token(TokenType.EOF, "", line, position);
     }
 
     private void skipWhitespace() {
@@ -76,12 +149,11 @@ public final class Lexer {
         }
     }
 
-    private Token readString(char quote, int startLine) {
-        StringBuilder sb = new StringBuilder();
+    private Token readString(char quote, int start, int startLine) {
         while (!isAtEnd()) {
             char ch = advance();
             if (ch == quote) {
-                return new Token(TokenType.STRING, sb.toString(), startLine);
+                return new Token(TokenType.STRING, source, start + 1, position - 1, startLine, start);
             }
             if (ch == '\n') {
                 throw error("Unterminated string literal");
@@ -89,36 +161,91 @@ public final class Lexer {
             if (!isAsciiAllowed(ch)) {
                 throw error("Non-ASCII character in string literal");
             }
-            sb.append(ch);
         }
         throw error("Unterminated string literal");
     }
 
-    private Token readMultilineString(int startLine) {
-        StringBuilder sb = new StringBuilder();
+    private Token readMultilineString(int start, int startLine) {
         while (!isAtEnd()) {
             char ch = advance();
             if (ch == '"' && match('"') && match('"')) {
-                return new Token(TokenType.STRING, sb.toString(), startLine);
+                return new Token(TokenType.STRING, source, start + 3, position - 3, startLine, start);
             }
             if (!isAsciiAllowed(ch)) {
                 throw error("Non-ASCII character in string literal");
             }
             if (ch == '\n') {
-                sb.append('\n');
                 line++;
-            } else {
-                sb.append(ch);
             }
         }
         throw error("Unterminated multi-line string literal");
     }
 
     private String readIdentifier(int start) {
+        int hash = source.charAt(start);
         while (!isAtEnd() && isIdentifierPart(peek())) {
-            advance();
+            hash = 31 * hash + advance();
+        }
+        return intern(start, position, hash);
+    }
+
+    /**
+     * Returns the one string this lexer uses for the name between {@code start} and {@code end},
+     * whose {@link String#hashCode} is {@code hash}. Names repeat throughout a program, so most
+     * identifiers are found in the table and never copied out of the source.
+     */
+    private String intern(int start, int end, int hash) {
+        int mask = names.length - 1;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            String name = names[slot];
+            if (name == null) {
+                name = source.subSequence(start, end).toString();
+                names[slot] = name;
+                if (++nameCount * 2 > names.length) {
+                    grow();
+                }
+                return name;
+            }
+            if (name.hashCode() == hash && sameText(name, start, end)) {
+                return name;
+            }
+        }
+    }
+
+    private boolean sameText(String name, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != source.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void grow() {
+        String[] old = names;
+        names = new String[old.length * 2];
+        int mask = names.length - 1;
+        for (String name : old) {
+            if (name != null) {
+                int slot = spread(name.hashCode()) & mask;
+                while (names[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                names[slot] = name;
+            }
         }
-        return source.substring(start, position);
+    }
+
+    /**
+     * Scrambles a string hash before it picks a slot. Names such as {@code f1} to {@code f999}
+     * have consecutive hashes, which would otherwise fill runs of adjacent slots.
+     */
+    private static int spread(int hash) {
+        int mixed = hash * 0x9E3779B9;
+        return mixed ^ (mixed >>> 16);
     }
 
     private boolean isIdentifierStart(char ch) {
@@ -130,8 +257,7 @@ public final class Lexer {
     }
 
     private boolean isAsciiAllowed(char ch) {
-        int code = ch;
-        return code == 0x09 || code == 0x0A || code == 0x0D || (code >= 0x20 && code <= 0x7E);
+        return AsciiScan.isAllowed(ch);
     }
 
     private boolean match(char expected) {
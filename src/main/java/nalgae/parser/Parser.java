@@ -1,74 +1,122 @@
 package nalgae.parser;
 
-import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.Supplier;
 import nalgae.ast.*;
 
+/**
+ * Builds a {@link Program} from tokens. The parser looks at one token past the last one it
+ * consumed and never goes back further than that, so it holds only those two; tokens can come
+ * from a list or straight from a {@link Lexer} as it reads the source.
+ */
 public final class Parser {
-    private final List<Token> tokens;
-    private int current = 0;
+    private final Supplier<Token> tokens;
+    private final FlatProgram.Builder nodes = new FlatProgram.Builder();
+    private Token current;
+    private Token previous;
 
+    /** Parses a list of tokens ending with the end of input, as made by {@link Lexer#tokenize}. */
     public Parser(List<Token> tokens) {
-        this.tokens = tokens;
+        Iterator<Token> iterator = tokens.iterator();
+        this.tokens = iterator::next;
+        this.current = iterator.next();
     }
 
+    /** Parses tokens as {@code lexer} produces them, without collecting them first. */
+    public Parser(Lexer lexer) {
+        this.tokens = () -> {
+            Token token = lexer.next();
+            return token != null ? token : lexer.eof();
+        };
+        this.current = tokens.get();
+    }
+
+    /** Parses a whole program into {@link Program} records. */
     public Program parseProgram() {
-        List<Definition> definitions = new ArrayList<>();
+        return parseFlat().toProgram();
+    }
+
+    /**
+     * Parses a whole program into its compact form, which holds the syntax tree in a few arrays
+     * instead of one object per node.
+     */
+    public FlatProgram parseFlat() {
         while (match(TokenType.DEF)) {
-            definitions.add(parseDefinition());
+            parseDefinition();
         }
-        Expression expression = parseExpression();
+        int expression = parseExpression();
         consume(TokenType.EOF, "Expected end of input");
-        return new Program(definitions, expression);
+        return nodes.build(expression);
     }
 
-    private Definition parseDefinition() {
+    /**
+     * Parses the tokens of one top-level section of a program, as cut by
+     * {@link IncrementalParser}: definitions, followed by the main expression when {@code last}.
+     * The expression of the returned program is {@code null} otherwise.
+     */
+    Program parseSection(boolean last) {
+        while (match(TokenType.DEF)) {
+            parseDefinition();
+        }
+        int expression = last ? parseExpression() : -1;
+        consume(TokenType.EOF, "Expected end of input");
+        return nodes.build(expression).toProgram();
+    }
+
+    private void parseDefinition() {
         Token name = consume(TokenType.IDENTIFIER, "Expected function name");
+        if (name.lexeme().equals("each_line")) {
+            // Every call to the name would run the each_line stage instead of the definition.
+            throw error(name, "'each_line' is a stage and cannot be defined");
+        }
         consume(TokenType.LPAREN, "Expected '('");
         Token param = consume(TokenType.IDENTIFIER, "Expected parameter name");
         consume(TokenType.RPAREN, "Expected ')'");
         Token eq = consume(TokenType.EQUAL, "Expected '='");
-        Expression body = parseExpression();
-        return new Definition(name.lexeme, param.lexeme, body, eq.line);
+        int body = parseExpression();
+        nodes.definition(name.lexeme(), param.lexeme(), body, eq.line);
     }
 
-    private Expression parseExpression() {
+    private int parseExpression() {
         return parsePipeline();
     }
 
-    private Expression parsePipeline() {
-        Term first = parseTerm();
-        List<Term> terms = new ArrayList<>();
-        terms.add(first);
-        int line = first.line();
+    private int parsePipeline() {
+        int mark = nodes.mark();
+        int first = parseTerm();
+        nodes.push(first);
         while (match(TokenType.PIPE)) {
-            terms.add(parseTerm());
+            nodes.push(parseTerm());
         }
-        return new Pipeline(terms, line);
+        return nodes.pipeline(mark, nodes.line(first));
     }
 
-    private Term parseTerm() {
+    private int parseTerm() {
         if (match(TokenType.LBRACE)) {
-            List<Expression> expressions = new ArrayList<>();
+            int mark = nodes.mark();
             if (!check(TokenType.RBRACE)) {
                 while (true) {
-                    expressions.add(parseExpression());
+                    nodes.push(parseExpression());
                     if (match(TokenType.SEMICOLON)) {
                         continue;
                     }
-                    if (check(TokenType.RBRACE)) {
+                    if (check(TokenType.RBRACE) || isAtEnd()) {
                         break;
                     }
                 }
             }
             Token brace = consume(TokenType.RBRACE, "Expected '}'");
-            return new Group(expressions, brace.line);
+            return nodes.group(mark, brace.line);
         }
 
         Token token = advance();
+        if (token == null) {
+            throw error(current, "Expected expression");
+        }
         return switch (token.type) {
             case IDENTIFIER -> {
-                List<Term> arguments = new ArrayList<>();
+                int mark = nodes.mark();
                 int callLine = token.line;
                 while (true) {
                     if (isAtEnd()) {
@@ -81,19 +129,19 @@ public final class Parser {
                         break;
                     }
                     if (check(TokenType.IDENTIFIER) || check(TokenType.STRING) || check(TokenType.LBRACE)) {
-                        arguments.add(parseTerm());
+                        nodes.push(parseTerm());
                         continue;
                     }
                     break;
                 }
-                if (arguments.isEmpty()) {
-                    yield new Identifier(token.lexeme, token.line);
+                if (nodes.mark() == mark) {
+                    yield nodes.identifier(token.lexeme(), token.line);
                 }
-                yield new Call(token.lexeme, arguments, token.line);
+                yield nodes.call(token.lexeme(), mark, token.line);
             }
-            case STRING -> new StringLiteral(token.lexeme, token.line);
+            case STRING -> nodes.string(token.lexeme(), token.line);
             case LPAREN -> throw error(token, "Parenthesised expressions are not supported");
-            default -> throw error(token, "Unexpected token '" + token.lexeme + "'");
+            default -> throw error(token, "Unexpected token '" + token.lexeme() + "'");
         };
     }
 
@@ -112,21 +160,21 @@ public final class Parser {
         return peek().type == type;
     }
 
+    /** Consumes the current token unless it is the end of input, and returns the last one consumed. */
     private Token advance() {
-        if (!isAtEnd()) current++;
-        return previous();
+        if (!isAtEnd()) {
+            previous = current;
+            current = tokens.get();
+        }
+        return previous;
     }
 
     private boolean isAtEnd() {
-        return current >= tokens.size() || tokens.get(current).type == TokenType.EOF;
+        return current.type == TokenType.EOF;
     }
 
     private Token peek() {
-        return tokens.get(current);
-    }
-
-    private Token previous() {
-        return tokens.get(current - 1);
+        return current;
     }
 
     private Token consume(TokenType type, String message) {
@@ -135,7 +183,7 @@ public final class Parser {
     }
 
     private RuntimeException error(Token token, String message) {
-        String location = token.type == TokenType.EOF ? "end" : "'" + token.lexeme + "'";
+        String location = token.type == TokenType.EOF ? "end" : "'" + token.lexeme() + "'";
         return new RuntimeException("[line " + token.line + "] Error at " + location + ": " + message);
     }
 }
@@ -1,13 +1,46 @@
 package nalgae.parser;
 
-final class Token {
+/**
+ * A lexeme produced by {@link Lexer} for {@link Parser}. The type is public so that callers can
+ * hold on to a token list; its contents stay internal to the parser.
+ *
+ * <p>A string literal only records where its text lies in the source; the text is copied out the
+ * first time {@link #lexeme} is asked for it. Every other token carries its lexeme from the start,
+ * and identifiers share one string per name.
+ */
+public final class Token {
     final TokenType type;
-    final String lexeme;
     final int line;
+    final int offset;
+    private final CharSequence source;
+    private final int start;
+    private final int end;
+    private String lexeme;
 
-    Token(TokenType type, String lexeme, int line) {
+    Token(TokenType type, String lexeme, int line, int offset) {
         this.type = type;
         this.lexeme = lexeme;
         this.line = line;
+        this.offset = offset;
+        this.source = null;
+        this.start = 0;
+        this.end = 0;
+    }
+
+    /** A token whose lexeme is the text of {@code source} between {@code start} and {@code end}. */
+    Token(TokenType type, CharSequence source, int start, int end, int line, int offset) {
+        this.type = type;
+        this.line = line;
+        this.offset = offset;
+        this.source = source;
+        this.start = start;
+        this.end = end;
+    }
+
+    String lexeme() {
+        if (lexeme == null) {
+            lexeme = source.subSequence(start, end).toString();
+        }
+        return lexeme;
     }
 }
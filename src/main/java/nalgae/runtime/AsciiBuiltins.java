@@ -0,0 +1,223 @@
+package nalgae.runtime;
+
+/**
+ * The {@link Builtins} runtime over {@link AsciiString}, targeted by compiled programs.
+ *
+ * <p>Each method has the same name and result as its {@code String} counterpart. Case mapping is
+ * a table lookup per byte, lines are found by scanning for {@code '\n'} rather than splitting,
+ * and results share the input's bytes whenever they are a slice of it.
+ */
+public final class AsciiBuiltins {
+    private static final byte[] UPPER = new byte[128];
+    private static final byte[] LOWER = new byte[128];
+
+    static {
+        for (int i = 0; i < 128; i++) {
+            UPPER[i] = (byte) (i >= 'a' && i <= 'z' ? i - 32 : i);
+            LOWER[i] = (byte) (i >= 'A' && i <= 'Z' ? i + 32 : i);
+        }
+    }
+
+    private AsciiBuiltins() {}
+
+    public static AsciiString id(AsciiString input) {
+        return input;
+    }
+
+    public static AsciiString upper(AsciiString input) {
+        return mapCase(input, UPPER);
+    }
+
+    public static AsciiString lower(AsciiString input) {
+        return mapCase(input, LOWER);
+    }
+
+    /** Applies a case table, returning the input itself when no byte changes. */
+    private static AsciiString mapCase(AsciiString input, byte[] table) {
+        byte[] value = input.value;
+        int start = input.offset;
+        int end = start + input.count;
+        int first = start;
+        while (first < end && table[value[first]] == value[first]) {
+            first++;
+        }
+        if (first == end) {
+            return input;
+        }
+        byte[] result = new byte[input.count];
+        System.arraycopy(value, start, result, 0, first - start);
+        for (int i = first; i < end; i++) {
+            result[i - start] = table[value[i]];
+        }
+        return new AsciiString(result, 0, result.length);
+    }
+
+    /** Strips characters up to and including space from both ends, like {@link String#trim}. */
+    public static AsciiString trim(AsciiString input) {
+        byte[] value = input.value;
+        int start = 0;
+        int end = input.count;
+        while (start < end && value[input.offset + start] <= ' ') {
+            start++;
+        }
+        while (end > start && value[input.offset + end - 1] <= ' ') {
+            end--;
+        }
+        return input.slice(start, end);
+    }
+
+    public static AsciiString append(AsciiString input, AsciiString suffix) {
+        return concat(input, suffix);
+    }
+
+    public static AsciiString prepend(AsciiString input, AsciiString prefix) {
+        return concat(prefix, input);
+    }
+
+    public static AsciiString wrap(AsciiString input, AsciiString prefix, AsciiString suffix) {
+        if (prefix.isEmpty()) {
+            return concat(input, suffix);
+        }
+        if (suffix.isEmpty()) {
+            return concat(prefix, input);
+        }
+        byte[] result = new byte[prefix.count + input.count + suffix.count];
+        System.arraycopy(prefix.value, prefix.offset, result, 0, prefix.count);
+        System.arraycopy(input.value, input.offset, result, prefix.count, input.count);
+        System.arraycopy(suffix.value, suffix.offset, result, prefix.count + input.count, suffix.count);
+        return new AsciiString(result, 0, result.length);
+    }
+
+    private static AsciiString concat(AsciiString left, AsciiString right) {
+        if (left.isEmpty()) {
+            return right;
+        }
+        if (right.isEmpty()) {
+            return left;
+        }
+        byte[] result = new byte[left.count + right.count];
+        System.arraycopy(left.value, left.offset, result, 0, left.count);
+        System.arraycopy(right.value, right.offset, result, left.count, right.count);
+        return new AsciiString(result, 0, result.length);
+    }
+
+    /**
+     * Replaces every non-overlapping occurrence from left to right. An empty target matches
+     * before every character and at the end, as in {@link String#replace}.
+     */
+    public static AsciiString replace(AsciiString input, AsciiString target, AsciiString replacement) {
+        if (target.isEmpty()) {
+            AsciiString.Builder sb = new AsciiString.Builder(Builtins.resultLength("replace", input.count + (input.count + 1L) * replacement.count));
+            for (int i = 0; i < input.count; i++) {
+                sb.append(replacement).append((char) input.value[input.offset + i]);
+            }
+            return sb.append(replacement).build();
+        }
+        int match = input.indexOf(target, 0);
+        if (match < 0) {
+            return input;
+        }
+        AsciiString.Builder sb = new AsciiString.Builder(input.count + Math.max(0, replacement.count - target.count) * 4);
+        int start = 0;
+        while (match >= 0) {
+            sb.append(input.slice(start, match)).append(replacement);
+            start = match + target.count;
+            match = input.indexOf(target, start);
+        }
+        return sb.append(input.slice(start, input.count)).build();
+    }
+
+    /** Prefixes every line, including empty ones and the one after a trailing newline. */
+    public static AsciiString indent(AsciiString input, AsciiString prefix) {
+        if (prefix.isEmpty()) {
+            return input;
+        }
+        int lines = 1;
+        for (int i = input.indexOf('\n', 0); i >= 0; i = input.indexOf('\n', i + 1)) {
+            lines++;
+        }
+        AsciiString.Builder sb = new AsciiString.Builder(Builtins.resultLength("indent", input.count + (long) lines * prefix.count));
+        int start = 0;
+        while (true) {
+            int newline = input.indexOf('\n', start);
+            sb.append(prefix);
+            if (newline < 0) {
+                sb.append(input.slice(start, input.count));
+                return sb.build();
+            }
+            sb.append(input.slice(start, newline + 1));
+            start = newline + 1;
+        }
+    }
+
+    /**
+     * Drops leading and trailing blank lines and removes the smallest run of leading spaces and
+     * tabs shared by the remaining non-blank lines.
+     */
+    public static AsciiString trimIndent(AsciiString input) {
+        int length = input.count;
+        int first = 0;
+        while (true) {
+            int end = input.lineEnd(first);
+            if (!isBlank(input, first, end)) {
+                break;
+            }
+            if (end == length) {
+                return AsciiString.EMPTY;
+            }
+            first = end + 1;
+        }
+        int last = lineStart(input, length);
+        while (isBlank(input, last, input.lineEnd(last))) {
+            last = lineStart(input, last - 1);
+        }
+        int stop = input.lineEnd(last);
+
+        int indent = Integer.MAX_VALUE;
+        for (int start = first; start <= last; start = input.lineEnd(start) + 1) {
+            int end = input.lineEnd(start);
+            if (isBlank(input, start, end)) {
+                continue;
+            }
+            indent = Math.min(indent, AsciiScan.leadingBlanks(input.value, input.offset + start, input.offset + end));
+        }
+        if (indent == 0) {
+            return input.slice(first, stop);
+        }
+        AsciiString.Builder sb = new AsciiString.Builder(stop - first);
+        for (int start = first; start <= last; start = input.lineEnd(start) + 1) {
+            int end = input.lineEnd(start);
+            if (start > first) {
+                sb.append('\n');
+            }
+            sb.append(input.slice(Math.min(start + indent, end), end));
+        }
+        return sb.build();
+    }
+
+    /** Returns the start of the line containing {@code position}. */
+    private static int lineStart(AsciiString input, int position) {
+        int i = position - 1;
+        while (i >= 0 && input.value[input.offset + i] != '\n') {
+            i--;
+        }
+        return i + 1;
+    }
+
+    private static boolean isBlank(AsciiString input, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (input.value[input.offset + i] > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static AsciiString constValue(AsciiString value) {
+        return value;
+    }
+
+    public static AsciiString constValue(AsciiString input, AsciiString value) {
+        return value;
+    }
+}
@@ -0,0 +1,159 @@
+package nalgae.runtime;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Scanning loops over ASCII bytes that look at eight bytes at a time.
+ *
+ * <p>Each loop reads the bytes as little-endian {@code long} words and tests all eight lanes with
+ * a handful of arithmetic and bitwise operations instead of a branch per byte. The tests are
+ * exact for every byte value: a lane only has its high bit set in the result when that byte
+ * matches, so the lowest set bit is the first match. Lanes never carry into one another, because
+ * each one is reduced to seven bits before anything is added to it. The last few bytes of a range
+ * that do not fill a word are checked one at a time.
+ */
+public final class AsciiScan {
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long ONES = 0x0101010101010101L;
+
+    private AsciiScan() {}
+
+    /** Whether {@code code} is printable ASCII, tab, line feed or carriage return. */
+    public static boolean isAllowed(int code) {
+        return code == 0x09 || code == 0x0A || code == 0x0D || (code >= 0x20 && code <= 0x7E);
+    }
+
+    /**
+     * Returns the index of the first byte in {@code [from, to)} that is not printable ASCII, tab,
+     * line feed or carriage return, or -1 if there is none.
+     */
+    public static int firstNotAllowed(byte[] bytes, int from, int to) {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long rejected = notAllowed((long) LONGS.get(bytes, i));
+            if (rejected != 0) {
+                return i + (Long.numberOfTrailingZeros(rejected) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if (!isAllowed(bytes[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Like {@link #firstNotAllowed(byte[], int, int)}, but also stops at a '?'. */
+    private static int firstNotAllowedOrQuestionMark(byte[] bytes, int from, int to) {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long word = (long) LONGS.get(bytes, i);
+            long found = notAllowed(word) | zeroLanes7((word & LOW_BITS) ^ ONES * '?');
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if (!isAllowed(bytes[i]) || bytes[i] == '?') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the first character of {@code text} that is not printable ASCII, tab,
+     * line feed or carriage return, or -1 if there is none.
+     */
+    public static int firstNotAllowed(String text) {
+        return firstNotAllowed(text, text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Does the work of {@link #firstNotAllowed(String)} given {@code text} encoded as ISO-8859-1.
+     * A string of Latin-1 characters encodes to its bytes as they are stored; any other character
+     * becomes '?', or one '?' for a surrogate pair, so every '?' is checked against the string.
+     */
+    static int firstNotAllowed(String text, byte[] bytes) {
+        if (bytes.length != text.length()) {
+            return firstNotAllowedChar(text);
+        }
+        int i = 0;
+        while (true) {
+            i = firstNotAllowedOrQuestionMark(bytes, i, bytes.length);
+            if (i < 0 || bytes[i] != '?' || text.charAt(i) != '?') {
+                return i;
+            }
+            i++;
+        }
+    }
+
+    /** Returns the index of the first {@code target} byte in {@code [from, to)}, or -1. */
+    public static int indexOf(byte[] bytes, int from, int to, int target) {
+        long pattern = ONES * (target & 0xFF);
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long found = zeroLanes((long) LONGS.get(bytes, i) ^ pattern);
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if (bytes[i] == (byte) target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the number of spaces and tabs that {@code [from, to)} starts with. */
+    public static int leadingBlanks(byte[] bytes, int from, int to) {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long word = (long) LONGS.get(bytes, i);
+            long other = ~(zeroLanes(word ^ ONES * ' ') | zeroLanes(word ^ ONES * '\t')) & HIGH_BITS;
+            if (other != 0) {
+                return i - from + (Long.numberOfTrailingZeros(other) >>> 3);
+            }
+        }
+        while (i < to && (bytes[i] == ' ' || bytes[i] == '\t')) {
+            i++;
+        }
+        return i - from;
+    }
+
+    /** Sets the high bit of every lane of {@code word} that holds a byte {@link #isAllowed} rejects. */
+    private static long notAllowed(long word) {
+        long low = word & LOW_BITS;
+        long next = low + ONES;
+        // A seven-bit lane plus 0x60 reaches the high bit from 0x20 up; plus 0x01, only at 0x7F.
+        long printable = (low + ONES * 0x60) & ~next;
+        // Tab and line feed are the two lanes that are 0x0A once incremented and their lowest bit cleared.
+        long control = zeroLanes7((next & ONES * 0x7E) ^ ONES * 0x0A) | zeroLanes7(low ^ ONES * '\r');
+        return (word | ~(printable | control)) & HIGH_BITS;
+    }
+
+    /** Sets the high bit of every lane of {@code word} that is zero, and no other bit. */
+    private static long zeroLanes(long word) {
+        return ~(((word & LOW_BITS) + LOW_BITS) | word | LOW_BITS);
+    }
+
+    /** {@link #zeroLanes} for a word whose lanes all have their high bit clear. */
+    private static long zeroLanes7(long word) {
+        return ~(word + LOW_BITS) & HIGH_BITS;
+    }
+
+    private static int firstNotAllowedChar(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!isAllowed(text.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
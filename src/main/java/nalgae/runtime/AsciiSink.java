@@ -0,0 +1,77 @@
+package nalgae.runtime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Destination for the output of a program compiled in streaming mode. The generated
+ * {@code runTo} method writes group sections and concatenated pieces here as they are
+ * produced, so the complete output never has to exist in memory at once.
+ */
+public interface AsciiSink {
+    void write(AsciiString text) throws IOException;
+
+    default void write(char ch) throws IOException {
+        write(AsciiString.valueOf(ch));
+    }
+
+    /** Pushes buffered output to the underlying destination. */
+    default void flush() throws IOException {}
+
+    static AsciiSink of(Appendable out) {
+        return out::append;
+    }
+
+    /** Converts through a reusable char buffer rather than a {@code String} per write. */
+    static AsciiSink of(Writer out) {
+        char[] chars = new char[8192];
+        return new AsciiSink() {
+            @Override
+            public void write(AsciiString text) throws IOException {
+                for (int start = 0; start < text.count; start += chars.length) {
+                    int length = Math.min(chars.length, text.count - start);
+                    for (int i = 0; i < length; i++) {
+                        chars[i] = (char) text.value[text.offset + start + i];
+                    }
+                    out.write(chars, 0, length);
+                }
+            }
+
+            @Override
+            public void write(char ch) throws IOException {
+                out.write(ch);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+        };
+    }
+
+    static AsciiSink of(OutputStream out) {
+        return new AsciiSink() {
+            @Override
+            public void write(AsciiString text) throws IOException {
+                text.writeTo(out);
+            }
+
+            @Override
+            public void write(char ch) throws IOException {
+                out.write(ch);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+        };
+    }
+
+    /** Buffers small pieces and hands large ones to the channel without copying them. */
+    static AsciiSink of(WritableByteChannel channel) {
+        return new ChannelSink(channel);
+    }
+}
@@ -0,0 +1,242 @@
+package nalgae.runtime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Immutable 7-bit ASCII text stored as one byte per character over a shared array.
+ *
+ * <p>Values are validated once, when they are created from outside data, and every operation in
+ * {@link AsciiBuiltins} preserves the invariant. Slicing shares the backing array, and
+ * {@link #writeTo} hands the bytes to a stream without encoding them again.
+ */
+public final class AsciiString implements CharSequence {
+    public static final AsciiString EMPTY = new AsciiString(new byte[0], 0, 0);
+    private static final AsciiString[] SINGLE_CHARACTERS = new AsciiString[128];
+
+    static {
+        byte[] characters = new byte[128];
+        for (int i = 0; i < characters.length; i++) {
+            characters[i] = (byte) i;
+            SINGLE_CHARACTERS[i] = new AsciiString(characters, i, 1);
+        }
+    }
+
+    final byte[] value;
+    final int offset;
+    final int count;
+    private int hash;
+
+    AsciiString(byte[] value, int offset, int count) {
+        this.value = value;
+        this.offset = offset;
+        this.count = count;
+    }
+
+    /** Encodes a string, rejecting anything but printable ASCII, tab, line feed and carriage return. */
+    public static AsciiString of(String text) {
+        int length = text.length();
+        if (length == 0) {
+            return EMPTY;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        int rejected = AsciiScan.firstNotAllowed(text, bytes);
+        if (rejected >= 0) {
+            throw new IllegalArgumentException("Non-ASCII character detected: '" + text.charAt(rejected) + "'");
+        }
+        return new AsciiString(bytes, 0, length);
+    }
+
+    /** Returns a shared one-character value. */
+    public static AsciiString valueOf(char ch) {
+        if (!AsciiScan.isAllowed(ch)) {
+            throw new IllegalArgumentException("Non-ASCII character detected: '" + ch + "'");
+        }
+        return SINGLE_CHARACTERS[ch];
+    }
+
+    /** Copies and validates a range of raw bytes, such as a record read from a channel. */
+    public static AsciiString copyOf(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return EMPTY;
+        }
+        int rejected = AsciiScan.firstNotAllowed(bytes, offset, offset + length);
+        if (rejected >= 0) {
+            throw new IllegalArgumentException("Non-ASCII byte detected: 0x" + Integer.toHexString(bytes[rejected] & 0xFF));
+        }
+        return new AsciiString(Arrays.copyOfRange(bytes, offset, offset + length), 0, length);
+    }
+
+    @Override
+    public int length() {
+        return count;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) byteAt(index);
+    }
+
+    public byte byteAt(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + count);
+        }
+        return value[offset + index];
+    }
+
+    @Override
+    public AsciiString subSequence(int start, int end) {
+        return slice(start, end);
+    }
+
+    /** Returns a view of a range of this value without copying it. */
+    public AsciiString slice(int start, int end) {
+        if (start < 0 || end > count || start > end) {
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") out of bounds for length " + count);
+        }
+        if (start == 0 && end == count) {
+            return this;
+        }
+        return end == start ? EMPTY : new AsciiString(value, offset + start, end - start);
+    }
+
+    /** Finds a byte at or after {@code from}, or returns -1. */
+    public int indexOf(int ch, int from) {
+        if (ch < 0 || ch > 0x7F || from >= count) {
+            return -1;
+        }
+        int found = AsciiScan.indexOf(value, offset + Math.max(from, 0), offset + count, ch);
+        return found < 0 ? -1 : found - offset;
+    }
+
+    /** Returns the index of the first line feed at or after {@code from}, or the length if there is none. */
+    public int lineEnd(int from) {
+        int newline = indexOf('\n', from);
+        return newline < 0 ? count : newline;
+    }
+
+    /** Finds {@code target} at or after {@code from}, or returns -1. */
+    public int indexOf(AsciiString target, int from) {
+        int last = count - target.count;
+        if (target.count == 0) {
+            return from <= count ? Math.max(from, 0) : -1;
+        }
+        byte first = target.value[target.offset];
+        int i = Math.max(from, 0);
+        while (i <= last) {
+            int found = AsciiScan.indexOf(value, offset + i, offset + last + 1, first);
+            if (found < 0) {
+                return -1;
+            }
+            i = found - offset;
+            if (Arrays.equals(value, offset + i, offset + i + target.count, target.value, target.offset, target.offset + target.count)) {
+                return i;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /** Writes the bytes to {@code out} as they are stored, without an intermediate copy. */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(value, offset, count);
+    }
+
+    /** Writes the value followed by a line feed and flushes, as a program's {@code main} does. */
+    public void writeLine(OutputStream out) throws IOException {
+        writeTo(out);
+        out.write('\n');
+        out.flush();
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOfRange(value, offset, offset + count);
+    }
+
+    @Override
+    public String toString() {
+        return new String(value, offset, count, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        return other instanceof AsciiString that
+            && count == that.count
+            && Arrays.equals(value, offset, offset + count, that.value, that.offset, that.offset + that.count);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            for (int i = offset; i < offset + count; i++) {
+                h = 31 * h + value[i];
+            }
+            hash = h;
+        }
+        return h;
+    }
+
+    /**
+     * Accumulates ASCII bytes for a single result. {@link #build} hands the buffer to the new
+     * value instead of copying it, so a builder cannot be used again afterwards.
+     */
+    public static final class Builder {
+        private byte[] buffer;
+        private int count;
+
+        public Builder() {
+            this(64);
+        }
+
+        public Builder(int capacity) {
+            this.buffer = new byte[Math.max(capacity, 1)];
+        }
+
+        public Builder append(AsciiString text) {
+            ensureCapacity(count + text.count);
+            System.arraycopy(text.value, text.offset, buffer, count, text.count);
+            count += text.count;
+            return this;
+        }
+
+        /** Appends a single character, which must already be known to be ASCII. */
+        public Builder append(char ch) {
+            ensureCapacity(count + 1);
+            buffer[count++] = (byte) ch;
+            return this;
+        }
+
+        public int length() {
+            return count;
+        }
+
+        public AsciiString build() {
+            if (buffer == null) {
+                throw new IllegalStateException("Builder has already been used");
+            }
+            AsciiString result = count == 0 ? EMPTY : new AsciiString(buffer, 0, count);
+            buffer = null;
+            return result;
+        }
+
+        private void ensureCapacity(int required) {
+            if (buffer == null) {
+                throw new IllegalStateException("Builder has already been used");
+            }
+            if (required > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, required));
+            }
+        }
+    }
+}
@@ -1,110 +1,182 @@
 package nalgae.runtime;
 
+import java.util.Locale;
+import java.util.function.UnaryOperator;
+
+/**
+ * Runtime library targeted by generated programs.
+ *
+ * <p>Values are checked once where they enter a program: generated {@code run} methods and the
+ * interpreter call {@link #requireAscii} on their input, and literals are checked at compile
+ * time. Every builtin maps ASCII arguments to an ASCII result, so none of them re-validate.
+ */
 public final class Builtins {
     private Builtins() {}
 
-    private static String ensureAscii(String value) {
-        for (int i = 0; i < value.length(); i++) {
-            char ch = value.charAt(i);
-            int code = ch;
-            if (!(code == 0x09 || code == 0x0A || code == 0x0D || (code >= 0x20 && code <= 0x7E))) {
-                throw new IllegalArgumentException("Non-ASCII character detected: '" + ch + "'");
-            }
+    /** Rejects values containing anything but printable ASCII, tab, line feed and carriage return. */
+    public static String requireAscii(String value) {
+        int rejected = AsciiScan.firstNotAllowed(value);
+        if (rejected >= 0) {
+            throw new IllegalArgumentException("Non-ASCII character detected: '" + value.charAt(rejected) + "'");
         }
         return value;
     }
 
     public static String id(String input) {
-        return ensureAscii(input);
+        return input;
     }
 
     public static String upper(String input) {
-        return ensureAscii(input.toUpperCase());
+        return input.toUpperCase(Locale.ROOT);
     }
 
     public static String lower(String input) {
-        return ensureAscii(input.toLowerCase());
+        return input.toLowerCase(Locale.ROOT);
     }
 
     public static String trim(String input) {
-        return ensureAscii(input.trim());
+        return input.trim();
     }
 
     public static String append(String input, String suffix) {
-        return ensureAscii(ensureAscii(input) + ensureAscii(suffix));
+        return input + suffix;
     }
 
     public static String prepend(String input, String prefix) {
-        return ensureAscii(ensureAscii(prefix) + ensureAscii(input));
+        return prefix + input;
     }
 
     public static String replace(String input, String target, String replacement) {
-        return ensureAscii(ensureAscii(input).replace(ensureAscii(target), ensureAscii(replacement)));
+        if (target.isEmpty()) {
+            // A replacement goes before every character and at the end.
+            resultLength("replace", input.length() + (input.length() + 1L) * replacement.length());
+        }
+        return input.replace(target, replacement);
     }
 
+    /** Prefixes every line, including empty ones and the one after a trailing newline. */
     public static String indent(String input, String prefix) {
-        String validatedPrefix = ensureAscii(prefix);
-        String[] lines = ensureAscii(input).split("\\n", -1);
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < lines.length; i++) {
-            if (i > 0) {
-                sb.append('\n');
+        if (prefix.isEmpty()) {
+            return input;
+        }
+        int lines = 1;
+        for (int i = input.indexOf('\n'); i >= 0; i = input.indexOf('\n', i + 1)) {
+            lines++;
+        }
+        StringBuilder sb = new StringBuilder(resultLength("indent", input.length() + (long) lines * prefix.length()));
+        int start = 0;
+        while (true) {
+            int newline = input.indexOf('\n', start);
+            sb.append(prefix);
+            if (newline < 0) {
+                return sb.append(input, start, input.length()).toString();
             }
-            sb.append(validatedPrefix).append(lines[i]);
+            sb.append(input, start, newline + 1);
+            start = newline + 1;
         }
-        return ensureAscii(sb.toString());
     }
 
+    /**
+     * Drops leading and trailing blank lines and removes the smallest run of leading spaces and
+     * tabs shared by the remaining non-blank lines.
+     */
     public static String trimIndent(String input) {
-        String[] lines = ensureAscii(input).split("\\n", -1);
-        int start = 0;
-        int end = lines.length - 1;
-        while (start <= end && lines[start].trim().isEmpty()) {
-            start++;
-        }
-        while (end >= start && lines[end].trim().isEmpty()) {
-            end--;
+        int length = input.length();
+        int first = 0;
+        while (true) {
+            int end = lineEnd(input, first);
+            if (!isBlank(input, first, end)) {
+                break;
+            }
+            if (end == length) {
+                return "";
+            }
+            first = end + 1;
         }
-        if (start > end) {
-            return "";
+        int last = input.lastIndexOf('\n') + 1;
+        while (isBlank(input, last, lineEnd(input, last))) {
+            last = input.lastIndexOf('\n', last - 2) + 1;
         }
+        int stop = lineEnd(input, last);
+
         int indent = Integer.MAX_VALUE;
-        for (int i = start; i <= end; i++) {
-            String line = lines[i];
-            if (line.trim().isEmpty()) {
+        for (int start = first; start <= last; start = lineEnd(input, start) + 1) {
+            int end = lineEnd(input, start);
+            if (isBlank(input, start, end)) {
                 continue;
             }
             int count = 0;
-            while (count < line.length()) {
-                char ch = line.charAt(count);
-                if (ch == ' ' || ch == '\t') {
-                    count++;
-                } else {
-                    break;
-                }
+            while (start + count < end && (input.charAt(start + count) == ' ' || input.charAt(start + count) == '\t')) {
+                count++;
             }
             indent = Math.min(indent, count);
         }
-        if (indent == Integer.MAX_VALUE) {
-            indent = 0;
+        if (indent == 0) {
+            return input.substring(first, stop);
         }
-        StringBuilder sb = new StringBuilder();
-        for (int i = start; i <= end; i++) {
-            if (i > start) {
+        StringBuilder sb = new StringBuilder(stop - first);
+        for (int start = first; start <= last; start = lineEnd(input, start) + 1) {
+            int end = lineEnd(input, start);
+            if (start > first) {
                 sb.append('\n');
             }
-            String line = lines[i];
-            int cut = Math.min(indent, line.length());
-            sb.append(line.substring(cut));
+            sb.append(input, Math.min(start + indent, end), end);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Applies {@code definition} to every line, including empty ones and the one after a trailing
+     * newline, and joins the results with line feeds. This is the {@code each_line} stage.
+     */
+    public static String eachLine(String input, UnaryOperator<String> definition) {
+        StringBuilder sb = new StringBuilder(input.length());
+        int start = 0;
+        while (true) {
+            int end = lineEnd(input, start);
+            sb.append(definition.apply(input.substring(start, end)));
+            if (end == input.length()) {
+                return sb.toString();
+            }
+            sb.append('\n');
+            start = end + 1;
         }
-        return ensureAscii(sb.toString());
     }
 
     public static String wrap(String input, String prefix, String suffix) {
-        return ensureAscii(ensureAscii(prefix) + ensureAscii(input) + ensureAscii(suffix));
+        return prefix + input + suffix;
     }
 
     public static String constValue(String value) {
-        return ensureAscii(value);
+        return value;
+    }
+
+    public static String constValue(String input, String value) {
+        return value;
+    }
+
+    /**
+     * Narrows the length of a result about to be built, so that one too long for a string fails
+     * with a message instead of overflowing into a negative capacity.
+     */
+    static int resultLength(String builtin, long length) {
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Result of '" + builtin + "' would be " + length + " characters, more than a string can hold");
+        }
+        return (int) length;
+    }
+
+    private static int lineEnd(String input, int start) {
+        int newline = input.indexOf('\n', start);
+        return newline < 0 ? input.length() : newline;
+    }
+
+    private static boolean isBlank(String input, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (input.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
     }
 }
@@ -0,0 +1,60 @@
+package nalgae.runtime;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * {@link AsciiSink} over a channel, usually created by {@link AsciiSink#of(WritableByteChannel)}.
+ * It is public because bytecode-generated {@code main} methods construct it directly: their class
+ * file version predates calls to static interface methods.
+ */
+public final class ChannelSink implements AsciiSink {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    public ChannelSink(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void write(AsciiString text) throws IOException {
+        if (text.count <= buffer.remaining()) {
+            buffer.put(text.value, text.offset, text.count);
+            return;
+        }
+        drain();
+        if (text.count < BUFFER_SIZE / 2) {
+            buffer.put(text.value, text.offset, text.count);
+            return;
+        }
+        writeFully(ByteBuffer.wrap(text.value, text.offset, text.count));
+    }
+
+    @Override
+    public void write(char ch) throws IOException {
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put((byte) ch);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package nalgae.runtime;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache of the results of one memoized definition, held in a static field of the generated class.
+ * The generated method looks its argument up with {@link #get} and, on a miss, runs its body and
+ * records the result with {@link #put}.
+ *
+ * <p>The cache is bounded both by entry count and by an estimate of the memory its keys and
+ * values retain. Keys and values that are slices of a larger array are copied before they are
+ * stored, so that a short argument cut out of a large input does not keep the whole input alive.
+ * Each entry remembers how long its computation took; every hit adds that time to the time saved.
+ *
+ * <p>Batch workers and daemon connections call one program from many threads, so lookups take
+ * no lock: entries live in a {@link ConcurrentHashMap}, and a hit only marks its entry as
+ * referenced. Eviction approximates least-recently-used order with a clock: one thread at a time
+ * sweeps the map, giving referenced entries a second chance and removing the first one that has
+ * not been used since the last sweep. Threads that find a sweep under way go on without waiting,
+ * so the bounds can be exceeded briefly by the puts that race with it.
+ */
+public final class MemoCache {
+    /** Rough per-entry cost of the map node, the entry and two {@code AsciiString} headers. */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final String definition;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final ConcurrentHashMap<AsciiString, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder savedNanos = new LongAdder();
+    private final ReentrantLock sweeping = new ReentrantLock();
+    /** Where the clock stopped last; guarded by {@link #sweeping}. */
+    private Iterator<Map.Entry<AsciiString, Entry>> hand;
+
+    public MemoCache(String definition, int maxEntries, long maxBytes) {
+        this.definition = definition;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /** Returns the cached result for {@code key}, or null after counting a miss. */
+    public AsciiString get(AsciiString key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        hits.increment();
+        savedNanos.add(entry.nanos);
+        return entry.value;
+    }
+
+    /**
+     * Stores the result of a computation that started at {@code startNanos}, as returned by
+     * {@link System#nanoTime}, and returns it.
+     */
+    public AsciiString put(AsciiString key, AsciiString value, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        long size = ENTRY_OVERHEAD + key.count + value.count;
+        if (size > maxBytes) {
+            return value;
+        }
+        Entry entry = new Entry(compact(value), size, nanos);
+        Entry previous = entries.put(compact(key), entry);
+        if (previous == null) {
+            count.incrementAndGet();
+        } else {
+            bytes.addAndGet(-previous.size);
+        }
+        bytes.addAndGet(size);
+        evict();
+        return value;
+    }
+
+    public String definition() {
+        return definition;
+    }
+
+    public Stats stats() {
+        return new Stats(definition, hits.sum(), misses.sum(), evictions.sum(), count.get(), bytes.get(), savedNanos.sum());
+    }
+
+    public void clear() {
+        for (AsciiString key : entries.keySet()) {
+            Entry entry = entries.remove(key);
+            if (entry != null) {
+                removed(entry);
+            }
+        }
+    }
+
+    /** Returns the caches declared by a generated class, in declaration order. */
+    public static List<MemoCache> of(Class<?> generated) {
+        List<MemoCache> caches = new ArrayList<>();
+        for (Field field : generated.getDeclaredFields()) {
+            if (field.getType() != MemoCache.class || !Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            try {
+                field.setAccessible(true);
+                caches.add((MemoCache) field.get(null));
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                throw new IllegalStateException("Cannot read memo cache " + field.getName() + " of " + generated.getName(), ex);
+            }
+        }
+        return caches;
+    }
+
+    private boolean overBudget() {
+        return count.get() > maxEntries || bytes.get() > maxBytes;
+    }
+
+    /**
+     * Moves the clock hand until the cache is within its bounds. Two full turns clear every mark
+     * that was set before the sweep began; after that many steps the hand stops giving second
+     * chances, so a sweep ends even while other threads keep every entry in use. A put that finds
+     * the lock taken leaves its entry to the sweeper, which checks the bounds again after letting
+     * go of the lock, so that entry is not left behind when the sweeper was just finishing.
+     */
+    private void evict() {
+        while (overBudget() && sweeping.tryLock()) {
+            try {
+                sweep();
+            } finally {
+                sweeping.unlock();
+            }
+        }
+    }
+
+    private void sweep() {
+        long chances = 2L * count.get() + 2;
+        while (overBudget()) {
+            if (hand == null || !hand.hasNext()) {
+                hand = entries.entrySet().iterator();
+                if (!hand.hasNext()) {
+                    return;
+                }
+            }
+            Map.Entry<AsciiString, Entry> candidate = hand.next();
+            Entry entry = candidate.getValue();
+            if (entry.referenced && chances-- > 0) {
+                entry.referenced = false;
+            } else if (entries.remove(candidate.getKey(), entry)) {
+                removed(entry);
+                evictions.increment();
+            }
+        }
+    }
+
+    private void removed(Entry entry) {
+        count.decrementAndGet();
+        bytes.addAndGet(-entry.size);
+    }
+
+    private static AsciiString compact(AsciiString text) {
+        if (text.count == text.value.length) {
+            return text;
+        }
+        return new AsciiString(text.toByteArray(), 0, text.count);
+    }
+
+    private static final class Entry {
+        final AsciiString value;
+        final long size;
+        final long nanos;
+        /** Set by hits and cleared as the clock hand passes; races only cost an eviction's accuracy. */
+        volatile boolean referenced;
+
+        Entry(AsciiString value, long size, long nanos) {
+            this.value = value;
+            this.size = size;
+            this.nanos = nanos;
+        }
+    }
+
+    public record Stats(String definition, long hits, long misses, long evictions, int entries, long bytes, long savedNanos) {
+        @Override
+        public String toString() {
+            return definition + ": hits=" + hits + " misses=" + misses + " evictions=" + evictions
+                + " entries=" + entries + " bytes=" + bytes
+                + String.format(Locale.ROOT, " saved=%.3fms", savedNanos / 1e6);
+        }
+    }
+}
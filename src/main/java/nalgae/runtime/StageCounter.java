@@ -0,0 +1,82 @@
+package nalgae.runtime;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of one stage of an instrumented program: a builtin or definition call, or a group
+ * used as a pipeline step. Each counter is held in a static field of the generated class, which
+ * reports every completed call with {@link #record}. Times include nested stages, such as the
+ * stages of a called definition.
+ */
+public final class StageCounter {
+    private final String definition;
+    private final int line;
+    private final String stage;
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAdder inputBytes = new LongAdder();
+    private final LongAdder outputBytes = new LongAdder();
+
+    /**
+     * @param definition the definition whose body holds the stage, or {@code "it"} for the
+     *     program's main expression
+     * @param line source line of the stage
+     * @param stage the builtin or definition called, or {@code "{...}"} for a group step
+     */
+    public StageCounter(String definition, int line, String stage) {
+        this.definition = definition;
+        this.line = line;
+        this.stage = stage;
+    }
+
+    /** Counts a call that started at {@code startNanos} and returns its output. */
+    public AsciiString record(long startNanos, AsciiString input, AsciiString output) {
+        nanos.add(System.nanoTime() - startNanos);
+        invocations.increment();
+        inputBytes.add(input.count);
+        outputBytes.add(output.count);
+        return output;
+    }
+
+    public Stats stats() {
+        return new Stats(definition, line, stage, invocations.sum(), nanos.sum(), inputBytes.sum(), outputBytes.sum());
+    }
+
+    public void reset() {
+        invocations.reset();
+        nanos.reset();
+        inputBytes.reset();
+        outputBytes.reset();
+    }
+
+    /** Returns the counters declared by an instrumented class, in source order. */
+    public static List<StageCounter> of(Class<?> generated) {
+        List<StageCounter> counters = new ArrayList<>();
+        for (Field field : generated.getDeclaredFields()) {
+            if (field.getType() != StageCounter.class || !Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            try {
+                field.setAccessible(true);
+                counters.add((StageCounter) field.get(null));
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                throw new IllegalStateException("Cannot read stage counter " + field.getName() + " of " + generated.getName(), ex);
+            }
+        }
+        return counters;
+    }
+
+    public record Stats(String definition, int line, String stage, long invocations, long nanos, long inputBytes, long outputBytes) {
+        @Override
+        public String toString() {
+            return definition + ":" + line + " " + stage + ": calls=" + invocations
+                + String.format(Locale.ROOT, " time=%.3fms", nanos / 1e6)
+                + " in=" + inputBytes + " out=" + outputBytes;
+        }
+    }
+}
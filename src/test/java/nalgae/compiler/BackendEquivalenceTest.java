@@ -0,0 +1,66 @@
+package nalgae.compiler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import nalgae.NalgaeEngine;
+import nalgae.ast.Program;
+import nalgae.runtime.AsciiSink;
+import nalgae.runtime.AsciiString;
+import org.junit.jupiter.api.Named;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Compiles every program in the {@link Corpus} with javac, and with the bytecode generator before
+ * and after folding, and expects the same output or the same error message for every input.
+ */
+class BackendEquivalenceTest {
+    private static final List<Named<CompilerOptions>> OPTIONS = List.of(
+        Named.of("default", CompilerOptions.DEFAULT),
+        Named.of("streaming", new CompilerOptions(true, Memoization.NONE, false)),
+        Named.of("memoized", new CompilerOptions(false, new Memoization(true, Set.of(), 2, 300), false)),
+        Named.of("instrumented", new CompilerOptions(false, Memoization.NONE, true)));
+
+    static Stream<Arguments> programs() {
+        return Corpus.all().stream().flatMap(entry -> OPTIONS.stream().map(options -> Arguments.of(entry, options)));
+    }
+
+    @ParameterizedTest(name = "{0} {1}")
+    @MethodSource("programs")
+    void backendsAgree(Corpus.Entry entry, CompilerOptions options) {
+        Program program = Corpus.parse(entry.source());
+        Program folded = new Optimizer(program).optimize();
+        List<String> expected = run(program, Backend.JAVAC, options);
+        assertEquals(expected, run(program, Backend.BYTECODE, options), entry.source());
+        assertEquals(expected, run(folded, Backend.BYTECODE, options), () -> "folded\n" + ProgramPrinter.print(folded));
+    }
+
+    /**
+     * Returns the outcome for each of the {@link Corpus#INPUTS}, and checks that a streaming
+     * program writes to a sink what {@code apply} returns.
+     */
+    private static List<String> run(Program program, Backend backend, CompilerOptions options) {
+        Function<String, String> function;
+        try {
+            function = NalgaeEngine.load(new ProgramCompiler(program, "corpus.Program", backend, options).compile());
+        } catch (RuntimeException ex) {
+            String failure = Corpus.failure(ex);
+            return Corpus.INPUTS.stream().map(input -> failure).toList();
+        }
+        return Corpus.INPUTS.stream().map(input -> Corpus.outcome(() -> {
+            String output = function.apply(input);
+            if (options.streaming()) {
+                StringBuilder sb = new StringBuilder();
+                function.getClass().getMethod("runTo", AsciiString.class, AsciiSink.class)
+                    .invoke(null, AsciiString.of(input), AsciiSink.of(sb));
+                assertEquals(output, sb.toString(), "streamed output");
+            }
+            return output;
+        })).toList();
+    }
+}
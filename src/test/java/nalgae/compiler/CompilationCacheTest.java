@@ -0,0 +1,30 @@
+package nalgae.compiler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import nalgae.ast.Program;
+import org.junit.jupiter.api.Test;
+
+class CompilationCacheTest {
+    private static final String SOURCE = "def shout(x) = x | upper\nit | trim | shout\n";
+    private static final String MOVED = "# moved down\n\n" + SOURCE.replace(" | ", "   |   ");
+    private static final CompilerOptions INSTRUMENTED = new CompilerOptions(false, Memoization.NONE, true);
+
+    @Test
+    void layoutDoesNotChangeTheProgramKey() {
+        assertEquals(key(SOURCE, CompilerOptions.DEFAULT), key(MOVED, CompilerOptions.DEFAULT));
+    }
+
+    @Test
+    void instrumentedProgramsAreKeyedByLine() {
+        // Stage counters carry the line of their stage, so a moved program needs new classes.
+        assertNotEquals(key(SOURCE, INSTRUMENTED), key(MOVED, INSTRUMENTED));
+        assertEquals(key(SOURCE, INSTRUMENTED), key(SOURCE.replace(" | ", "   |   "), INSTRUMENTED));
+    }
+
+    private static String key(String source, CompilerOptions options) {
+        Program program = Corpus.parse(source);
+        return CompilationCache.programKey(program, "Program", Backend.BYTECODE, options);
+    }
+}
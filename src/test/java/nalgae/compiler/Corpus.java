@@ -0,0 +1,172 @@
+package nalgae.compiler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
+import nalgae.ast.Program;
+import nalgae.parser.Lexer;
+import nalgae.parser.Parser;
+
+/**
+ * Programs and inputs that the equivalence tests run through every way of executing a program:
+ * the shipped examples, and random programs drawn from the whole grammar.
+ *
+ * <p>Some generated programs call a name that does not exist or pass arguments to a builtin that
+ * takes none, so that error messages are compared as well as outputs.
+ */
+final class Corpus {
+    static final int GENERATED = 200;
+    static final List<String> INPUTS = List.of("", "abc", "  Hello a\n  world  ", "\n\tx\r\n  y\n\n");
+
+    private static final String[] LITERALS = {
+        "\"a\"", "'B c'", "\"  x\ty \"", "\"\"\"\n    l1\n      l2\n\"\"\"", "\"q'\"", "'n'", "\"Zz\""
+    };
+
+    private Corpus() {}
+
+    /** The programs in {@code examples/}, by file name. */
+    static List<Entry> examples() {
+        try (Stream<Path> files = Files.list(Path.of("examples"))) {
+            List<Entry> entries = new ArrayList<>();
+            for (Path file : files.filter(f -> f.toString().endsWith(".nal")).sorted().toList()) {
+                entries.add(new Entry(file.getFileName().toString(), Files.readString(file)));
+            }
+            return entries;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /** The examples followed by {@link #GENERATED} random programs that parse. */
+    static List<Entry> all() {
+        List<Entry> entries = new ArrayList<>(examples());
+        for (long seed = 0; entries.size() < examples().size() + GENERATED; seed++) {
+            String source = generate(seed);
+            try {
+                parse(source);
+            } catch (RuntimeException ex) {
+                continue;
+            }
+            entries.add(new Entry("seed " + seed, source));
+        }
+        return entries;
+    }
+
+    static Program parse(String source) {
+        return new Parser(new Lexer(source)).parseProgram();
+    }
+
+    /** Runs {@code action}, and describes a failure. Failed assertions are passed on. */
+    static String outcome(Callable<String> action) {
+        try {
+            return action.call();
+        } catch (AssertionError ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            return failure(ex);
+        }
+    }
+
+    /** Describes a failure by the message of its root cause. */
+    static String failure(Throwable ex) {
+        Throwable cause = ex;
+        while (cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return "ERR " + cause.getMessage();
+    }
+
+    /** Up to four definitions, each free to call the ones before it, then a main pipeline. */
+    static String generate(long seed) {
+        Generator generator = new Generator(new Random(seed));
+        StringBuilder sb = new StringBuilder();
+        int count = generator.random.nextInt(5);
+        for (int i = 0; i < count; i++) {
+            String name = "d" + i;
+            String parameter = generator.random.nextBoolean() ? "x" : "v";
+            sb.append("def ").append(name).append('(').append(parameter).append(") = ")
+                .append(generator.pipeline(parameter, 0)).append('\n');
+            generator.definitions.add(name);
+        }
+        return sb.append(generator.pipeline("it", 0)).append('\n').toString();
+    }
+
+    record Entry(String name, String source) {
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final class Generator {
+        final Random random;
+        final List<String> definitions = new ArrayList<>();
+
+        Generator(Random random) {
+            this.random = random;
+        }
+
+        String literal() {
+            return LITERALS[random.nextInt(LITERALS.length)];
+        }
+
+        String definition() {
+            return definitions.get(random.nextInt(definitions.size()));
+        }
+
+        String pipeline(String parameter, int depth) {
+            StringBuilder sb = new StringBuilder(term(parameter, depth));
+            int steps = random.nextInt(4);
+            for (int i = 0; i < steps; i++) {
+                sb.append(" | ").append(step(parameter, depth));
+            }
+            return sb.toString();
+        }
+
+        String term(String parameter, int depth) {
+            int kind = random.nextInt(depth > 2 ? 2 : 4);
+            if (kind == 0) {
+                return literal();
+            }
+            if (kind == 1) {
+                return parameter;
+            }
+            if (kind == 2 && !definitions.isEmpty()) {
+                return definition() + " " + (random.nextBoolean() ? literal() : parameter);
+            }
+            StringBuilder sb = new StringBuilder("{\n");
+            int branches = random.nextInt(3);
+            for (int i = 0; i < branches; i++) {
+                sb.append(pipeline(parameter, depth + 1)).append('\n');
+            }
+            return sb.append('}').toString();
+        }
+
+        String step(String parameter, int depth) {
+            String[] builtins = {
+                "upper", "lower", "trim", "id", "trim_indent",
+                "append " + literal(), "prepend " + literal(), "wrap " + literal() + " " + literal(),
+                "indent " + literal(), "replace \"a\" " + literal(), "const " + literal(), literal(),
+                random.nextInt(8) == 0 ? "nope" : "id",
+                random.nextInt(8) == 0 ? "upper " + literal() : "id"
+            };
+            int kind = random.nextInt(builtins.length + 3);
+            if (kind < builtins.length) {
+                return builtins[kind];
+            }
+            if (kind == builtins.length && !definitions.isEmpty()) {
+                return definition();
+            }
+            if (kind == builtins.length + 1 && !definitions.isEmpty()) {
+                return "each_line " + definition();
+            }
+            return depth > 2 ? "id" : term(parameter, depth + 1);
+        }
+    }
+}
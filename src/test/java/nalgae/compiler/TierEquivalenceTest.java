@@ -0,0 +1,70 @@
+package nalgae.compiler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+import nalgae.NalgaeEngine;
+import nalgae.ast.Program;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Runs every program in the {@link Corpus} on the {@link Interpreter} and as a compiled class, and
+ * through a {@link TieredProgram} before and after it is promoted, and expects the same output or
+ * the same error message for every input.
+ */
+class TierEquivalenceTest {
+    static List<Corpus.Entry> programs() {
+        return Corpus.all();
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("programs")
+    void interpreterAgreesWithCompiledClass(Corpus.Entry entry) {
+        Program program = Corpus.parse(entry.source());
+        Program folded = new Optimizer(program).optimize();
+        List<String> expected = run(() -> compile(program));
+        assertEquals(expected, run(() -> new Interpreter(program).prepare()), entry.source());
+        assertEquals(expected, run(() -> new Interpreter(folded).prepare()), () -> "folded\n" + ProgramPrinter.print(folded));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("programs")
+    void promotionKeepsOutputs(Corpus.Entry entry) {
+        Program program = Corpus.parse(entry.source());
+        Function<String, String> interpreted;
+        try {
+            interpreted = new Interpreter(program).prepare();
+        } catch (RuntimeException ex) {
+            // Rejected before it could run; interpreterAgreesWithCompiledClass compares the message.
+            return;
+        }
+        List<String> expected = run(() -> interpreted);
+        // Promotes on the second call, on the calling thread, so the later calls are compiled.
+        TieredProgram tiered = new TieredProgram(interpreted, () -> compile(program), 2, Runnable::run);
+        assertEquals(expected, run(() -> tiered), "while promoting");
+        assertNull(tiered.failure(), "compiled tier");
+        assertTrue(tiered.isCompiled());
+        assertEquals(expected, run(() -> tiered), "after promotion");
+    }
+
+    private static Function<String, String> compile(Program program) {
+        return NalgaeEngine.load(new ProgramCompiler(program, "corpus.Program", Backend.BYTECODE, CompilerOptions.DEFAULT).compile());
+    }
+
+    /** Returns the outcome for each of the {@link Corpus#INPUTS}, or the failure to prepare for each. */
+    private static List<String> run(Callable<Function<String, String>> prepare) {
+        Function<String, String> function;
+        try {
+            function = prepare.call();
+        } catch (Exception ex) {
+            String failure = Corpus.failure(ex);
+            return Corpus.INPUTS.stream().map(input -> failure).toList();
+        }
+        return Corpus.INPUTS.stream().map(input -> Corpus.outcome(() -> function.apply(input))).toList();
+    }
+}
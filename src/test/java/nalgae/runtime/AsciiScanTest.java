@@ -0,0 +1,202 @@
+package nalgae.runtime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the word-at-a-time loops of {@link AsciiScan} against plain loops over one byte or char
+ * at a time, and the {@link AsciiBuiltins} built on them against the {@link Builtins} on strings.
+ */
+class AsciiScanTest {
+    @Test
+    void everyByteInEveryLaneAtEveryOffset() {
+        for (int filler = 0; filler < 256; filler++) {
+            for (int value = 0; value < 256; value++) {
+                for (int lane = 0; lane < Long.BYTES; lane++) {
+                    // Eleven bytes: from offsets 0 to 2 there is one whole word and a tail.
+                    byte[] bytes = new byte[11];
+                    Arrays.fill(bytes, (byte) filler);
+                    bytes[lane] = (byte) value;
+                    for (int from = 0; from < 3; from++) {
+                        checkBytes(bytes, from, bytes.length, value);
+                        checkBytes(bytes, from, bytes.length, filler);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void randomRanges() {
+        Random random = new Random(42);
+        byte[] alphabet = {' ', '\t', '\n', '\r', 'a', '?', 0x7F, (byte) 0x80, 0, 0x1F, 0x20, 0x7E, (byte) 0xFF, 9, 10, 13};
+        for (int iteration = 0; iteration < 200_000; iteration++) {
+            byte[] bytes = new byte[random.nextInt(40)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = random.nextInt(4) == 0 ? (byte) random.nextInt(256) : alphabet[random.nextInt(alphabet.length)];
+            }
+            int from = random.nextInt(bytes.length + 1);
+            int to = from + random.nextInt(bytes.length - from + 1);
+            checkBytes(bytes, from, to, random.nextInt(256));
+            checkBytes(bytes, from, to, alphabet[random.nextInt(alphabet.length)]);
+        }
+    }
+
+    @Test
+    void everyCharAtEveryPosition() {
+        for (int ch = 0; ch <= Character.MAX_VALUE; ch++) {
+            for (int position = 0; position < 12; position += 3) {
+                StringBuilder sb = new StringBuilder("abc?defghi? ");
+                sb.setCharAt(position, (char) ch);
+                String text = sb.toString();
+                assertEquals(firstNotAllowed(text), AsciiScan.firstNotAllowed(text), () -> "firstNotAllowed " + text);
+                byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+                for (int from = 0; from < 3; from++) {
+                    checkBytes(bytes, from, bytes.length, ch);
+                }
+            }
+            String leading = " \t".repeat(5) + (char) ch + "  ";
+            byte[] bytes = leading.getBytes(StandardCharsets.ISO_8859_1);
+            for (int from = 0; from < 3; from++) {
+                checkBytes(bytes, from, bytes.length, ch);
+            }
+        }
+    }
+
+    @Test
+    void randomStrings() {
+        Random random = new Random(42);
+        for (int iteration = 0; iteration < 100_000; iteration++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(30);
+            for (int i = 0; i < length; i++) {
+                switch (random.nextInt(10)) {
+                    case 0 -> sb.appendCodePoint(0x1F600);
+                    case 1 -> sb.append((char) random.nextInt(Character.MAX_VALUE + 1));
+                    case 2 -> sb.append('?');
+                    default -> sb.append((char) (0x20 + random.nextInt(0x5F)));
+                }
+            }
+            String text = sb.toString();
+            assertEquals(firstNotAllowed(text), AsciiScan.firstNotAllowed(text), () -> "firstNotAllowed " + text);
+        }
+    }
+
+    @Test
+    void asciiBuiltinsMatchBuiltins() {
+        List<String> values = new ArrayList<>(List.of(
+            "", " ", "a", "A b", "\t x \r\n", "\n\n", "  l1\n    l2\n", "\n  a\n\n  b\n  ", "iI", "x\ty",
+            "~!@#", "aaa", "\r", "abcabc", "  \t  ", "\n", "  a\n \n   b", "\t\ta\n\tb\n\n"));
+        Random random = new Random(1);
+        String alphabet = "aA b\n\t\rzZ";
+        for (int k = 0; k < 60; k++) {
+            values.add(randomText(random, alphabet, 12));
+        }
+        for (String s : values) {
+            AsciiString a = AsciiString.of(s);
+            check(Builtins.id(s), AsciiBuiltins.id(a), "id", s);
+            check(Builtins.upper(s), AsciiBuiltins.upper(a), "upper", s);
+            check(Builtins.lower(s), AsciiBuiltins.lower(a), "lower", s);
+            check(Builtins.trim(s), AsciiBuiltins.trim(a), "trim", s);
+            check(Builtins.trimIndent(s), AsciiBuiltins.trimIndent(a), "trimIndent", s);
+            check(Builtins.constValue(s), AsciiBuiltins.constValue(a), "constValue", s);
+            for (String t : values) {
+                AsciiString b = AsciiString.of(t);
+                check(Builtins.append(s, t), AsciiBuiltins.append(a, b), "append", s, t);
+                check(Builtins.prepend(s, t), AsciiBuiltins.prepend(a, b), "prepend", s, t);
+                check(Builtins.indent(s, t), AsciiBuiltins.indent(a, b), "indent", s, t);
+                check(Builtins.constValue(s, t), AsciiBuiltins.constValue(a, b), "constValue", s, t);
+                for (String u : values.subList(0, 30)) {
+                    AsciiString c = AsciiString.of(u);
+                    check(Builtins.replace(s, t, u), AsciiBuiltins.replace(a, b, c), "replace", s, t, u);
+                    check(Builtins.wrap(s, t, u), AsciiBuiltins.wrap(a, b, c), "wrap", s, t, u);
+                }
+            }
+        }
+    }
+
+    @Test
+    void slicesMatchTheirStrings() {
+        Random random = new Random(7);
+        String alphabet = " \t\n\r?ab\n  x";
+        for (int iteration = 0; iteration < 100_000; iteration++) {
+            String whole = randomText(random, alphabet, 60);
+            int offset = random.nextInt(whole.length() + 1);
+            String s = whole.substring(offset);
+            AsciiString slice = AsciiString.of(whole).slice(offset, whole.length());
+            String t = alphabet.substring(random.nextInt(4), 4 + random.nextInt(5));
+            String target = t.isEmpty() ? "a" : t.substring(0, Math.min(t.length(), 1 + random.nextInt(2)));
+            check(Builtins.trimIndent(s), AsciiBuiltins.trimIndent(slice), "trimIndent", s);
+            check(Builtins.trim(s), AsciiBuiltins.trim(slice), "trim", s);
+            check(Builtins.indent(s, t), AsciiBuiltins.indent(slice, AsciiString.of(t)), "indent", s, t);
+            check(Builtins.replace(s, target, "Q"), AsciiBuiltins.replace(slice, AsciiString.of(target), AsciiString.of("Q")), "replace", s, target);
+            int from = random.nextInt(70) - 5;
+            assertEquals(s.indexOf('\n', from), slice.indexOf('\n', from), () -> "indexOf '\\n' " + from + " " + s);
+            assertEquals(s.indexOf(t, Math.max(from, 0)), slice.indexOf(AsciiString.of(t), from), () -> "indexOf " + t + " " + from + " " + s);
+        }
+    }
+
+    private static void checkBytes(byte[] bytes, int from, int to, int target) {
+        assertEquals(firstNotAllowed(bytes, from, to), AsciiScan.firstNotAllowed(bytes, from, to), () -> "firstNotAllowed " + range(bytes, from, to));
+        assertEquals(indexOf(bytes, from, to, target), AsciiScan.indexOf(bytes, from, to, target), () -> "indexOf " + target + " " + range(bytes, from, to));
+        assertEquals(leadingBlanks(bytes, from, to), AsciiScan.leadingBlanks(bytes, from, to), () -> "leadingBlanks " + range(bytes, from, to));
+    }
+
+    private static String range(byte[] bytes, int from, int to) {
+        return Arrays.toString(bytes) + " [" + from + ", " + to + ")";
+    }
+
+    private static void check(String expected, AsciiString actual, String builtin, String... arguments) {
+        assertEquals(expected, actual.toString(), () -> builtin + List.of(arguments));
+    }
+
+    private static String randomText(Random random, String alphabet, int maxLength) {
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(maxLength);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    private static int firstNotAllowed(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!AsciiScan.isAllowed(bytes[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int firstNotAllowed(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!AsciiScan.isAllowed(text.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] bytes, int from, int to, int target) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == (byte) target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int leadingBlanks(byte[] bytes, int from, int to) {
+        int i = from;
+        while (i < to && (bytes[i] == ' ' || bytes[i] == '\t')) {
+            i++;
+        }
+        return i - from;
+    }
+}
@@ -0,0 +1,242 @@
+package nalgae.runtime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import nalgae.NalgaeEngine;
+import nalgae.compiler.Backend;
+import nalgae.compiler.CompilerOptions;
+import nalgae.compiler.Interpreter;
+import nalgae.parser.Lexer;
+import nalgae.parser.Parser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Checks the builtins, which trust their arguments to be ASCII, against the versions that checked
+ * every argument and result, over every combination of a set of values: 7,740 calls in all.
+ * Non-ASCII text is instead rejected where it enters a program, which the remaining tests check
+ * for inputs and literals.
+ */
+class BuiltinsTest {
+    private static final List<String> VALUES = List.of(
+        "", " ", "a", "A b", "\t x \r\n", "\n\n", "  l1\n    l2\n", "\n  a\n\n  b\n  ", "iI", "x\ty",
+        "~!@#", "aaa", "\r", "abcabc", "  \t  ");
+    private static final List<String> NOT_ASCII = List.of("\u0000", "\u0001", "\u001f", "\u007f", "\u0080", "\u00e9", "\ud55c", "\ud83d\ude00");
+    private static final List<String> ENTRY_BACKENDS = List.of("interpreter", "JAVAC", "BYTECODE");
+
+    @Test
+    void matchesCheckedBuiltinsOnEveryCombination() {
+        int calls = 0;
+        for (String a : VALUES) {
+            calls += check(Builtins.id(a), Checked.id(a), "id", a);
+            calls += check(Builtins.upper(a), Checked.upper(a), "upper", a);
+            calls += check(Builtins.lower(a), Checked.lower(a), "lower", a);
+            calls += check(Builtins.trim(a), Checked.trim(a), "trim", a);
+            calls += check(Builtins.trimIndent(a), Checked.trimIndent(a), "trimIndent", a);
+            calls += check(Builtins.constValue(a), Checked.constValue(a), "constValue", a);
+            for (String b : VALUES) {
+                calls += check(Builtins.append(a, b), Checked.append(a, b), "append", a, b);
+                calls += check(Builtins.prepend(a, b), Checked.prepend(a, b), "prepend", a, b);
+                calls += check(Builtins.indent(a, b), Checked.indent(a, b), "indent", a, b);
+                calls += check(Builtins.constValue(a, b), Checked.constValue(b), "constValue", a, b);
+                for (String c : VALUES) {
+                    calls += check(Builtins.replace(a, b, c), Checked.replace(a, b, c), "replace", a, b, c);
+                    calls += check(Builtins.wrap(a, b, c), Checked.wrap(a, b, c), "wrap", a, b, c);
+                }
+            }
+        }
+        assertEquals(7740, calls);
+    }
+
+    @Test
+    void eachLineMatchesSplittingIntoLines() {
+        UnaryOperator<String> definition = line -> Builtins.wrap(Builtins.trim(line), "<", ">");
+        for (String a : VALUES) {
+            String[] lines = a.split("\n", -1);
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = definition.apply(lines[i]);
+            }
+            check(Builtins.eachLine(a, definition), String.join("\n", lines), "eachLine", a);
+        }
+    }
+
+    @Test
+    void eachLineCannotBeDefined() {
+        String source = "def shout(x) = x | upper\ndef each_line(x) = x | shout\nit | each_line shout\n";
+        RuntimeException ex = assertThrows(RuntimeException.class, () -> new Parser(new Lexer(source)).parseProgram());
+        assertEquals("[line 2] Error at 'each_line': 'each_line' is a stage and cannot be defined", ex.getMessage());
+    }
+
+    @Test
+    void resultsTooLongForAStringFailClearly() {
+        String lines = "\n".repeat(1 << 20);
+        String prefix = "p".repeat(2100);
+        long indented = lines.length() + (lines.length() + 1L) * prefix.length();
+        assertTooLong("indent", indented, () -> Builtins.indent(lines, prefix));
+        assertTooLong("indent", indented, () -> AsciiBuiltins.indent(AsciiString.of(lines), AsciiString.of(prefix)));
+        String input = "i".repeat(50_000);
+        String replacement = "r".repeat(50_000);
+        long replaced = input.length() + (input.length() + 1L) * replacement.length();
+        assertTooLong("replace", replaced, () -> Builtins.replace(input, "", replacement));
+        assertTooLong("replace", replaced, () -> AsciiBuiltins.replace(AsciiString.of(input), AsciiString.EMPTY, AsciiString.of(replacement)));
+    }
+
+    @Test
+    void requireAsciiRejectsEveryOtherCharacter() {
+        for (String value : VALUES) {
+            assertEquals(value, Builtins.requireAscii(value));
+        }
+        for (String bad : NOT_ASCII) {
+            IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> Builtins.requireAscii("ok " + bad));
+            assertEquals("Non-ASCII character detected: '" + bad.charAt(0) + "'", ex.getMessage());
+        }
+    }
+
+    @Test
+    void everyTierRejectsNonAsciiInput() {
+        String source = "it | trim | upper | append \"!\"\n";
+        for (String tier : ENTRY_BACKENDS) {
+            Function<String, String> program = load(tier, source);
+            assertEquals("OK!", program.apply(" ok "), tier);
+            for (String bad : NOT_ASCII) {
+                IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> program.apply("ok " + bad), tier);
+                assertEquals("Non-ASCII character detected: '" + bad.charAt(0) + "'", ex.getMessage(), tier);
+            }
+        }
+    }
+
+    @Test
+    void literalsMustBeAscii() {
+        for (String bad : NOT_ASCII) {
+            assertLiteralRejected("it | append \"x" + bad + "\"\n", 1);
+            assertLiteralRejected("# header\nit | prepend 'x" + bad + "'\n", 2);
+            assertLiteralRejected("it | append \"\"\"\n  fine\n  x" + bad + "\n\"\"\"\n", 3);
+        }
+    }
+
+    private static void assertTooLong(String builtin, long length, Executable call) {
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, call, builtin);
+        assertEquals("Result of '" + builtin + "' would be " + length + " characters, more than a string can hold", ex.getMessage());
+    }
+
+    private static void assertLiteralRejected(String source, int line) {
+        RuntimeException ex = assertThrows(RuntimeException.class, () -> new Parser(new Lexer(source)).parseProgram(), source);
+        assertEquals("[line " + line + "] Non-ASCII character in string literal", ex.getMessage(), source);
+    }
+
+    private static Function<String, String> load(String tier, String source) {
+        if (tier.equals("interpreter")) {
+            return new Interpreter(new Parser(new Lexer(source)).parseProgram()).prepare();
+        }
+        return new NalgaeEngine(Backend.valueOf(tier), CompilerOptions.DEFAULT, null).compile(source, "Entry");
+    }
+
+    private static int check(String actual, String expected, String builtin, String... arguments) {
+        assertEquals(expected, actual, () -> builtin + List.of(arguments));
+        return 1;
+    }
+
+    /** The builtins as they were when each one checked its arguments and its result. */
+    private static final class Checked {
+        private Checked() {}
+
+        static String ensureAscii(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char ch = value.charAt(i);
+                if (!(ch == 0x09 || ch == 0x0A || ch == 0x0D || (ch >= 0x20 && ch <= 0x7E))) {
+                    throw new IllegalArgumentException("Non-ASCII character detected: '" + ch + "'");
+                }
+            }
+            return value;
+        }
+
+        static String id(String input) {
+            return ensureAscii(input);
+        }
+
+        static String upper(String input) {
+            return ensureAscii(input.toUpperCase());
+        }
+
+        static String lower(String input) {
+            return ensureAscii(input.toLowerCase());
+        }
+
+        static String trim(String input) {
+            return ensureAscii(input.trim());
+        }
+
+        static String append(String input, String suffix) {
+            return ensureAscii(ensureAscii(input) + ensureAscii(suffix));
+        }
+
+        static String prepend(String input, String prefix) {
+            return ensureAscii(ensureAscii(prefix) + ensureAscii(input));
+        }
+
+        static String replace(String input, String target, String replacement) {
+            return ensureAscii(ensureAscii(input).replace(ensureAscii(target), ensureAscii(replacement)));
+        }
+
+        static String indent(String input, String prefix) {
+            String validatedPrefix = ensureAscii(prefix);
+            String[] lines = ensureAscii(input).split("\\n", -1);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < lines.length; i++) {
+                if (i > 0) {
+                    sb.append('\n');
+                }
+                sb.append(validatedPrefix).append(lines[i]);
+            }
+            return ensureAscii(sb.toString());
+        }
+
+        static String trimIndent(String input) {
+            String[] lines = ensureAscii(input).split("\\n", -1);
+            int start = 0;
+            int end = lines.length - 1;
+            while (start <= end && lines[start].trim().isEmpty()) {
+                start++;
+            }
+            while (end >= start && lines[end].trim().isEmpty()) {
+                end--;
+            }
+            if (start > end) {
+                return "";
+            }
+            int indent = Integer.MAX_VALUE;
+            for (int i = start; i <= end; i++) {
+                String line = lines[i];
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                int count = 0;
+                while (count < line.length() && (line.charAt(count) == ' ' || line.charAt(count) == '\t')) {
+                    count++;
+                }
+                indent = Math.min(indent, count);
+            }
+            StringBuilder sb = new StringBuilder();
+            for (int i = start; i <= end; i++) {
+                if (i > start) {
+                    sb.append('\n');
+                }
+                String line = lines[i];
+                sb.append(line.substring(Math.min(indent, line.length())));
+            }
+            return ensureAscii(sb.toString());
+        }
+
+        static String wrap(String input, String prefix, String suffix) {
+            return ensureAscii(ensureAscii(prefix) + ensureAscii(input) + ensureAscii(suffix));
+        }
+
+        static String constValue(String value) {
+            return ensureAscii(value);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package nalgae.runtime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+class MemoCacheTest {
+    @Test
+    void countsHitsAndMisses() {
+        MemoCache cache = new MemoCache("d", 10, 1 << 20);
+        assertNull(cache.get(text("k")));
+        cache.put(text("k"), text("v"), System.nanoTime());
+        assertEquals(text("v"), cache.get(text("k")));
+        MemoCache.Stats stats = cache.stats();
+        assertEquals(1, stats.hits());
+        assertEquals(1, stats.misses());
+        assertEquals(1, stats.entries());
+    }
+
+    @Test
+    void keepsWithinItsEntryLimitAndSparesRecentlyUsedEntries() {
+        MemoCache cache = new MemoCache("d", 4, 1 << 20);
+        for (int i = 0; i < 4; i++) {
+            cache.put(text("k" + i), text("v" + i), System.nanoTime());
+        }
+        assertNotNull(cache.get(text("k0")));
+        cache.put(text("k4"), text("v4"), System.nanoTime());
+        assertEquals(4, cache.stats().entries());
+        assertEquals(1, cache.stats().evictions());
+        assertNotNull(cache.get(text("k0")));
+        assertNotNull(cache.get(text("k4")));
+    }
+
+    @Test
+    void keepsWithinItsByteLimit() {
+        MemoCache cache = new MemoCache("d", 1000, 4096);
+        for (int i = 0; i < 100; i++) {
+            cache.put(text("key" + i), text("x".repeat(200)), System.nanoTime());
+            assertTrue(cache.stats().bytes() <= 4096, () -> cache.stats().toString());
+        }
+        cache.put(text("huge"), text("x".repeat(8192)), System.nanoTime());
+        assertNull(cache.get(text("huge")));
+    }
+
+    @Test
+    void storesSlicesWithoutTheirBackingArray() {
+        MemoCache cache = new MemoCache("d", 10, 1 << 20);
+        AsciiString input = text("a".repeat(10_000) + "key" + "value");
+        AsciiString key = input.slice(10_000, 10_003);
+        cache.put(key, input.slice(10_003, 10_008), System.nanoTime());
+        AsciiString value = cache.get(text("key"));
+        assertEquals(text("value"), value);
+        assertEquals(5, value.toByteArray().length);
+        assertEquals(128 + 3 + 5, cache.stats().bytes());
+    }
+
+    @Test
+    void accountsExactlyUnderConcurrentUse() throws Exception {
+        MemoCache cache = new MemoCache("d", 64, 1 << 20);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                long seed = t;
+                done.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 50_000; i++) {
+                        AsciiString key = text("k" + random.nextInt(200));
+                        if (cache.get(key) == null) {
+                            cache.put(key, text("v".repeat(random.nextInt(50))), System.nanoTime());
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : done) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        MemoCache.Stats stats = cache.stats();
+        assertEquals(8 * 50_000, stats.hits() + stats.misses());
+        assertTrue(stats.entries() <= 64 + 8, stats::toString);
+        cache.clear();
+        assertEquals(0, cache.stats().entries());
+        assertEquals(0, cache.stats().bytes());
+    }
+
+    private static AsciiString text(String value) {
+        return AsciiString.of(value);
+    }
+}